@@ -167,8 +167,16 @@ import io.onedev.server.entitymanager.impl.DefaultUserAuthorizationManager;
 import io.onedev.server.entitymanager.impl.DefaultUserManager;
 import io.onedev.server.entityreference.DefaultEntityReferenceManager;
 import io.onedev.server.entityreference.EntityReferenceManager;
+import io.onedev.server.git.AdvertisedRefsManager;
+import io.onedev.server.git.ArchiveManager;
+import io.onedev.server.git.DefaultAdvertisedRefsManager;
+import io.onedev.server.git.DefaultArchiveManager;
+import io.onedev.server.git.DefaultGitTransportManager;
+import io.onedev.server.git.DefaultPackCacheManager;
 import io.onedev.server.git.GitFilter;
 import io.onedev.server.git.GitSshCommandCreator;
+import io.onedev.server.git.GitTransportManager;
+import io.onedev.server.git.PackCacheManager;
 import io.onedev.server.git.config.GitConfig;
 import io.onedev.server.git.hookcallback.GitPostReceiveCallback;
 import io.onedev.server.git.hookcallback.GitPreReceiveCallback;
@@ -240,6 +248,7 @@ import io.onedev.server.security.DefaultWebSecurityManager;
 import io.onedev.server.security.FilterChainConfigurator;
 import io.onedev.server.security.SecurityUtils;
 import io.onedev.server.security.realm.AbstractAuthorizingRealm;
+import io.onedev.server.security.realm.AuthorizationCache;
 import io.onedev.server.ssh.DefaultKeyPairProvider;
 import io.onedev.server.ssh.DefaultSshAuthenticator;
 import io.onedev.server.ssh.SshAuthenticator;
@@ -352,6 +361,10 @@ public class CoreModule extends AbstractPluginModule {
 		 */
 		bind(MarkdownManager.class).to(DefaultMarkdownManager.class);		
 		bind(StorageManager.class).to(DefaultStorageManager.class);
+		bind(ArchiveManager.class).to(DefaultArchiveManager.class);
+		bind(GitTransportManager.class).to(DefaultGitTransportManager.class);
+		bind(PackCacheManager.class).to(DefaultPackCacheManager.class);
+		bind(AdvertisedRefsManager.class).to(DefaultAdvertisedRefsManager.class);
 		bind(SettingManager.class).to(DefaultSettingManager.class);
 		bind(DataManager.class).to(DefaultDataManager.class);
 		bind(TaskScheduler.class).to(DefaultTaskScheduler.class);
@@ -410,6 +423,7 @@ public class CoreModule extends AbstractPluginModule {
 		bind(EntityReferenceManager.class).to(DefaultEntityReferenceManager.class);
 		
 		bind(WebHookManager.class);
+		bind(AuthorizationCache.class);
 		
 		contribute(ImplementationProvider.class, new ImplementationProvider() {
 
@@ -12,21 +12,26 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -85,6 +90,7 @@ import io.onedev.server.entitymanager.UserManager;
 import io.onedev.server.event.ProjectCreated;
 import io.onedev.server.event.ProjectEvent;
 import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.RefsUpdated;
 import io.onedev.server.event.ScheduledTimeReaches;
 import io.onedev.server.event.build.BuildFinished;
 import io.onedev.server.event.build.BuildPending;
@@ -133,7 +139,7 @@ import io.onedev.server.web.editable.annotation.Interpolative;
 @Singleton
 public class DefaultJobManager implements JobManager, Runnable, CodePullAuthorizationSource {
 
-	private static final int CHECK_INTERVAL = 1000; // check internal in milli-seconds
+	private static final int RECHECK_DELAY = 1000; // delay in milli-seconds to check a build again if checking fails
 	
 	private static final Logger logger = LoggerFactory.getLogger(DefaultJobManager.class);
 	
@@ -173,6 +179,26 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 	
 	private volatile Thread thread;
 	
+	// Ids of builds to be checked by scheduler thread. Also used to guard other scheduler states
+	private final Set<Long> buildsToCheck = new LinkedHashSet<>();
+	
+	// Map of time to ids of builds to be checked at that time, for instance to cancel timed out executions 
+	private final TreeMap<Long, Set<Long>> scheduledChecks = new TreeMap<>();
+	
+	// Map of dependency build id to ids of waiting builds depending on it
+	private final Map<Long, Set<Long>> waitingDependents = new HashMap<>();
+	
+	// Number of dependency finishing signals, used to detect dependencies finished while checking waiting builds
+	private long dependencyFinishes;
+	
+	// Number of builds dispatched after becoming pending, guarded by buildsToCheck
+	private long dispatches;
+	
+	// Total and maximum milliseconds between builds becoming pending and being dispatched, guarded by buildsToCheck
+	private long totalDispatchLatency;
+	
+	private long maxDispatchLatency;
+	
 	@Inject
 	public DefaultJobManager(BuildManager buildManager, UserManager userManager, ListenerRegistry listenerRegistry, 
 			SettingManager settingManager, TransactionManager transactionManager, LogManager logManager, 
@@ -425,7 +451,7 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 				File projectGitDir = build.getProject().getGitDir();
 
 				AtomicReference<JobExecution> executionRef = new AtomicReference<>(null);
-				executionRef.set(new JobExecution(executorService.submit(new Runnable() {
+				FutureTask<Void> future = new FutureTask<Void>(new Runnable() {
 
 					@Override
 					public void run() {
@@ -675,7 +701,16 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 						}
 					}
 					
-				}), job.getTimeout() * 1000L));
+				}, null) {
+					
+					@Override
+					protected void done() {
+						checkLater(buildId);
+					}
+				
+				};
+				executionRef.set(new JobExecution(future, job.getTimeout() * 1000L));
+				executorService.execute(future);
 				
 				return executionRef.get();
 			} else {
@@ -913,6 +948,8 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 	@Listen
 	public void on(SystemStarted event) {
 		jobExecutors = settingManager.getJobExecutors();
+		
+		checkLater(buildManager.queryUnfinished().stream().map(it->it.getId()).collect(Collectors.toList()));
 		thread = new Thread(this);
 		thread.start();	
 		
@@ -936,15 +973,49 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 				
 			});
 		}
+		if (event.getEntity() instanceof Project || event.getEntity() instanceof Build) {
+			transactionManager.runAfterCommit(new Runnable() {
+				
+				@Override
+				public void run() {
+					/*
+					 * Builds removed along with project are not notified individually. Check all 
+					 * builds being executed or depended on, and those removed will be cleaned up
+					 */
+					synchronized (buildsToCheck) {
+						buildsToCheck.addAll(jobExecutions.keySet());
+						buildsToCheck.addAll(waitingDependents.keySet());
+						buildsToCheck.notifyAll();
+					}
+				}
+				
+			});
+		}
 	}
 
 	@Sessional
 	@Listen
 	public void on(RefUpdated event) {
+		if (!event.isBulk() && isDefaultBranchUpdated(event))
+			schedule(event.getProject());
+	}
+	
+	@Sessional
+	@Listen
+	public void on(RefsUpdated event) {
+		// Schedule at most once for a push, as schedule parses build spec of default branch
+		for (RefUpdated refUpdated: event.getRefUpdates()) {
+			if (isDefaultBranchUpdated(refUpdated)) {
+				schedule(event.getProject());
+				break;
+			}
+		}
+	}
+	
+	private boolean isDefaultBranchUpdated(RefUpdated event) {
 		String branch = GitUtils.ref2branch(event.getRefName());
-		Project project = event.getProject();
-		if (branch != null && branch.equals(project.getDefaultBranch()) && !event.getNewCommitId().equals(ObjectId.zeroId()))
-			schedule(project);
+		return branch != null && branch.equals(event.getProject().getDefaultBranch()) 
+				&& !event.getNewCommitId().equals(ObjectId.zeroId());
 	}
 	
 	@Transactional
@@ -1053,6 +1124,9 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 		if (thread != null) {
 			Thread copy = thread;
 			thread = null;
+			synchronized (buildsToCheck) {
+				buildsToCheck.notifyAll();
+			}
 			try {
 				copy.join();
 			} catch (InterruptedException e) {
@@ -1062,98 +1136,257 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 		scheduledTasks.clear();
 	}
 
+	private void checkLater(Collection<Long> buildIds) {
+		synchronized (buildsToCheck) {
+			buildsToCheck.addAll(buildIds);
+			buildsToCheck.notifyAll();
+		}
+	}
+	
+	private void checkLater(Long buildId) {
+		checkLater(Sets.newHashSet(buildId));
+	}
+	
+	private void checkAt(Long buildId, long time) {
+		synchronized (buildsToCheck) {
+			Set<Long> buildIds = scheduledChecks.get(time);
+			if (buildIds == null) {
+				buildIds = new HashSet<>();
+				scheduledChecks.put(time, buildIds);
+			}
+			buildIds.add(buildId);
+			buildsToCheck.notifyAll();
+		}
+	}
+	
+	private void checkDependents(Long buildId) {
+		synchronized (buildsToCheck) {
+			dependencyFinishes++;
+			Set<Long> dependents = waitingDependents.remove(buildId);
+			if (dependents != null) {
+				buildsToCheck.addAll(dependents);
+				buildsToCheck.notifyAll();
+			}
+			
+			// Finished build might also be waiting for other dependencies, for instance when cancelled
+			for (Iterator<Map.Entry<Long, Set<Long>>> it = waitingDependents.entrySet().iterator(); it.hasNext();) {
+				Set<Long> dependentsOfOther = it.next().getValue();
+				if (dependentsOfOther.remove(buildId) && dependentsOfOther.isEmpty())
+					it.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Wait until there are builds to check
+	 * 
+	 * @return
+	 * 			ids of builds to check, or <tt>null</tt> if system is stopping and all job 
+	 * 			executions are finished
+	 */
+	@Nullable
+	private List<Long> takeBuildsToCheck() throws InterruptedException {
+		synchronized (buildsToCheck) {
+			while (true) {
+				long now = System.currentTimeMillis();
+				while (!scheduledChecks.isEmpty() && scheduledChecks.firstKey() <= now)
+					buildsToCheck.addAll(scheduledChecks.pollFirstEntry().getValue());
+				if (!buildsToCheck.isEmpty()) {
+					List<Long> buildIds = new ArrayList<>(buildsToCheck);
+					buildsToCheck.clear();
+					return buildIds;
+				} else if (thread == null && jobExecutions.isEmpty()) {
+					return null;
+				} else if (!scheduledChecks.isEmpty()) {
+					buildsToCheck.wait(scheduledChecks.firstKey() - now);
+				} else {
+					buildsToCheck.wait();
+				}
+			}
+		}
+	}
+	
 	@Override
 	public void run() {
-		while (!jobExecutions.isEmpty() || thread != null) {
+		while (true) {
+			List<Long> buildIds;
 			try {
-				synchronized (this) {
-					transactionManager.run(new Runnable() {
+				buildIds = takeBuildsToCheck();
+			} catch (InterruptedException e) {
+				break;
+			}
+			if (buildIds == null)
+				break;
+			for (Long buildId: buildIds) {
+				long dependencyFinishesBeforeCheck;
+				synchronized (buildsToCheck) {
+					dependencyFinishesBeforeCheck = dependencyFinishes;
+				}
+				try {
+					synchronized (this) {
+						transactionManager.run(new Runnable() {
 		
-						@Override
-						public void run() {
-							for (Build build: buildManager.queryUnfinished()) {
-								if (build.getStatus() == Build.Status.RUNNING || build.getStatus() == Build.Status.PENDING) {
-									JobExecution execution = jobExecutions.get(build.getId());
-									if (execution != null) {
-										if (execution.isTimedout())
-											execution.cancel(null);
-									} else if (thread != null) {
-										try {
-											jobExecutions.put(build.getId(), execute(build));
-										} catch (Throwable t) {
-											if (t instanceof ExplicitException)
-												markBuildError(build, t.getMessage());
-											else
-												markBuildError(build, Throwables.getStackTraceAsString(t));
-										}
-									}
-								} else if (build.getStatus() == Build.Status.WAITING) {
-									if (build.getRetryDate() != null) {
-										JobExecution execution = jobExecutions.get(build.getId());
-										if (execution == null && thread != null) {
-											build.setStatus(Build.Status.PENDING);
-											build.setPendingDate(new Date());
-											listenerRegistry.post(new BuildPending(build));
-										}
-									} else if (build.getDependencies().stream().anyMatch(it -> it.isRequireSuccessful() 
-											&& it.getDependency().isFinished() 
-											&& it.getDependency().getStatus() != Build.Status.SUCCESSFUL)) {
-										markBuildError(build, "Some dependencies are required to be successful but failed");
-									} else if (build.getDependencies().stream().allMatch(it->it.getDependency().isFinished())) {
-										build.setStatus(Build.Status.PENDING);
-										build.setPendingDate(new Date());
-										listenerRegistry.post(new BuildPending(build));
-									}
-								} 
+							@Override
+							public void run() {
+								check(buildId, dependencyFinishesBeforeCheck);
 							}
-							for (Iterator<Map.Entry<Long, JobExecution>> it = jobExecutions.entrySet().iterator(); it.hasNext();) {
-								Map.Entry<Long, JobExecution> entry = it.next();
-								Build build = buildManager.get(entry.getKey());
-								JobExecution execution = entry.getValue();
-								if (build == null || build.isFinished()) {
-									it.remove();
-									execution.cancel(null);
-								} else if (execution.isDone()) {
-									it.remove();
-									try {
-										execution.check();
-										build.setStatus(Build.Status.SUCCESSFUL);
-									} catch (TimeoutException e) {
-										build.setStatus(Build.Status.TIMED_OUT);
-									} catch (CancellationException e) {
-										if (e instanceof CancellerAwareCancellationException) {
-											Long cancellerId = ((CancellerAwareCancellationException) e).getCancellerId();
-											if (cancellerId != null)
-												build.setCanceller(userManager.load(cancellerId));
-										}
-										build.setStatus(Build.Status.CANCELLED);
-									} catch (ExecutionException e) {
-										if (e.getCause() instanceof ExplicitException)
-											build.setStatus(Build.Status.FAILED, e.getCause().getMessage());
-										else
-											build.setStatus(Build.Status.FAILED, e.getMessage());
-									} catch (InterruptedException e) {
-									} finally {
-										build.setFinishDate(new Date());
-										listenerRegistry.post(new BuildFinished(build));
-									}
+						
+						});
+					}
+				} catch (Throwable e) {
+					logger.error("Error checking build (id: " + buildId + ")", e);
+					checkAt(buildId, System.currentTimeMillis() + RECHECK_DELAY);
+				} 
+			}
+		}	
+	}
+	
+	private void check(Long buildId, long dependencyFinishesBeforeCheck) {
+		Build build = buildManager.get(buildId);
+		JobExecution execution = jobExecutions.get(buildId);
+		if (build == null || build.isFinished()) 
+			checkDependents(buildId);
+		
+		if (execution != null) {
+			if (build == null || build.isFinished()) {
+				jobExecutions.remove(buildId);
+				execution.cancel(null);
+			} else if (execution.isDone()) {
+				jobExecutions.remove(buildId);
+				try {
+					execution.check();
+					build.setStatus(Build.Status.SUCCESSFUL);
+				} catch (TimeoutException e) {
+					build.setStatus(Build.Status.TIMED_OUT);
+				} catch (CancellationException e) {
+					if (e instanceof CancellerAwareCancellationException) {
+						Long cancellerId = ((CancellerAwareCancellationException) e).getCancellerId();
+						if (cancellerId != null)
+							build.setCanceller(userManager.load(cancellerId));
+					}
+					build.setStatus(Build.Status.CANCELLED);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof ExplicitException)
+						build.setStatus(Build.Status.FAILED, e.getCause().getMessage());
+					else
+						build.setStatus(Build.Status.FAILED, e.getMessage());
+				} catch (InterruptedException e) {
+				} finally {
+					build.setFinishDate(new Date());
+					listenerRegistry.post(new BuildFinished(build));
+				}
+			} else if ((build.getStatus() == Build.Status.RUNNING || build.getStatus() == Build.Status.PENDING) 
+					&& execution.isTimedout()) {
+				// Build will be checked again and marked as timed out once execution is done 
+				execution.cancel(null);
+			} else {
+				/*
+				 * Build waiting for retry is not subject to timeout while execution sleeps for 
+				 * retry delay. Begin time of execution may be updated when job is retried
+				 */
+				checkAt(buildId, execution.getDeadline());
+			}
+		} else if (build != null) {
+			if (build.getStatus() == Build.Status.RUNNING || build.getStatus() == Build.Status.PENDING) {
+				if (thread != null) {
+					try {
+						// Builds still running since last run are dispatched again without being pending
+						boolean firstDispatch = build.getStatus() == Build.Status.PENDING 
+								&& build.getPendingDate() != null;
+						execution = execute(build);
+						jobExecutions.put(buildId, execution);
+						checkAt(buildId, execution.getDeadline());
+						if (firstDispatch) 
+							recordDispatchLatency(System.currentTimeMillis() - build.getPendingDate().getTime());
+					} catch (Throwable t) {
+						if (t instanceof ExplicitException)
+							markBuildError(build, t.getMessage());
+						else
+							markBuildError(build, Throwables.getStackTraceAsString(t));
+					}
+				}
+			} else if (build.getStatus() == Build.Status.WAITING) {
+				if (build.getRetryDate() != null) {
+					if (thread != null) 
+						markBuildPending(build);
+				} else if (build.getDependencies().stream().anyMatch(it -> it.isRequireSuccessful() 
+						&& it.getDependency().isFinished() 
+						&& it.getDependency().getStatus() != Build.Status.SUCCESSFUL)) {
+					markBuildError(build, "Some dependencies are required to be successful but failed");
+				} else if (build.getDependencies().stream().allMatch(it->it.getDependency().isFinished())) {
+					markBuildPending(build);
+				} else {
+					synchronized (buildsToCheck) {
+						for (BuildDependence dependence: build.getDependencies()) {
+							if (!dependence.getDependency().isFinished()) {
+								Long dependencyId = dependence.getDependency().getId();
+								Set<Long> dependents = waitingDependents.get(dependencyId);
+								if (dependents == null) {
+									dependents = new HashSet<>();
+									waitingDependents.put(dependencyId, dependents);
 								}
+								dependents.add(buildId);
 							}
 						}
 						
-					});
+						// Some dependencies might finish after being loaded and before being registered above 
+						if (dependencyFinishes != dependencyFinishesBeforeCheck) 
+							buildsToCheck.add(buildId);
+					}
 				}
-				Thread.sleep(CHECK_INTERVAL);
-			} catch (Throwable e) {
-				logger.error("Error checking unfinished builds", e);
 			} 
-		}	
+		}
+	}
+	
+	private void markBuildPending(Build build) {
+		build.setStatus(Build.Status.PENDING);
+		build.setPendingDate(new Date());
+		listenerRegistry.post(new BuildPending(build));
+		
+		Long buildId = build.getId();
+		transactionManager.runAfterCommit(new Runnable() {
+			
+			@Override
+			public void run() {
+				checkLater(buildId);
+			}
+		
+		});
+	}
+	
+	private void recordDispatchLatency(long latency) {
+		synchronized (buildsToCheck) {
+			dispatches++;
+			totalDispatchLatency += latency;
+			maxDispatchLatency = Math.max(maxDispatchLatency, latency);
+		}
+	}
+	
+	@Override
+	public JobSchedulerStatus getSchedulerStatus() {
+		synchronized (buildsToCheck) {
+			Set<Long> waitingBuilds = new HashSet<>();
+			for (Set<Long> dependents: waitingDependents.values())
+				waitingBuilds.addAll(dependents);
+			return new JobSchedulerStatus(buildsToCheck.size(), waitingBuilds.size(), 
+					jobExecutions.size(), dispatches, totalDispatchLatency, maxDispatchLatency);
+		}
 	}
 	
 	@Listen
 	public void on(BuildSubmitted event) {
 		Build build = event.getBuild();
 		FileUtils.deleteDir(build.getPublishDir());
+		
+		Long buildId = build.getId();
+		transactionManager.runAfterCommit(new Runnable() {
+			
+			@Override
+			public void run() {
+				checkLater(buildId);
+			}
+		
+		});
 	}
 
 	@Transactional
@@ -1166,6 +1399,15 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 		}
 
 		Long buildId = build.getId();
+		
+		transactionManager.runAfterCommit(new Runnable() {
+			
+			@Override
+			public void run() {
+				checkDependents(buildId);
+			}
+		
+		});
 
 		OneDev.getInstance(TransactionManager.class).runAfterCommit(new Runnable() {
 
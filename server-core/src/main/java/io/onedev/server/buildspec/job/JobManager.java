@@ -37,4 +37,6 @@ public interface JobManager {
 	Map<String, byte[]> runServerStep(String jobToken, List<Integer> stepPosition, 
 			File filesDir, Map<String, String> placeholderValues, SimpleLogger logger);
 	
+	JobSchedulerStatus getSchedulerStatus();
+
 }
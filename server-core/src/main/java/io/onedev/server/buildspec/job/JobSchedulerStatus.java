@@ -0,0 +1,77 @@
+package io.onedev.server.buildspec.job;
+
+import java.io.Serializable;
+
+public class JobSchedulerStatus implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private final int queueLength;
+	
+	private final int waitingBuilds;
+	
+	private final int runningExecutions;
+	
+	private final long dispatches;
+	
+	private final long totalDispatchLatency;
+	
+	private final long maxDispatchLatency;
+	
+	public JobSchedulerStatus(int queueLength, int waitingBuilds, int runningExecutions, 
+			long dispatches, long totalDispatchLatency, long maxDispatchLatency) {
+		this.queueLength = queueLength;
+		this.waitingBuilds = waitingBuilds;
+		this.runningExecutions = runningExecutions;
+		this.dispatches = dispatches;
+		this.totalDispatchLatency = totalDispatchLatency;
+		this.maxDispatchLatency = maxDispatchLatency;
+	}
+	
+	/**
+	 * @return
+	 * 			number of builds queued to be checked by job scheduler
+	 */
+	public int getQueueLength() {
+		return queueLength;
+	}
+	
+	/**
+	 * @return
+	 * 			number of builds waiting for their dependencies to finish
+	 */
+	public int getWaitingBuilds() {
+		return waitingBuilds;
+	}
+	
+	public int getRunningExecutions() {
+		return runningExecutions;
+	}
+	
+	/**
+	 * @return
+	 * 			number of pending builds dispatched to job executors since server start
+	 */
+	public long getDispatches() {
+		return dispatches;
+	}
+	
+	/**
+	 * @return
+	 * 			average milliseconds between builds becoming pending and their job executions 
+	 * 			being started, or <tt>0</tt> if no builds are dispatched yet
+	 */
+	public long getAverageDispatchLatency() {
+		return dispatches != 0? totalDispatchLatency / dispatches: 0;
+	}
+	
+	/**
+	 * @return
+	 * 			maximum milliseconds between builds becoming pending and their job executions 
+	 * 			being started
+	 */
+	public long getMaxDispatchLatency() {
+		return maxDispatchLatency;
+	}
+
+}
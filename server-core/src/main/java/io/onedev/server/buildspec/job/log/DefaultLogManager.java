@@ -1,15 +1,8 @@
 package io.onedev.server.buildspec.job.log;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -58,8 +51,6 @@ public class DefaultLogManager implements LogManager {
 
 	private static final int MAX_CACHE_ENTRIES = 10000;
 	
-	private static final String LOG_FILE = "build.log";
-	
 	private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormat.forPattern("HH:mm:ss");	
 	
 	private static final Pattern EOL_PATTERN = Pattern.compile("\r?\n");
@@ -80,9 +71,36 @@ public class DefaultLogManager implements LogManager {
 		this.buildManager = buildManager;
 	}
 	
-	private File getLogFile(Long projectId, Long buildNumber) {
+	private JobLogFile getLogFile(Long projectId, Long buildNumber) {
+		return new JobLogFile(storageManager.getBuildDir(projectId, buildNumber));
+	}
+	
+	/*
+	 * Convert log written with Java serialization by earlier versions to indexed format, 
+	 * and pack it if build is already finished
+	 */
+	private void migrateLogIfNecessary(Long buildId, Long projectId, Long buildNumber, boolean finished) {
 		File buildDir = storageManager.getBuildDir(projectId, buildNumber);
-		return new File(buildDir, LOG_FILE);
+		File legacyFile = new File(buildDir, JobLogFile.LEGACY_FILE);
+		if (legacyFile.exists()) {
+			Lock lock = LockUtils.getReadWriteLock(getLockKey(buildId)).writeLock();
+			lock.lock();
+			try {
+				if (legacyFile.exists()) {
+					JobLogFile logFile = new JobLogFile(buildDir);
+					logFile.migrate(legacyFile);
+					if (finished)
+						logFile.pack();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+	
+	private JobLogFile getLogFile(Build build) {
+		migrateLogIfNecessary(build.getId(), build.getProject().getId(), build.getNumber(), build.isFinished());
+		return getLogFile(build.getProject().getId(), build.getNumber());
 	}
 	
 	@Override
@@ -103,8 +121,8 @@ public class DefaultLogManager implements LogManager {
 				try {
 					LogSnippet snippet = recentSnippets.get(buildId);
 					if (snippet == null) {
-						File logFile = getLogFile(projectId, buildNumber);
-						if (!logFile.exists())	{
+						migrateLogIfNecessary(buildId, projectId, buildNumber, false);
+						if (!getLogFile(projectId, buildNumber).exists())	{
 							snippet = new LogSnippet();
 							recentSnippets.put(buildId, snippet);
 						}
@@ -119,15 +137,12 @@ public class DefaultLogManager implements LogManager {
 						}
 						if (entryAdded) {
 							if (snippet.entries.size() > MAX_CACHE_ENTRIES) {
-								File logFile = getLogFile(projectId, buildNumber);
-								try (ObjectOutputStream oos = newOutputStream(logFile)) {
-									while (snippet.entries.size() > MIN_CACHE_ENTRIES) {
-										writeLogEntry(oos, snippet.entries.remove(0));
-										snippet.offset++;
-									}
-								} catch (IOException e) {
-									throw new RuntimeException(e);
+								List<JobLogEntryEx> entriesToFlush = new ArrayList<>();
+								while (snippet.entries.size() > MIN_CACHE_ENTRIES) {
+									entriesToFlush.add(snippet.entries.remove(0));
+									snippet.offset++;
 								}
+								getLogFile(projectId, buildNumber).append(entriesToFlush);
 							}
 							
 							webSocketManager.notifyObservableChange(Build.getLogWebSocketObservable(buildId));
@@ -195,11 +210,16 @@ public class DefaultLogManager implements LogManager {
 
 	@Override
 	public boolean matches(Build build, Pattern pattern) {
+		JobLogFile logFile = getLogFile(build);
 		Lock lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).readLock();
 		lock.lock();
 		try {
 			LogSnippet snippet = recentSnippets.get(build.getId());
-			if (snippet != null) {
+			if (snippet == null) {
+				LogTrigramIndex trigramIndex = logFile.readTrigramIndex();
+				if (trigramIndex != null && !trigramIndex.mayMatch(pattern))
+					return false;
+			} else {
 				for (JobLogEntryEx entry: snippet.entries) {
 					if ((build.getRetryDate() == null || !entry.getDate().before(build.getRetryDate())) 
 							&& pattern.matcher(entry.getMessageText()).find()) {
@@ -208,20 +228,13 @@ public class DefaultLogManager implements LogManager {
 				}
 			}
 			
-			File logFile = getLogFile(build.getProject().getId(), build.getNumber());
-			
-			if (logFile.exists()) {
-				try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
-					while (true) {
-						JobLogEntry entry  = (JobLogEntry) ois.readObject();
-						if ((build.getRetryDate() == null || !entry.getDate().before(build.getRetryDate())) 
-								&& pattern.matcher(entry.getMessage()).find()) {
-							return true;
-						}
+			try (JobLogFile.Reader reader = logFile.openReader(0)) {
+				JobLogEntryEx entry;
+				while ((entry = reader.next()) != null) {
+					if ((build.getRetryDate() == null || !entry.getDate().before(build.getRetryDate())) 
+							&& pattern.matcher(entry.getMessageText()).find()) {
+						return true;
 					}
-				} catch (EOFException e) {
-				} catch (IOException|ClassNotFoundException e) {
-					throw new RuntimeException(e);
 				}
 			}
 			return false;
@@ -230,62 +243,6 @@ public class DefaultLogManager implements LogManager {
 		}
 	}
 	
-	private List<JobLogEntryEx> readLogEntries(File logFile, int from, int count) {
-		List<JobLogEntryEx> entries = new ArrayList<>();
-		if (logFile.exists()) {
-			try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
-				int numOfReadEntries = 0;
-				while (numOfReadEntries < from) {
-					ois.readObject();
-					numOfReadEntries++;
-				}
-				while (count == 0 || numOfReadEntries - from < count) {
-					entries.add(readLogEntry(ois));
-					numOfReadEntries++;
-				}
-			} catch (EOFException e) {
-			} catch (IOException | ClassNotFoundException e) {
-				throw new RuntimeException(e);
-			}
-		}
-		return entries;
-	}
-	
-	private JobLogEntryEx readLogEntry(ObjectInputStream ois) throws ClassNotFoundException, IOException {
-		Object obj = ois.readObject();
-		if (obj instanceof JobLogEntry)
-			return new JobLogEntryEx((JobLogEntry) obj);
-		else
-			return (JobLogEntryEx) obj;
-	}
-	
-	private void writeLogEntry(ObjectOutputStream oos, JobLogEntryEx logEntry) throws IOException {
-		JobLogEntry spaceEfficientVersion = logEntry.getSpaceEfficientVersion();
-		if (spaceEfficientVersion != null)
-			oos.writeObject(spaceEfficientVersion);
-		else
-			oos.writeObject(logEntry);
-	}
-	
-	private LogSnippet readLogSnippetReversely(File logFile, int count) {
-		LogSnippet snippet = new LogSnippet();
-		if (logFile.exists()) {
-			try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
-				while (true) {
-					snippet.entries.add(readLogEntry(ois));
-					if (snippet.entries.size() > count) {
-						snippet.entries.remove(0);
-						snippet.offset ++;
-					}
-				}
-			} catch (EOFException e) {
-			} catch (IOException | ClassNotFoundException e) {
-				throw new RuntimeException(e);
-			}
-		}
-		return snippet;
-	}
-	
 	private List<JobLogEntryEx> readLogEntries(List<JobLogEntryEx> cachedEntries, int from, int count) {
 		if (from < cachedEntries.size()) {
 			int to = from + count;
@@ -300,17 +257,17 @@ public class DefaultLogManager implements LogManager {
 	@Sessional
 	@Override
 	public List<JobLogEntryEx> readLogEntries(Build build, int from, int count) {
+		JobLogFile logFile = getLogFile(build);
 		Lock lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).readLock();
 		lock.lock();
 		try {
-			File logFile = getLogFile(build.getProject().getId(), build.getNumber());
 			LogSnippet snippet = recentSnippets.get(build.getId());
 			if (snippet != null) {
 				if (from >= snippet.offset) {
 					return readLogEntries(snippet.entries, from - snippet.offset, count);
 				} else {
 					List<JobLogEntryEx> entries = new ArrayList<>();
-					entries.addAll(readLogEntries(logFile, from, count));
+					entries.addAll(logFile.read(from, count));
 					if (count == 0)
 						entries.addAll(snippet.entries);
 					else if (entries.size() < count) 
@@ -318,7 +275,7 @@ public class DefaultLogManager implements LogManager {
 					return entries;
 				}
 			} else {
-				return readLogEntries(logFile, from, count);
+				return logFile.read(from, count);
 			}
 		} finally {
 			lock.unlock();
@@ -328,10 +285,10 @@ public class DefaultLogManager implements LogManager {
 	@Sessional
 	@Override
 	public LogSnippet readLogSnippetReversely(Build build, int count) {
+		JobLogFile logFile = getLogFile(build);
 		Lock lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).readLock();
 		lock.lock();
 		try {
-			File logFile = getLogFile(build.getProject().getId(), build.getNumber());
 			LogSnippet recentSnippet = recentSnippets.get(build.getId());
 			if (recentSnippet != null) {
 				LogSnippet snippet = new LogSnippet();
@@ -339,38 +296,19 @@ public class DefaultLogManager implements LogManager {
 					snippet.entries.addAll(recentSnippet.entries.subList(
 							recentSnippet.entries.size()-count, recentSnippet.entries.size()));
 				} else {
-					snippet.entries.addAll(readLogSnippetReversely(logFile, count - recentSnippet.entries.size()).entries);
+					snippet.entries.addAll(logFile.readReversely(count - recentSnippet.entries.size()).entries);
 					snippet.entries.addAll(recentSnippet.entries);
 				}
 				snippet.offset = recentSnippet.entries.size() + recentSnippet.offset - snippet.entries.size();
 				return snippet;
 			} else {
-				return readLogSnippetReversely(logFile, count);
+				return logFile.readReversely(count);
 			}
 		} finally {
 			lock.unlock();
 		}
 	}
 	
-	private ObjectOutputStream newOutputStream(File logFile) {
-		try {
-			if (logFile.exists()) {
-				return new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true))) {
-
-					@Override
-					protected void writeStreamHeader() throws IOException {
-						reset();
-					}
-					
-				};
-			} else {
-				return new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(logFile)));
-			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
-	}
-	
 	@Sessional
 	@Listen
 	public void on(BuildFinished event) {
@@ -379,15 +317,10 @@ public class DefaultLogManager implements LogManager {
 		lock.lock();
 		try {
 			LogSnippet snippet = recentSnippets.remove(build.getId());
-			if (snippet != null) {
-				File logFile = getLogFile(build.getProject().getId(), build.getNumber());
-				try (ObjectOutputStream oos = newOutputStream(logFile)) {
-					for (JobLogEntryEx entry: snippet.entries)
-						writeLogEntry(oos, entry);
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				} 
-			}
+			JobLogFile logFile = getLogFile(build.getProject().getId(), build.getNumber());
+			if (snippet != null) 
+				logFile.append(snippet.entries);
+			logFile.pack();
 		} finally {
 			lock.unlock();
 		}
@@ -400,7 +333,7 @@ public class DefaultLogManager implements LogManager {
 
 	class LogStream extends InputStream {
 
-		private ObjectInputStream ois;
+		private JobLogFile.Reader reader;
 		
 		private final Lock lock;
 
@@ -411,13 +344,12 @@ public class DefaultLogManager implements LogManager {
 		private int pos = 0;
 		
 		public LogStream(Build build) {
+			JobLogFile logFile = getLogFile(build);
 			lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).readLock();
 			lock.lock();
 			try {
-				File logFile = getLogFile(build.getProject().getId(), build.getNumber());
-				
 				if (logFile.exists())
-					ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+					reader = logFile.openReader(0);
 				
 				LogSnippet snippet = recentSnippets.get(build.getId());
 				if (snippet != null) {
@@ -451,20 +383,17 @@ public class DefaultLogManager implements LogManager {
 		@Override
 		public int read() throws IOException {
 			if (pos == buffer.length) {
-				if (ois != null) {
-					try {
-						buffer = (renderAsText(readLogEntry(ois)) + "\n").getBytes(StandardCharsets.UTF_8);
-					} catch (EOFException e) {
-						ois.close();
-						ois = null;
-						if (recentBuffer != null) {
-							buffer = recentBuffer;
-							recentBuffer = null;
-						} else {
-							return -1;
-						}
-					} catch (ClassNotFoundException e) {
-						throw new RuntimeException(e);
+				JobLogEntryEx entry = reader != null? reader.next(): null;
+				if (entry != null) {
+					buffer = (renderAsText(entry) + "\n").getBytes(StandardCharsets.UTF_8);
+				} else if (reader != null) {
+					reader.close();
+					reader = null;
+					if (recentBuffer != null) {
+						buffer = recentBuffer;
+						recentBuffer = null;
+					} else {
+						return -1;
 					}
 				} else if (recentBuffer != null) {
 					buffer = recentBuffer;
@@ -482,8 +411,8 @@ public class DefaultLogManager implements LogManager {
 		@Override
 		public void close() throws IOException {
 			try {
-				if (ois != null)
-					ois.close();
+				if (reader != null)
+					reader.close();
 			} finally {
 				lock.unlock();
 			}
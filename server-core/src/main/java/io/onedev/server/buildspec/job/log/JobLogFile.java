@@ -0,0 +1,519 @@
+package io.onedev.server.buildspec.job.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Append-only storage of job log entries. Entries are written as compact binary records
+ * into a data file, and offset of each record is recorded in a sidecar index file with
+ * fixed width so that entries can be located without reading preceding entries.
+ * <p>
+ * Once a log is no longer appended, it can be packed into a single file of compressed
+ * blocks with a trailing block table, so that a read only inflates blocks containing
+ * requested entries. A {@link LogTrigramIndex} is built at the same time to rule out 
+ * regular expressions not possibly matching the log.
+ */
+public class JobLogFile {
+
+	public static final String LEGACY_FILE = "build.log";
+
+	public static final String DATA_FILE = "build-log.data";
+
+	public static final String INDEX_FILE = "build-log.index";
+
+	public static final String PACKED_FILE = "build-log.packed";
+
+	public static final String TRIGRAM_INDEX_FILE = "build-log.trigrams";
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 4;
+
+	private static final int INDEX_RECORD_SIZE = 8;
+
+	private static final int TYPE_PLAIN = 0;
+
+	private static final int TYPE_STYLED = 1;
+
+	private static final int BATCH_SIZE = 10000;
+
+	private static final int PACK_BLOCK_SIZE = 1000;
+
+	private static final int PACK_FOOTER_SIZE = 16;
+
+	private final File dataFile;
+
+	private final File indexFile;
+
+	private final File packedFile;
+
+	private final File trigramIndexFile;
+
+	public JobLogFile(File buildDir) {
+		this(new File(buildDir, DATA_FILE), new File(buildDir, INDEX_FILE), 
+				new File(buildDir, PACKED_FILE), new File(buildDir, TRIGRAM_INDEX_FILE));
+	}
+
+	private JobLogFile(File dataFile, File indexFile, File packedFile, File trigramIndexFile) {
+		this.dataFile = dataFile;
+		this.indexFile = indexFile;
+		this.packedFile = packedFile;
+		this.trigramIndexFile = trigramIndexFile;
+	}
+
+	private JobLogFile newTempFile(String suffix) {
+		JobLogFile tempFile = new JobLogFile(
+				new File(dataFile.getParentFile(), dataFile.getName() + suffix),
+				new File(indexFile.getParentFile(), indexFile.getName() + suffix),
+				new File(packedFile.getParentFile(), packedFile.getName() + suffix),
+				new File(trigramIndexFile.getParentFile(), trigramIndexFile.getName() + suffix));
+		tempFile.delete();
+		return tempFile;
+	}
+
+	public boolean exists() {
+		return isPacked() || dataFile.exists() && indexFile.exists();
+	}
+
+	public boolean isPacked() {
+		return packedFile.exists();
+	}
+
+	/**
+	 * @return
+	 * 			number of log entries in this file
+	 */
+	public int size() {
+		if (isPacked()) {
+			try (RandomAccessFile packedRaf = new RandomAccessFile(packedFile, "r")) {
+				packedRaf.seek(packedRaf.length() - PACK_FOOTER_SIZE);
+				return packedRaf.readInt();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		} else if (exists()) {
+			long indexLength = indexFile.length() - HEADER_SIZE;
+			return indexLength > 0? (int) (indexLength / INDEX_RECORD_SIZE): 0;
+		} else {
+			return 0;
+		}
+	}
+
+	public void append(Collection<JobLogEntryEx> entries) {
+		if (entries.isEmpty())
+			return;
+
+		if (isPacked())
+			unpack();
+		trigramIndexFile.delete();
+		
+		boolean isNew = !exists();
+		long offset = isNew? HEADER_SIZE: dataFile.length();
+		/*
+		 * Index records are buffered in memory and written only after data is flushed, so
+		 * that index never references a record not persisted yet
+		 */
+		ByteArrayOutputStream indexBuffer = new ByteArrayOutputStream(
+				HEADER_SIZE + entries.size() * INDEX_RECORD_SIZE);
+		try (DataOutputStream dataOs = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(dataFile, !isNew)))) {
+			DataOutputStream indexOs = new DataOutputStream(indexBuffer);
+			if (isNew) {
+				dataOs.writeInt(VERSION);
+				indexOs.writeInt(VERSION);
+			}
+			for (JobLogEntryEx entry: entries) {
+				indexOs.writeLong(offset);
+				offset += writeEntry(dataOs, entry);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		try (FileOutputStream indexOs = new FileOutputStream(indexFile, !isNew)) {
+			indexBuffer.writeTo(indexOs);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Read log entries
+	 *
+	 * @param from
+	 * 			index of first entry to read
+	 * @param count
+	 * 			number of entries to read, <tt>0</tt> to read all entries since <tt>from</tt>
+	 * @return
+	 * 			read entries
+	 */
+	public List<JobLogEntryEx> read(int from, int count) {
+		List<JobLogEntryEx> entries = new ArrayList<>();
+		try (Reader reader = openReader(from)) {
+			JobLogEntryEx entry;
+			while ((count == 0 || entries.size() < count) && (entry = reader.next()) != null)
+				entries.add(entry);
+		}
+		return entries;
+	}
+
+	public LogSnippet readReversely(int count) {
+		LogSnippet snippet = new LogSnippet();
+		snippet.offset = Math.max(0, size() - count);
+		snippet.entries.addAll(read(snippet.offset, count));
+		return snippet;
+	}
+
+	/**
+	 * Open a reader to read entries sequentially starting from specified index. Caller
+	 * should close the reader after use
+	 */
+	public Reader openReader(int from) {
+		return new Reader(from);
+	}
+
+	public void delete() {
+		dataFile.delete();
+		indexFile.delete();
+		packedFile.delete();
+		trigramIndexFile.delete();
+	}
+
+	/**
+	 * @return
+	 * 			trigram index of this log, or <tt>null</tt> if log is not packed yet
+	 */
+	@Nullable
+	public LogTrigramIndex readTrigramIndex() {
+		if (trigramIndexFile.exists())
+			return LogTrigramIndex.readFrom(trigramIndexFile);
+		else
+			return null;
+	}
+
+	/**
+	 * Compress entries into blocks of {@link #PACK_BLOCK_SIZE} entries. Each block is deflated
+	 * separately, and offsets of blocks are written as a table at end of the packed file
+	 */
+	public void pack() {
+		if (isPacked() || !exists())
+			return;
+
+		JobLogFile tempFile = newTempFile(".packing");
+		LogTrigramIndex.Builder trigramIndexBuilder = new LogTrigramIndex.Builder();
+		List<Long> blockOffsets = new ArrayList<>();
+		int entryCount = 0;
+		try (	Reader reader = openReader(0);
+				DataOutputStream packedOs = new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(tempFile.packedFile)))) {
+			packedOs.writeInt(VERSION);
+			long offset = HEADER_SIZE;
+			JobLogEntryEx entry = reader.next();
+			while (entry != null) {
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				Deflater deflater = new Deflater();
+				try (DataOutputStream blockOs = new DataOutputStream(new DeflaterOutputStream(baos, deflater))) {
+					int blockEntryCount = 0;
+					while (entry != null && blockEntryCount < PACK_BLOCK_SIZE) {
+						writeEntry(blockOs, entry);
+						trigramIndexBuilder.add(entry);
+						blockEntryCount++;
+						entry = reader.next();
+					}
+					entryCount += blockEntryCount;
+				} finally {
+					deflater.end();
+				}
+				blockOffsets.add(offset);
+				baos.writeTo(packedOs);
+				offset += baos.size();
+			}
+			long blockTableOffset = offset;
+			for (Long blockOffset: blockOffsets)
+				packedOs.writeLong(blockOffset);
+			packedOs.writeLong(blockTableOffset);
+			packedOs.writeInt(entryCount);
+			packedOs.writeInt(PACK_BLOCK_SIZE);
+			packedOs.writeLong(blockTableOffset);
+			trigramIndexBuilder.build().writeTo(tempFile.trigramIndexFile);
+		} catch (IOException e) {
+			tempFile.delete();
+			throw new RuntimeException(e);
+		}
+
+		if (!tempFile.trigramIndexFile.renameTo(trigramIndexFile) || !tempFile.packedFile.renameTo(packedFile)) {
+			tempFile.delete();
+			throw new RuntimeException("Unable to rename packed log file: " + tempFile.packedFile.getAbsolutePath());
+		}
+		dataFile.delete();
+		indexFile.delete();
+	}
+
+	private void unpack() {
+		JobLogFile tempFile = newTempFile(".unpacking");
+		try (Reader reader = openReader(0)) {
+			List<JobLogEntryEx> batch = new ArrayList<>();
+			JobLogEntryEx entry;
+			while ((entry = reader.next()) != null) {
+				batch.add(entry);
+				if (batch.size() >= BATCH_SIZE) {
+					tempFile.append(batch);
+					batch.clear();
+				}
+			}
+			tempFile.append(batch);
+		} catch (Exception e) {
+			tempFile.delete();
+			throw e;
+		}
+		dataFile.delete();
+		indexFile.delete();
+		if (tempFile.exists()) {
+			if (!tempFile.dataFile.renameTo(dataFile) || !tempFile.indexFile.renameTo(indexFile)) {
+				tempFile.delete();
+				throw new RuntimeException("Unable to rename unpacked log file: " + tempFile.dataFile.getAbsolutePath());
+			}
+		}
+		packedFile.delete();
+	}
+
+	/**
+	 * Convert log file written with Java serialization to this format. Legacy file will be
+	 * removed after successful conversion
+	 *
+	 * @param legacyFile
+	 * 			legacy log file containing serialized {@link JobLogEntry} and {@link JobLogEntryEx}
+	 */
+	public void migrate(File legacyFile) {
+		JobLogFile tempLogFile = newTempFile(".migrating");
+
+		List<JobLogEntryEx> batch = new ArrayList<>();
+		try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(legacyFile)))) {
+			while (true) {
+				Object obj = ois.readObject();
+				if (obj instanceof JobLogEntry)
+					batch.add(new JobLogEntryEx((JobLogEntry) obj));
+				else
+					batch.add((JobLogEntryEx) obj);
+				if (batch.size() >= BATCH_SIZE) {
+					tempLogFile.append(batch);
+					batch.clear();
+				}
+			}
+		} catch (EOFException e) {
+		} catch (IOException | ClassNotFoundException e) {
+			tempLogFile.delete();
+			throw new RuntimeException(e);
+		}
+		tempLogFile.append(batch);
+
+		delete();
+		if (tempLogFile.exists()) {
+			if (!tempLogFile.dataFile.renameTo(dataFile) || !tempLogFile.indexFile.renameTo(indexFile)) {
+				tempLogFile.delete();
+				throw new RuntimeException("Unable to rename migrated log file: " + tempLogFile.dataFile.getAbsolutePath());
+			}
+		}
+		legacyFile.delete();
+	}
+
+	private static int writeEntry(DataOutput out, JobLogEntryEx entry) throws IOException {
+		int size = 8;
+		out.writeLong(entry.getDate().getTime());
+		JobLogEntry spaceEfficientVersion = entry.getSpaceEfficientVersion();
+		if (spaceEfficientVersion != null) {
+			out.writeByte(TYPE_PLAIN);
+			size++;
+			size += writeString(out, spaceEfficientVersion.getMessage());
+		} else {
+			out.writeByte(TYPE_STYLED);
+			out.writeInt(entry.getMessages().size());
+			size += 5;
+			for (Message message: entry.getMessages()) {
+				Style style = message.getStyle();
+				size += writeString(out, style.getColor());
+				size += writeString(out, style.getBackgroundColor());
+				out.writeBoolean(style.isBold());
+				size++;
+				size += writeString(out, message.getText());
+			}
+		}
+		return size;
+	}
+
+	private static JobLogEntryEx readEntry(DataInput in) throws IOException {
+		Date date = new Date(in.readLong());
+		int type = in.readByte();
+		if (type == TYPE_PLAIN) {
+			return new JobLogEntryEx(new JobLogEntry(date, readString(in)));
+		} else if (type == TYPE_STYLED) {
+			int messageCount = in.readInt();
+			List<Message> messages = new ArrayList<>(messageCount);
+			for (int i=0; i<messageCount; i++) {
+				String color = readString(in);
+				String backgroundColor = readString(in);
+				boolean bold = in.readBoolean();
+				messages.add(new Message(new Style(color, backgroundColor, bold), readString(in)));
+			}
+			return new JobLogEntryEx(date, messages);
+		} else {
+			throw new IOException("Unexpected log entry type: " + type);
+		}
+	}
+
+	private static int writeString(DataOutput out, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+		return 4 + bytes.length;
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public class Reader implements Closeable {
+
+		private DataInputStream dataIs;
+
+		private RandomAccessFile packedRaf;
+
+		private long[] blockOffsets;
+
+		private int blockSize;
+
+		private int nextBlock;
+
+		private int remainingInBlock;
+
+		private int remaining;
+
+		Reader(int from) {
+			int size = size();
+			if (from < size) {
+				remaining = size - from;
+				try {
+					if (isPacked())
+						openPacked(from);
+					else
+						openUnpacked(from);
+				} catch (IOException e) {
+					close();
+					throw new RuntimeException(e);
+				}
+			}
+		}
+
+		private void openUnpacked(int from) throws IOException {
+			try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "r")) {
+				indexRaf.seek(HEADER_SIZE + (long)from * INDEX_RECORD_SIZE);
+				long offset = indexRaf.readLong();
+				RandomAccessFile dataRaf = new RandomAccessFile(dataFile, "r");
+				try {
+					dataRaf.seek(offset);
+					dataIs = new DataInputStream(new BufferedInputStream(
+							Channels.newInputStream(dataRaf.getChannel())));
+				} catch (Exception e) {
+					dataRaf.close();
+					throw e;
+				}
+			}
+			remainingInBlock = remaining;
+		}
+
+		private void openPacked(int from) throws IOException {
+			packedRaf = new RandomAccessFile(packedFile, "r");
+			packedRaf.seek(packedRaf.length() - PACK_FOOTER_SIZE + 4);
+			blockSize = packedRaf.readInt();
+			long blockTableOffset = packedRaf.readLong();
+			
+			// block table contains offset of each block, followed by end offset of last block
+			byte[] blockTable = new byte[(int) (packedRaf.length() - PACK_FOOTER_SIZE - blockTableOffset)];
+			packedRaf.seek(blockTableOffset);
+			packedRaf.readFully(blockTable);
+			blockOffsets = new long[blockTable.length / 8];
+			ByteBuffer.wrap(blockTable).asLongBuffer().get(blockOffsets);
+			
+			nextBlock = from / blockSize;
+			loadNextBlock();
+			for (int i=0; i<from%blockSize; i++) {
+				readEntry(dataIs);
+				remainingInBlock--;
+			}
+		}
+
+		private void loadNextBlock() throws IOException {
+			byte[] compressed = new byte[(int) (blockOffsets[nextBlock+1] - blockOffsets[nextBlock])];
+			packedRaf.seek(blockOffsets[nextBlock]);
+			packedRaf.readFully(compressed);
+			dataIs = new DataInputStream(new BufferedInputStream(
+					new InflaterInputStream(new ByteArrayInputStream(compressed))));
+			remainingInBlock = blockSize;
+			nextBlock++;
+		}
+
+		/**
+		 * @return
+		 * 			next log entry, or <tt>null</tt> if no more entries
+		 */
+		@Nullable
+		public JobLogEntryEx next() {
+			if (remaining > 0) {
+				try {
+					if (remainingInBlock == 0) {
+						dataIs.close();
+						loadNextBlock();
+					}
+					remaining--;
+					remainingInBlock--;
+					return readEntry(dataIs);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			} else {
+				return null;
+			}
+		}
+
+		@Override
+		public void close() {
+			try {
+				if (dataIs != null)
+					dataIs.close();
+				if (packedRaf != null)
+					packedRaf.close();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+	}
+
+}
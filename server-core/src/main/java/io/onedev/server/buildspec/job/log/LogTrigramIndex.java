@@ -0,0 +1,160 @@
+package io.onedev.server.buildspec.job.log;
+
+import static io.onedev.server.search.code.IndexConstants.NGRAM_SIZE;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.server.search.code.query.regex.LeafLiterals;
+import io.onedev.server.search.code.query.regex.RegexLiterals;
+
+/**
+ * Hashed and case folded trigrams occurring in log messages of a build. It is used to rule
+ * out a log without reading it if some literal required by a regular expression does not
+ * occur in the log. Hash collision only results in false positives, which will be handled
+ * by matching the log entries as usual.
+ */
+public class LogTrigramIndex {
+
+	private static final Logger logger = LoggerFactory.getLogger(LogTrigramIndex.class);
+
+	private static final int VERSION = 1;
+
+	/*
+	 * Whitespaces and comments are extracted as literals in comments mode. Case insensitive 
+	 * flags do not matter as trigrams are case folded 
+	 */
+	private static final Pattern INLINE_COMMENTS_FLAG = Pattern.compile("\\(\\?[a-zA-Z-]*x[a-zA-Z-]*[:)]");
+
+	private final int[] trigrams;
+
+	private LogTrigramIndex(int[] trigrams) {
+		this.trigrams = trigrams;
+	}
+
+	public boolean contains(String literal) {
+		for (int i=0; i<=literal.length()-NGRAM_SIZE; i++) {
+			if (Arrays.binarySearch(trigrams, hash(literal, i)) < 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether some log message may match specified pattern
+	 *
+	 * @return
+	 * 			<tt>false</tt> if no log message can match specified pattern, <tt>true</tt> if
+	 * 			some log message may match
+	 */
+	public boolean mayMatch(Pattern pattern) {
+		if ((pattern.flags() & (Pattern.LITERAL | Pattern.COMMENTS)) != 0 
+				|| INLINE_COMMENTS_FLAG.matcher(pattern.pattern()).find()) {
+			return true;
+		}
+
+		List<List<LeafLiterals>> rows;
+		try {
+			rows = new RegexLiterals(pattern.pattern()).getRows();
+		} catch (Exception e) {
+			logger.debug("Unable to extract literals from regex: " + pattern.pattern(), e);
+			return true;
+		}
+		if (rows.isEmpty())
+			return true;
+
+		for (List<LeafLiterals> row: rows) {
+			boolean rowMayMatch = true;
+			for (LeafLiterals leaf: row) {
+				String literal = leaf.getLiteral();
+				if (literal != null && literal.length() >= NGRAM_SIZE && !contains(literal)) {
+					rowMayMatch = false;
+					break;
+				}
+			}
+			if (rowMayMatch)
+				return true;
+		}
+		return false;
+	}
+
+	private static int hash(String text, int from) {
+		int hash = 0;
+		for (int i=from; i<from+NGRAM_SIZE; i++)
+			hash = hash*31 + Character.toLowerCase(text.charAt(i));
+		return hash;
+	}
+
+	public void writeTo(File file) {
+		try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			os.writeInt(VERSION);
+			os.writeInt(trigrams.length);
+			for (int trigram: trigrams)
+				os.writeInt(trigram);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static LogTrigramIndex readFrom(File file) {
+		try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			int version = is.readInt();
+			if (version != VERSION)
+				throw new IOException("Unexpected log trigram index version: " + version);
+			int[] trigrams = new int[is.readInt()];
+			for (int i=0; i<trigrams.length; i++)
+				trigrams[i] = is.readInt();
+			return new LogTrigramIndex(trigrams);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static class Builder {
+
+		private int[] trigrams = new int[1024];
+
+		private int size;
+
+		public void add(JobLogEntryEx entry) {
+			String text = entry.getMessageText();
+			for (int i=0; i<=text.length()-NGRAM_SIZE; i++) {
+				if (size == trigrams.length) {
+					compact();
+					if (size > trigrams.length / 2)
+						trigrams = Arrays.copyOf(trigrams, trigrams.length * 2);
+				}
+				trigrams[size++] = hash(text, i);
+			}
+		}
+
+		private void compact() {
+			Arrays.sort(trigrams, 0, size);
+			int distinct = 0;
+			for (int i=0; i<size; i++) {
+				if (distinct == 0 || trigrams[distinct-1] != trigrams[i])
+					trigrams[distinct++] = trigrams[i];
+			}
+			size = distinct;
+		}
+
+		public LogTrigramIndex build() {
+			compact();
+			return new LogTrigramIndex(Arrays.copyOf(trigrams, size));
+		}
+
+	}
+
+}
@@ -12,6 +12,7 @@ import io.onedev.server.model.Project;
 import io.onedev.server.persistence.dao.EntityManager;
 import io.onedev.server.search.entity.EntityCriteria;
 import io.onedev.server.search.entity.EntityQuery;
+import io.onedev.server.util.PermittedProjects;
 
 public interface ProjectManager extends EntityManager<Project> {
 	
@@ -50,6 +51,18 @@ public interface ProjectManager extends EntityManager<Project> {
 	
 	Collection<Project> getPermittedProjects(Permission permission);
 	
+	/**
+	 * Get projects permitted with specified permission for current user. Result is kept 
+	 * per user and permission class until authorizations change, so permission passed here 
+	 * should not carry state, for instance {@link io.onedev.server.security.permission.ReadCode}
+	 * 
+	 * @param permission
+	 * 			permission to check
+	 * @return
+	 * 			permitted projects
+	 */
+	PermittedProjects getPermittedProjectSet(Permission permission);
+	
 	List<Project> query(EntityQuery<Project> projecQuery, int firstResult, int maxResults);
 	
 	int count(EntityCriteria<Project> projectCriteria);
@@ -2,6 +2,7 @@ package io.onedev.server.entitymanager.impl;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -11,6 +12,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -80,6 +82,7 @@ import io.onedev.server.search.entity.build.BuildQuery;
 import io.onedev.server.security.SecurityUtils;
 import io.onedev.server.security.permission.AccessBuild;
 import io.onedev.server.security.permission.JobPermission;
+import io.onedev.server.security.realm.AuthorizationCache;
 import io.onedev.server.storage.StorageManager;
 import io.onedev.server.util.ProjectScopedNumber;
 import io.onedev.server.util.StatusInfo;
@@ -110,21 +113,31 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
 	
 	private final TransactionManager transactionManager;
 	
-	private final Map<Long, BuildFacade> builds = new HashMap<>();
+	private final AuthorizationCache authorizationCache;
 	
-	private final ReadWriteLock buildsLock = new ReentrantReadWriteLock();
+	/*
+	 * Build ids partitioned by project and then indexed by commit. Array of build ids of 
+	 * a commit is replaced instead of modified so that readers never need to lock 
+	 */
+	private final Map<Long, Map<ObjectId, long[]>> buildIds = new ConcurrentHashMap<>();
 	
 	private final Map<Long, Collection<String>> jobNames = new HashMap<>();
 	
 	private final ReadWriteLock jobNamesLock = new ReentrantReadWriteLock();
 	
+	// Changes each time available job names change, guarded by jobNamesLock 
+	private long jobNamesVersion;
+	
+	private final Map<String, AccessibleJobNames> accessibleJobNamesCache = new ConcurrentHashMap<>();
+	
 	private String taskId;
 	
 	@Inject
 	public DefaultBuildManager(Dao dao, BuildParamManager buildParamManager, 
 			TaskScheduler taskScheduler, BuildDependenceManager buildDependenceManager,
 			StorageManager storageManager, ProjectManager projectManager, 
-			SessionManager sessionManager, TransactionManager transactionManager) {
+			SessionManager sessionManager, TransactionManager transactionManager, 
+			AuthorizationCache authorizationCache) {
 		super(dao);
 		this.buildParamManager = buildParamManager;
 		this.buildDependenceManager = buildDependenceManager;
@@ -133,6 +146,7 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
 		this.taskScheduler = taskScheduler;
 		this.sessionManager = sessionManager;
 		this.transactionManager = transactionManager;
+		this.authorizationCache = authorizationCache;
 	}
 
 	@Transactional
@@ -141,17 +155,12 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
     	super.delete(build);
     	
 		FileUtils.deleteDir(storageManager.getBuildDir(build.getProject().getId(), build.getNumber()));
-		Long buildId = build.getId();
+		BuildFacade facade = build.getFacade();
 		transactionManager.runAfterCommit(new Runnable() {
 
 			@Override
 			public void run() {
-				buildsLock.writeLock().lock();
-				try {
-					builds.remove(buildId);
-				} finally {
-					buildsLock.writeLock().unlock();
-				}
+				removeBuildId(facade);
 			}
 		});
 	}
@@ -201,12 +210,7 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
 
 			@Override
 			public void run() {
-				buildsLock.writeLock().lock();
-				try {
-					builds.put(facade.getId(), facade);
-				} finally {
-					buildsLock.writeLock().unlock();
-				}
+				addBuildId(facade);
 				jobNamesLock.writeLock().lock();
 				try {
 					populateJobNames(facade.getProjectId(), jobName);
@@ -227,21 +231,14 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
 
 				@Override
 				public void run() {
-					buildsLock.writeLock().lock();
-					try {
-						for (Iterator<Map.Entry<Long, BuildFacade>> it = builds.entrySet().iterator(); it.hasNext();) {
-							BuildFacade build = it.next().getValue();
-							if (build.getProjectId().equals(projectId))
-								it.remove();
-						}
-					} finally {
-						buildsLock.writeLock().unlock();
-					}
+					buildIds.remove(projectId);
 					jobNamesLock.writeLock().lock();
 					try {
 						for (Iterator<Map.Entry<Long, Collection<String>>> it = jobNames.entrySet().iterator(); it.hasNext();) {
-							if (it.next().getKey().equals(projectId))
+							if (it.next().getKey().equals(projectId)) {
 								it.remove();
+								jobNamesVersion++;
+							}
 						}
 					} finally {
 						jobNamesLock.writeLock().unlock();
@@ -472,35 +469,27 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
 					}
 				}
 			} else if (!SecurityUtils.isAdministrator()) {
-				List<Predicate> projectPredicates = new ArrayList<>();
-				Collection<Long> projectsWithAllJobs = new HashSet<>();
-				for (Map.Entry<Project, Collection<String>> entry: getAccessibleJobNames().entrySet()) {
-					project = entry.getKey();
-					if (SecurityUtils.canManageBuilds(project)) {
-						projectPredicates.add(builder.equal(root.get(Build.PROP_PROJECT), project));
-						projectsWithAllJobs.add(project.getId());
-					} else {
-						Collection<String> availableJobNamesOfProject = jobNames.get(project.getId());
-						if (availableJobNamesOfProject != null) {
-							Collection<String> accessibleJobNamesOfProject = entry.getValue();
-							if (accessibleJobNamesOfProject.containsAll(availableJobNamesOfProject)) {
-								projectsWithAllJobs.add(project.getId());
-								projectPredicates.add(builder.equal(root.get(Build.PROP_PROJECT), project));
-							} else {
-								List<Predicate> jobPredicates = new ArrayList<>();
-								for (String jobName: accessibleJobNamesOfProject) 
-									jobPredicates.add(builder.equal(root.get(Build.PROP_JOB), jobName));
-								projectPredicates.add(builder.and(
-										builder.equal(root.get(Build.PROP_PROJECT), project), 
-										builder.or(jobPredicates.toArray(new Predicate[jobPredicates.size()]))));
-							}
-						} else {
-							projectsWithAllJobs.add(project.getId());
+				AccessibleJobNames accessibleJobNames = getAccessibleJobNamesOfCurrentUser();
+				if (!accessibleJobNames.allJobsOfAllProjects) {
+					List<Predicate> projectPredicates = new ArrayList<>();
+					for (Map.Entry<Long, Collection<String>> entry: accessibleJobNames.jobNames.entrySet()) {
+						if (!accessibleJobNames.projectsWithAllJobs.contains(entry.getKey())) {
+							List<Predicate> jobPredicates = new ArrayList<>();
+							for (String jobName: entry.getValue()) 
+								jobPredicates.add(builder.equal(root.get(Build.PROP_JOB), jobName));
+							projectPredicates.add(builder.and(
+									builder.equal(root.get(Build.PROP_PROJECT).get(Project.PROP_ID), entry.getKey()), 
+									builder.or(jobPredicates.toArray(new Predicate[jobPredicates.size()]))));
 						}
 					}
-				}
-				if (!projectsWithAllJobs.containsAll(jobNames.keySet()))
+					// Match projects with all jobs accessible in a single IN list instead of 
+					// one equality predicate per project
+					if (!accessibleJobNames.projectsWithAllJobs.isEmpty()) {
+						projectPredicates.add(root.get(Build.PROP_PROJECT).get(Project.PROP_ID)
+								.in(accessibleJobNames.projectsWithAllJobs));
+					}
 					predicates.add(builder.or(projectPredicates.toArray(new Predicate[projectPredicates.size()])));
+				}
 			}
 		} finally {
 			jobNamesLock.readLock().unlock();
@@ -727,7 +716,7 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
 		for (Object[] fields: (List<Object[]>)query.list()) {
 			Long buildId = (Long) fields[0];
 			Long projectId = (Long)fields[1];
-			builds.put(buildId, new BuildFacade(buildId, projectId, (String)fields[2]));
+			addBuildId(new BuildFacade(buildId, projectId, (String)fields[2]));
 			populateJobNames(projectId, (String)fields[3]);
 		}
 		taskId = taskScheduler.schedule(this);
@@ -834,36 +823,62 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
 		return null;
 	}
 	
+	private void addBuildId(BuildFacade build) {
+		long buildId = build.getId();
+		buildIds.computeIfAbsent(build.getProjectId(), key -> new ConcurrentHashMap<>())
+				.compute(ObjectId.fromString(build.getCommitHash()), (key, value) -> {
+					if (value == null) {
+						return new long[] {buildId};
+					} else {
+						for (long each: value) {
+							if (each == buildId)
+								return value;
+						}
+						long[] newValue = Arrays.copyOf(value, value.length+1);
+						newValue[value.length] = buildId;
+						return newValue;
+					}
+				});
+	}
+	
+	private void removeBuildId(BuildFacade build) {
+		long buildId = build.getId();
+		Map<ObjectId, long[]> buildIdsOfProject = buildIds.get(build.getProjectId());
+		if (buildIdsOfProject != null) {
+			buildIdsOfProject.computeIfPresent(ObjectId.fromString(build.getCommitHash()), (key, value) -> {
+				long[] newValue = Arrays.stream(value).filter(it -> it != buildId).toArray();
+				return newValue.length != 0? newValue: null;
+			});
+		}
+	}
+
 	@Override
 	public Collection<Long> getIdsByProject(Long projectId) {
-		buildsLock.readLock().lock();
-		try {
-			Collection<Long> buildIds = new HashSet<>();
-			for (BuildFacade build: builds.values()) {
-				if (build.getProjectId().equals(projectId))
-					buildIds.add(build.getId());
+		Collection<Long> buildIdsOfProject = new HashSet<>();
+		Map<ObjectId, long[]> buildIdsOfCommits = buildIds.get(projectId);
+		if (buildIdsOfCommits != null) {
+			for (long[] buildIdsOfCommit: buildIdsOfCommits.values()) {
+				for (long buildId: buildIdsOfCommit)
+					buildIdsOfProject.add(buildId);
 			}
-			return buildIds;
-		} finally {
-			buildsLock.readLock().unlock();
 		}
+		return buildIdsOfProject;
 	}
 
 	@Override
 	public Collection<Long> filterIds(Long projectId, Collection<String> commitHashes) {
-		buildsLock.readLock().lock();
-		try {
-			Collection<Long> buildIds = new HashSet<>();
-			for (BuildFacade build: builds.values()) {
-				if (build.getProjectId().equals(projectId) 
-						&& commitHashes.contains(build.getCommitHash())) {
-					buildIds.add(build.getId());
+		Collection<Long> filteredBuildIds = new HashSet<>();
+		Map<ObjectId, long[]> buildIdsOfCommits = buildIds.get(projectId);
+		if (buildIdsOfCommits != null) {
+			for (String commitHash: commitHashes) {
+				long[] buildIdsOfCommit = buildIdsOfCommits.get(ObjectId.fromString(commitHash));
+				if (buildIdsOfCommit != null) {
+					for (long buildId: buildIdsOfCommit)
+						filteredBuildIds.add(buildId);
 				}
 			}
-			return buildIds;
-		} finally {
-			buildsLock.readLock().unlock();
 		}
+		return filteredBuildIds;
 	}
 	
 	private void populateJobNames(Long projectId, String jobName) {
@@ -872,7 +887,8 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
 			jobNamesOfProject = new HashSet<>();
 			jobNames.put(projectId, jobNamesOfProject);
 		}
-		jobNamesOfProject.add(jobName);
+		if (jobNamesOfProject.add(jobName))
+			jobNamesVersion++;
 	}
 
 	@Override
@@ -917,6 +933,49 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
 
 	@Override
 	public Map<Project, Collection<String>> getAccessibleJobNames() {
+		Map<Project, Collection<String>> accessibleJobNames = new HashMap<>();
+		for (Map.Entry<Long, Collection<String>> entry: getAccessibleJobNamesOfCurrentUser().jobNames.entrySet()) 
+			accessibleJobNames.put(projectManager.load(entry.getKey()), new HashSet<>(entry.getValue()));
+		return accessibleJobNames;
+	}
+	
+	/*
+	 * Accessible job names are derived from authorizations and available job names of 
+	 * all projects. Cache them per user until either of them changes
+	 */
+	private AccessibleJobNames getAccessibleJobNamesOfCurrentUser() {
+		jobNamesLock.readLock().lock();
+		try {
+			String key = String.valueOf(SecurityUtils.getUserId());
+			long authorizationVersion = authorizationCache.getVersion();
+			AccessibleJobNames cached = accessibleJobNamesCache.get(key);
+			if (cached == null || cached.authorizationVersion != authorizationVersion 
+					|| cached.jobNamesVersion != jobNamesVersion) {
+				Map<Long, Collection<String>> jobNamesOfProjects = new HashMap<>();
+				Collection<Long> projectsWithAllJobs = new HashSet<>();
+				for (Map.Entry<Project, Collection<String>> entry: loadAccessibleJobNames().entrySet()) {
+					Project project = entry.getKey();
+					Collection<String> availableJobNamesOfProject = jobNames.get(project.getId());
+					if (SecurityUtils.canManageBuilds(project) || availableJobNamesOfProject == null 
+							|| entry.getValue().containsAll(availableJobNamesOfProject)) {
+						projectsWithAllJobs.add(project.getId());
+					}
+					jobNamesOfProjects.put(project.getId(), entry.getValue());
+				}
+				long jobNamesVersion = this.jobNamesVersion;
+				accessibleJobNamesCache.values().removeIf(it -> it.authorizationVersion != authorizationVersion 
+						|| it.jobNamesVersion != jobNamesVersion);
+				cached = new AccessibleJobNames(authorizationVersion, jobNamesVersion, jobNamesOfProjects, 
+						projectsWithAllJobs, projectsWithAllJobs.containsAll(jobNames.keySet()));
+				accessibleJobNamesCache.put(key, cached);
+			}
+			return cached;
+		} finally {
+			jobNamesLock.readLock().unlock();
+		}
+	}
+	
+	private Map<Project, Collection<String>> loadAccessibleJobNames() {
 		jobNamesLock.readLock().lock();
 		try {
 			Map<Project, Collection<String>> accessibleJobNames = new HashMap<>();
@@ -1011,4 +1070,28 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
 			delete(build);
 	}
 	
+	private static class AccessibleJobNames {
+		
+		final long authorizationVersion;
+		
+		final long jobNamesVersion;
+		
+		// Map of project id to accessible job names of the project
+		final Map<Long, Collection<String>> jobNames;
+		
+		final Collection<Long> projectsWithAllJobs;
+		
+		final boolean allJobsOfAllProjects;
+		
+		AccessibleJobNames(long authorizationVersion, long jobNamesVersion, Map<Long, Collection<String>> jobNames, 
+				Collection<Long> projectsWithAllJobs, boolean allJobsOfAllProjects) {
+			this.authorizationVersion = authorizationVersion;
+			this.jobNamesVersion = jobNamesVersion;
+			this.jobNames = jobNames;
+			this.projectsWithAllJobs = projectsWithAllJobs;
+			this.allJobsOfAllProjects = allJobsOfAllProjects;
+		}
+		
+	}
+	
 }
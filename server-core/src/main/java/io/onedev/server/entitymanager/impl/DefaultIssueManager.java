@@ -237,11 +237,8 @@ public class DefaultIssueManager extends BaseEntityManager<Issue> implements Iss
 		if (project != null) {
 			predicates.add(builder.equal(root.get(Issue.PROP_PROJECT), project));
 		} else if (!SecurityUtils.isAdministrator()) {
-			Collection<Project> projects = projectManager.getPermittedProjects(new AccessProject()); 
-			if (!projects.isEmpty())
-				predicates.add(root.get(Issue.PROP_PROJECT).in(projects));
-			else
-				predicates.add(builder.disjunction());
+			predicates.add(projectManager.getPermittedProjectSet(new AccessProject())
+					.getPredicate(builder, root.get(Issue.PROP_PROJECT).get(Project.PROP_ID)));
 		}
 		if (criteria != null)
 			predicates.add(criteria.getPredicate(root, builder));
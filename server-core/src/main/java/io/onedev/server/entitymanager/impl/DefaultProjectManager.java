@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
@@ -12,7 +13,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -84,6 +84,8 @@ import io.onedev.server.search.entity.EntitySort.Direction;
 import io.onedev.server.search.entity.project.ProjectQuery;
 import io.onedev.server.security.SecurityUtils;
 import io.onedev.server.security.permission.AccessProject;
+import io.onedev.server.security.realm.AuthorizationCache;
+import io.onedev.server.util.PermittedProjects;
 import io.onedev.server.util.patternset.PatternSet;
 import io.onedev.server.util.schedule.SchedulableTask;
 import io.onedev.server.util.schedule.TaskScheduler;
@@ -118,12 +120,16 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
     
     private final UserAuthorizationManager userAuthorizationManager;
     
+    private final AuthorizationCache authorizationCache;
+    
     private final String gitReceiveHook;
     
 	private final Map<Long, Repository> repositoryCache = new ConcurrentHashMap<>();
 	
 	private final Map<Long, Date> updateDates = new ConcurrentHashMap<>();
 	
+	private final Map<String, VersionedPermittedProjects> permittedProjectsCache = new ConcurrentHashMap<>();
+	
 	private String taskId;
 	
     @Inject
@@ -132,7 +138,7 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
     		SettingManager settingManager, TransactionManager transactionManager, 
     		SessionManager sessionManager, ListenerRegistry listenerRegistry, 
     		TaskScheduler taskScheduler, UserAuthorizationManager userAuthorizationManager, 
-    		RoleManager roleManager, JobManager jobManager) {
+    		RoleManager roleManager, JobManager jobManager, AuthorizationCache authorizationCache) {
     	super(dao);
     	
         this.commitInfoManager = commitInfoManager;
@@ -146,6 +152,7 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
         this.userAuthorizationManager = userAuthorizationManager;
         this.roleManager = roleManager;
         this.jobManager = jobManager;
+        this.authorizationCache = authorizationCache;
         
         try (InputStream is = getClass().getClassLoader().getResourceAsStream("git-receive-hook")) {
         	Preconditions.checkNotNull(is);
@@ -537,6 +544,29 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 		return projects;
 	}
 
+	@Sessional
+	@Override
+	public PermittedProjects getPermittedProjectSet(Permission permission) {
+		String key = SecurityUtils.getUserId() + ":" + permission.getClass().getName();
+		long version = authorizationCache.getVersion();
+		VersionedPermittedProjects cached = permittedProjectsCache.get(key);
+		if (cached == null || cached.version != version) {
+			Collection<Project> permittedProjects = getPermittedProjects(permission);
+			BitSet permitted = new BitSet();
+			BitSet denied = new BitSet();
+			for (Project project: query()) {
+				if (permittedProjects.contains(project))
+					permitted.set(Math.toIntExact(project.getId()));
+				else
+					denied.set(Math.toIntExact(project.getId()));
+			}
+			permittedProjectsCache.values().removeIf(it->it.version != version);
+			cached = new VersionedPermittedProjects(version, new PermittedProjects(permitted, denied));
+			permittedProjectsCache.put(key, cached);
+		}
+		return cached.permittedProjects;
+	}
+	
 	private CriteriaQuery<Project> buildCriteriaQuery(Session session, EntityQuery<Project> projectQuery) {
 		CriteriaBuilder builder = session.getCriteriaBuilder();
 		CriteriaQuery<Project> query = builder.createQuery(Project.class);
@@ -564,12 +594,8 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 			Root<Project> root, CriteriaBuilder builder) {
 		List<Predicate> predicates = new ArrayList<>();
 		if (!SecurityUtils.isAdministrator()) {
-			Collection<Long> projectIds = getPermittedProjects(new AccessProject())
-					.stream().map(it->it.getId()).collect(Collectors.toSet());
-			if (!projectIds.isEmpty())
-				predicates.add(root.get(Project.PROP_ID).in(projectIds));
-			else
-				predicates.add(builder.disjunction());
+			predicates.add(getPermittedProjectSet(new AccessProject())
+					.getPredicate(builder, root.get(Project.PROP_ID)));
 		}
 		if (criteria != null) 
 			predicates.add(criteria.getPredicate(root, builder));
@@ -629,4 +655,17 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 		return SimpleScheduleBuilder.repeatMinutelyForever();
 	}
 	
+	private static class VersionedPermittedProjects {
+		
+		final long version;
+		
+		final PermittedProjects permittedProjects;
+		
+		VersionedPermittedProjects(long version, PermittedProjects permittedProjects) {
+			this.version = version;
+			this.permittedProjects = permittedProjects;
+		}
+		
+	}
+	
 }
@@ -16,6 +16,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -69,6 +70,7 @@ import io.onedev.server.entitymanager.PullRequestUpdateManager;
 import io.onedev.server.entityreference.EntityReferenceManager;
 import io.onedev.server.entityreference.ReferencedFromAware;
 import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.RefsUpdated;
 import io.onedev.server.event.build.BuildEvent;
 import io.onedev.server.event.entity.EntityRemoved;
 import io.onedev.server.event.pullrequest.PullRequestBuildEvent;
@@ -127,6 +129,7 @@ import io.onedev.server.util.concurrent.Prioritized;
 import io.onedev.server.util.reviewrequirement.ReviewRequirement;
 import io.onedev.server.util.work.BatchWorkManager;
 import io.onedev.server.util.work.BatchWorker;
+import io.onedev.server.util.work.WorkCategory;
 
 @Singleton
 public class DefaultPullRequestManager extends BaseEntityManager<PullRequest> implements PullRequestManager {
@@ -135,6 +138,8 @@ public class DefaultPullRequestManager extends BaseEntityManager<PullRequest> im
 	
 	private static final int PREVIEW_CALC_PRIORITY = 50;
 	
+	private static final int MAX_BRANCHES_PER_QUERY = 100;
+	
 	private final PullRequestUpdateManager pullRequestUpdateManager;
 	
 	private final ProjectManager projectManager;
@@ -472,7 +477,7 @@ public class DefaultPullRequestManager extends BaseEntityManager<PullRequest> im
 							
 							@Override
 							public void run() {
-								BatchWorker previewCalcWorker = new BatchWorker("request-" + requestId + "-previewMerge", 1) {
+								BatchWorker previewCalcWorker = new BatchWorker("request-" + requestId + "-previewMerge", WorkCategory.MERGE_PREVIEW, 1) {
 
 									@Override
 									public void doWorks(Collection<Prioritized> works) {
@@ -547,14 +552,38 @@ public class DefaultPullRequestManager extends BaseEntityManager<PullRequest> im
 	@Transactional
 	@Listen
 	public void on(RefUpdated event) {
-		String branch = GitUtils.ref2branch(event.getRefName());
-		if (branch != null && !event.getOldCommitId().equals(ObjectId.zeroId())) {
-			ProjectAndBranch projectAndBranch = new ProjectAndBranch(event.getProject(), branch);
+		if (!event.isBulk())
+			checkAsync(event.getProject(), Lists.newArrayList(event));
+	}
+
+	@Transactional
+	@Listen
+	public void on(RefsUpdated event) {
+		checkAsync(event.getProject(), event.getRefUpdates());
+	}
+	
+	/*
+	 * Query affected requests of all updated branches with a few queries instead of one 
+	 * query per branch, which matters when many branches are pushed at once
+	 */
+	private void checkAsync(Project project, List<RefUpdated> refUpdates) {
+		List<Criterion> criterions = new ArrayList<>();
+		for (RefUpdated refUpdated: refUpdates) {
+			String branch = GitUtils.ref2branch(refUpdated.getRefName());
+			if (branch != null && !refUpdated.getOldCommitId().equals(ObjectId.zeroId())) {
+				ProjectAndBranch projectAndBranch = new ProjectAndBranch(project, branch);
+				criterions.add(Restrictions.or(ofSource(projectAndBranch), ofTarget(projectAndBranch)));
+			}
+		}
+		
+		Set<PullRequest> requests = new LinkedHashSet<>();
+		for (List<Criterion> partition: Lists.partition(criterions, MAX_BRANCHES_PER_QUERY)) {
 			Criterion criterion = Restrictions.and(
 					ofOpen(), 
-					Restrictions.or(ofSource(projectAndBranch), ofTarget(projectAndBranch)));
-			checkAsync(query(EntityCriteria.of(PullRequest.class).add(criterion)));
+					Restrictions.or(partition.toArray(new Criterion[0])));
+			requests.addAll(query(EntityCriteria.of(PullRequest.class).add(criterion)));
 		}
+		checkAsync(requests);
 	}
 
 	@Sessional
@@ -886,11 +915,8 @@ public class DefaultPullRequestManager extends BaseEntityManager<PullRequest> im
 		if (targetProject != null) {
 			predicates.add(builder.equal(root.get(PullRequest.PROP_TARGET_PROJECT), targetProject));
 		} else if (!SecurityUtils.isAdministrator()) {
-			Collection<Project> projects = projectManager.getPermittedProjects(new ReadCode()); 
-			if (!projects.isEmpty())
-				predicates.add(root.get(PullRequest.PROP_TARGET_PROJECT).in(projects));
-			else
-				predicates.add(builder.disjunction());
+			predicates.add(projectManager.getPermittedProjectSet(new ReadCode())
+					.getPredicate(builder, root.get(PullRequest.PROP_TARGET_PROJECT).get(Project.PROP_ID)));
 		}
 		
 		if (criteria != null) 
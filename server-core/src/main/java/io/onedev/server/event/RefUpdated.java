@@ -16,13 +16,21 @@ public class RefUpdated extends ProjectEvent implements CommitAware {
 	
 	private final ObjectId newCommitId;
 	
+	private final transient boolean bulk;
+	
 	private transient ProjectScopedCommit commit;
 	
 	public RefUpdated(Project project, String refName, ObjectId oldCommitId, ObjectId newCommitId) {
+		this(project, refName, oldCommitId, newCommitId, false);
+	}
+	
+	public RefUpdated(Project project, String refName, ObjectId oldCommitId, ObjectId newCommitId, 
+			boolean bulk) {
 		super(null, new Date(), project);
 		this.refName = refName;
 		this.oldCommitId = oldCommitId;
 		this.newCommitId = newCommitId;
+		this.bulk = bulk;
 	}
 
 	public String getRefName() {
@@ -37,6 +45,15 @@ public class RefUpdated extends ProjectEvent implements CommitAware {
 		return newCommitId;
 	}
 
+	/**
+	 * @return
+	 * 			<tt>true</tt> if this update is also included in a {@link RefsUpdated} event 
+	 * 			posted before
+	 */
+	public boolean isBulk() {
+		return bulk;
+	}
+
 	@Override
 	public ProjectScopedCommit getCommit() {
 		if (commit == null)
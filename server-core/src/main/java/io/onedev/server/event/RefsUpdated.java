@@ -0,0 +1,32 @@
+package io.onedev.server.event;
+
+import java.util.Date;
+import java.util.List;
+
+import io.onedev.server.model.Project;
+
+/**
+ * Posted once for all refs updated by a single push, before {@link RefUpdated} events of 
+ * individual refs. Listeners doing per project work such as collecting commit information 
+ * or scheduling jobs should handle this event to process a large push at once, and ignore 
+ * {@link RefUpdated} events marked as {@link RefUpdated#isBulk() bulk}.
+ */
+public class RefsUpdated extends ProjectEvent {
+	
+	private final List<RefUpdated> refUpdates;
+	
+	public RefsUpdated(Project project, List<RefUpdated> refUpdates) {
+		super(null, new Date(), project);
+		this.refUpdates = refUpdates;
+	}
+	
+	public List<RefUpdated> getRefUpdates() {
+		return refUpdates;
+	}
+	
+	@Override
+	public String getActivity() {
+		return "Git refs updated";
+	}
+
+}
@@ -0,0 +1,35 @@
+package io.onedev.server.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public interface AdvertisedRefsManager {
+	
+	/**
+	 * Write refs advertisement of specified repository for smart http clients. The 
+	 * advertisement is cached until refs of the repository are changed
+	 * 
+	 * @param gitDir
+	 * 			directory of the repository
+	 * @param upload
+	 * 			<tt>true</tt> to advertise refs for upload-pack (fetch), <tt>false</tt> to 
+	 * 			advertise refs for receive-pack (push)
+	 * @param output
+	 * 			output to write the advertisement to
+	 * @throws IOException
+	 * 			if error occurs writing to the output
+	 */
+	void advertise(File gitDir, boolean upload, OutputStream output) throws IOException;
+	
+	/**
+	 * Discard cached advertisements of specified repository. Changes of refs made via 
+	 * JGit and RefUpdated events are handled automatically, this is only needed when refs 
+	 * are changed by native git before RefUpdated events are posted 
+	 * 
+	 * @param gitDir
+	 * 			directory of the repository
+	 */
+	void invalidate(File gitDir);
+
+}
@@ -0,0 +1,32 @@
+package io.onedev.server.git;
+
+import java.nio.channels.FileChannel;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import io.onedev.server.model.Project;
+
+public interface ArchiveManager {
+	
+	public static final String FORMAT_ZIP = "zip";
+	
+	public static final String FORMAT_TGZ = "tgz";
+	
+	/**
+	 * Open archive of specified commit. The archive is generated on first request and 
+	 * cached for subsequent requests. Concurrent requests of the same archive wait for 
+	 * a single generation
+	 * 
+	 * @param project
+	 * 			project containing the commit
+	 * @param commitId
+	 * 			id of the commit to archive
+	 * @param format
+	 * 			archive format, either {@link #FORMAT_ZIP} or {@link #FORMAT_TGZ}
+	 * @return
+	 * 			channel of cached archive file, which stays readable even if the archive is 
+	 * 			removed from cache afterwards. Caller is responsible for closing the channel
+	 */
+	FileChannel openArchive(Project project, ObjectId commitId, String format);
+
+}
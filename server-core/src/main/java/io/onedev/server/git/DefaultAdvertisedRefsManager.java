@@ -0,0 +1,177 @@
+package io.onedev.server.git;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.inject.Singleton;
+
+import org.eclipse.jgit.events.ListenerHandle;
+import org.eclipse.jgit.events.RefsChangedEvent;
+import org.eclipse.jgit.events.RefsChangedListener;
+import org.eclipse.jgit.lib.Repository;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.primitives.Bytes;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import io.onedev.commons.launcher.loader.Listen;
+import io.onedev.commons.utils.ExceptionUtils;
+import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.RefsUpdated;
+import io.onedev.server.event.entity.EntityRemoved;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
+import io.onedev.server.git.command.AdvertiseReceiveRefsCommand;
+import io.onedev.server.git.command.AdvertiseUploadRefsCommand;
+import io.onedev.server.model.Project;
+
+/**
+ * Refs advertisements are cached in memory by repository and service, so that frequent 
+ * info/refs requests, for instance from polling CI systems, are served without forking 
+ * git. Cached advertisements of a repository are discarded when its refs are changed via 
+ * JGit, or when ref update events are posted for refs changed by native git. Advertisement 
+ * containing push certificate nonce is never cached as the nonce is time based.
+ */
+@Singleton
+public class DefaultAdvertisedRefsManager implements AdvertisedRefsManager, RefsChangedListener {
+	
+	private static final long MAX_CACHE_WEIGHT = 64*1024*1024; // in bytes
+	
+	private static final byte[] PUSH_CERT_NONCE = "push-cert=".getBytes(StandardCharsets.US_ASCII);
+	
+	private final Cache<String, Advertisement> cache = CacheBuilder.newBuilder()
+			.maximumWeight(MAX_CACHE_WEIGHT)
+			.weigher(new Weigher<String, Advertisement>() {
+				
+				@Override
+				public int weigh(String key, Advertisement value) {
+					return value.content.length;
+				}
+			
+			})
+			.build();
+	
+	// repository path to number of times its advertisements being invalidated
+	private final Map<String, Long> versions = new ConcurrentHashMap<>();
+	
+	private ListenerHandle listenerHandle;
+	
+	@Listen
+	public void on(SystemStarted event) {
+		listenerHandle = Repository.getGlobalListenerList().addRefsChangedListener(this);
+	}
+	
+	@Listen
+	public void on(SystemStopping event) {
+		if (listenerHandle != null)
+			listenerHandle.remove();
+	}
+	
+	@Listen
+	public void on(RefUpdated event) {
+		if (!event.isBulk())
+			invalidate(event.getProject().getGitDir());
+	}
+	
+	@Listen
+	public void on(RefsUpdated event) {
+		invalidate(event.getProject().getGitDir());
+	}
+	
+	@Listen
+	public void on(EntityRemoved event) {
+		if (event.getEntity() instanceof Project) 
+			invalidate(((Project) event.getEntity()).getGitDir());
+	}
+	
+	@Override
+	public void onRefsChanged(RefsChangedEvent event) {
+		File gitDir = event.getRepository().getDirectory();
+		if (gitDir != null)
+			invalidate(gitDir);
+	}
+	
+	private String getPath(File gitDir) {
+		return gitDir.getAbsolutePath();
+	}
+	
+	private long getVersion(String path) {
+		return versions.getOrDefault(path, 0L);
+	}
+	
+	@Override
+	public void invalidate(File gitDir) {
+		String path = getPath(gitDir);
+		versions.merge(path, 1L, Long::sum);
+		cache.invalidate(getKey(path, true));
+		cache.invalidate(getKey(path, false));
+	}
+	
+	private String getKey(String path, boolean upload) {
+		return path + (upload? ":upload": ":receive");
+	}
+	
+	@Override
+	public void advertise(File gitDir, boolean upload, OutputStream output) throws IOException {
+		String path = getPath(gitDir);
+		String key = getKey(path, upload);
+		long requestVersion = getVersion(path);
+		while (true) {
+			Advertisement advertisement;
+			try {
+				advertisement = cache.get(key, new Callable<Advertisement>() {
+	
+					@Override
+					public Advertisement call() throws Exception {
+						long version = getVersion(path);
+						ByteArrayOutputStream baos = new ByteArrayOutputStream();
+						if (upload)
+							new AdvertiseUploadRefsCommand(gitDir).output(baos).call();
+						else
+							new AdvertiseReceiveRefsCommand(gitDir).output(baos).call();
+						return new Advertisement(baos.toByteArray(), version);
+					}
+					
+				});
+			} catch (ExecutionException | UncheckedExecutionException e) {
+				throw ExceptionUtils.unchecked(e.getCause());
+			}
+			
+			// Refs might be changed while generating the advertisement
+			if (advertisement.version != getVersion(path) 
+					|| !upload && Bytes.indexOf(advertisement.content, PUSH_CERT_NONCE) != -1) {
+				cache.asMap().remove(key, advertisement);
+			}
+			
+			// Joined a generation started before refs change known to this request, try again
+			if (advertisement.version < requestVersion) 
+				continue;
+			
+			output.write(advertisement.content);
+			break;
+		}
+	}
+	
+	private static class Advertisement {
+		
+		final byte[] content;
+		
+		final long version;
+		
+		Advertisement(byte[] content, long version) {
+			this.content = content;
+			this.version = version;
+		}
+	
+	}
+
+}
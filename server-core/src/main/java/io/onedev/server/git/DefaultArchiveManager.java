@@ -0,0 +1,88 @@
+package io.onedev.server.git;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.eclipse.jgit.api.ArchiveCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.archive.TgzFormat;
+import org.eclipse.jgit.archive.ZipFormat;
+import org.eclipse.jgit.lib.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.launcher.bootstrap.Bootstrap;
+import io.onedev.commons.launcher.loader.Listen;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.model.Project;
+import io.onedev.server.util.DiskCache;
+import io.onedev.server.util.ServerConfig;
+
+/**
+ * Archives are cached on disk by commit id and format, as archive of a commit never changes. 
+ * The cache is shared by all projects, and least recently used archives are removed when 
+ * total size exceeds configured limit.
+ */
+@Singleton
+public class DefaultArchiveManager implements ArchiveManager {
+	
+	private static final Logger logger = LoggerFactory.getLogger(DefaultArchiveManager.class);
+	
+	private static final String CACHE_DIR = "archive-cache";
+	
+	private final DiskCache cache;
+	
+	@Inject
+	public DefaultArchiveManager(ServerConfig serverConfig) {
+		this(new File(Bootstrap.getSiteDir(), CACHE_DIR), serverConfig.getArchiveCacheSize() * 1024L * 1024L);
+	}
+	
+	DefaultArchiveManager(File cacheDir, long cacheSize) {
+		cache = new DiskCache(cacheDir, cacheSize);
+	}
+	
+	@Listen
+	public void on(SystemStarted event) {
+		cache.load();
+	}
+	
+	@Override
+	public FileChannel openArchive(Project project, ObjectId commitId, String format) {
+		String fileName;
+		if (format.equals(FORMAT_ZIP))
+			fileName = commitId.name() + ".zip";
+		else if (format.equals(FORMAT_TGZ))
+			fileName = commitId.name() + ".tar.gz";
+		else
+			throw new IllegalArgumentException("Unsupported archive format: " + format);
+		
+		return cache.open(fileName, new DiskCache.Generator() {
+			
+			@Override
+			public void generate(OutputStream os) throws Exception {
+				long time = System.currentTimeMillis();
+				if (format.equals(FORMAT_ZIP))
+					ArchiveCommand.registerFormat(format, new ZipFormat());
+				else
+					ArchiveCommand.registerFormat(format, new TgzFormat());
+				try {
+					ArchiveCommand archive = Git.wrap(project.getRepository()).archive();
+					archive.setFormat(format);
+					archive.setTree(commitId);
+					archive.setOutputStream(os);
+					archive.call();
+				} finally {
+					ArchiveCommand.unregisterFormat(format);
+				}
+				logger.debug("Generated archive '{}' of project '{}' in {} ms", fileName, 
+						project.getName(), System.currentTimeMillis() - time);
+			}
+			
+		});
+	}
+
+}
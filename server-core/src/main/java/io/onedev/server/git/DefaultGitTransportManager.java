@@ -0,0 +1,196 @@
+package io.onedev.server.git;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import io.onedev.server.git.exception.GitTransportBusyException;
+import io.onedev.server.util.ServerConfig;
+
+@Singleton
+public class DefaultGitTransportManager implements GitTransportManager {
+	
+	private static final int RETRY_AFTER = 30;
+	
+	private final ServerConfig serverConfig;
+	
+	private final Map<Lane, LaneState> lanes = new EnumMap<>(Lane.class);
+	
+	private final AtomicLong bytesServed = new AtomicLong();
+	
+	private long rejected;
+	
+	@Inject
+	public DefaultGitTransportManager(ServerConfig serverConfig) {
+		this.serverConfig = serverConfig;
+		lanes.put(Lane.FETCH, new LaneState(serverConfig.getGitFetchConcurrency()));
+		lanes.put(Lane.PUSH, new LaneState(serverConfig.getGitPushConcurrency()));
+	}
+	
+	@Override
+	public <T> T run(Long projectId, Lane lane, Callable<T> transport) 
+			throws InterruptedException, ExecutionException {
+		LaneState state = lanes.get(lane);
+		acquire(state, projectId, lane);
+		try {
+			return transport.call();
+		} catch (Exception e) {
+			throw new ExecutionException(e);
+		} finally {
+			release(state);
+		}
+	}
+	
+	private void acquire(LaneState state, Long projectId, Lane lane) throws InterruptedException {
+		Waiter waiter;
+		synchronized (this) {
+			if (state.active < state.concurrency && state.queued == 0) {
+				state.active++;
+				return;
+			}
+			waiter = new Waiter();
+			state.enqueue(projectId, waiter);
+		}
+		
+		boolean granted;
+		try {
+			granted = waiter.latch.await(serverConfig.getGitQueueTimeout(), TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			synchronized (this) {
+				if (waiter.granted) 
+					release(state);
+				else
+					state.dequeue(projectId, waiter);
+			}
+			throw e;
+		}
+		if (!granted) {
+			synchronized (this) {
+				// Slot might be granted right after waiting times out
+				if (!waiter.granted) {
+					state.dequeue(projectId, waiter);
+					rejected++;
+					throw new GitTransportBusyException("Server is busy serving git " 
+							+ lane.name().toLowerCase() + "es, please retry later", RETRY_AFTER);
+				}
+			}
+		}
+	}
+	
+	private synchronized void release(LaneState state) {
+		state.active--;
+		while (state.active < state.concurrency) {
+			Waiter next = state.poll();
+			if (next == null)
+				break;
+			state.active++;
+			next.granted = true;
+			next.latch.countDown();
+		}
+	}
+	
+	@Override
+	public OutputStream countServed(OutputStream os) {
+		return new FilterOutputStream(os) {
+			
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				bytesServed.incrementAndGet();
+			}
+			
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				bytesServed.addAndGet(len);
+			}
+		
+		};
+	}
+	
+	@Override
+	public synchronized GitTransportStatus getStatus() {
+		LaneState fetchState = lanes.get(Lane.FETCH);
+		LaneState pushState = lanes.get(Lane.PUSH);
+		return new GitTransportStatus(fetchState.active, fetchState.queued, pushState.active, 
+				pushState.queued, rejected, bytesServed.get());
+	}
+	
+	private static class Waiter {
+		
+		final CountDownLatch latch = new CountDownLatch(1);
+		
+		boolean granted;
+	
+	}
+	
+	private static class LaneState {
+		
+		final int concurrency;
+		
+		// Queued waiters by project. Projects are ordered by their turns
+		final Map<Long, Queue<Waiter>> waiters = new LinkedHashMap<>();
+		
+		int active;
+		
+		int queued;
+		
+		LaneState(int concurrency) {
+			this.concurrency = concurrency;
+		}
+		
+		void enqueue(Long projectId, Waiter waiter) {
+			Queue<Waiter> projectWaiters = waiters.get(projectId);
+			if (projectWaiters == null) {
+				projectWaiters = new ArrayDeque<>();
+				waiters.put(projectId, projectWaiters);
+			}
+			projectWaiters.add(waiter);
+			queued++;
+		}
+		
+		void dequeue(Long projectId, Waiter waiter) {
+			Queue<Waiter> projectWaiters = waiters.get(projectId);
+			if (projectWaiters != null && projectWaiters.remove(waiter)) {
+				queued--;
+				if (projectWaiters.isEmpty())
+					waiters.remove(projectId);
+			}
+		}
+		
+		/*
+		 * Take first waiter of the project whose turn comes, and move the project to the 
+		 * end if it still has waiters
+		 */
+		Waiter poll() {
+			Iterator<Map.Entry<Long, Queue<Waiter>>> it = waiters.entrySet().iterator();
+			if (it.hasNext()) {
+				Map.Entry<Long, Queue<Waiter>> entry = it.next();
+				it.remove();
+				Waiter waiter = entry.getValue().poll();
+				if (!entry.getValue().isEmpty())
+					waiters.put(entry.getKey(), entry.getValue());
+				queued--;
+				return waiter;
+			} else {
+				return null;
+			}
+		}
+	
+	}
+
+}
@@ -0,0 +1,162 @@
+package io.onedev.server.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import io.onedev.commons.launcher.bootstrap.Bootstrap;
+import io.onedev.commons.launcher.loader.Listen;
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.RefsUpdated;
+import io.onedev.server.event.entity.EntityRemoved;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.model.Project;
+import io.onedev.server.util.DiskCache;
+import io.onedev.server.util.ServerConfig;
+
+/**
+ * Upload-pack responses are cached on disk by project and normalized negotiation, that is 
+ * wanted objects, capabilities, shallow and filter options, and common objects. Only final 
+ * requests of a negotiation (the ones containing done) are cached, as they are the ones 
+ * producing packs. Responses of a project are removed when its refs are updated, so that 
+ * objects no longer advertised are never served from cache.
+ */
+@Singleton
+public class DefaultPackCacheManager implements PackCacheManager {
+	
+	private static final String CACHE_DIR = "pack-cache";
+	
+	private static final String DONE = "done";
+	
+	private final ServerConfig serverConfig;
+	
+	private final DiskCache cache;
+	
+	@Inject
+	public DefaultPackCacheManager(ServerConfig serverConfig) {
+		this.serverConfig = serverConfig;
+		cache = new DiskCache(getCacheDir(), serverConfig.getGitPackCacheSize() * 1024L * 1024L);
+	}
+	
+	private File getCacheDir() {
+		return new File(Bootstrap.getSiteDir(), CACHE_DIR);
+	}
+	
+	@Override
+	public boolean isEnabled() {
+		return serverConfig.getGitPackCacheSize() != 0;
+	}
+	
+	@Listen
+	public void on(SystemStarted event) {
+		if (isEnabled())
+			cache.load();
+		else if (getCacheDir().exists())
+			FileUtils.deleteDir(getCacheDir());
+	}
+	
+	@Listen
+	public void on(RefUpdated event) {
+		if (isEnabled() && !event.isBulk())
+			cache.invalidate(event.getProject().getId() + "/");
+	}
+	
+	@Listen
+	public void on(RefsUpdated event) {
+		if (isEnabled())
+			cache.invalidate(event.getProject().getId() + "/");
+	}
+	
+	@Listen
+	public void on(EntityRemoved event) {
+		if (isEnabled() && event.getEntity() instanceof Project)
+			cache.invalidate(event.getEntity().getId() + "/");
+	}
+	
+	@Override
+	public boolean serve(Long projectId, byte[] request, DiskCache.Generator generator, 
+			OutputStream output) throws IOException {
+		String key = getKey(request);
+		if (key != null) {
+			cache.write(projectId + "/" + key, generator, output);
+			return true;
+		} else {
+			return false;
+		}
+	}
+	
+	/*
+	 * Parse pkt-lines of the request to get a key identifying the response. Wanted objects 
+	 * and capabilities are sorted as their order does not affect the response, while order 
+	 * of other lines is kept as acknowledgements depend on order of common objects. Agent 
+	 * and session id are excluded as they differ between otherwise identical clients
+	 */
+	@Nullable
+	static String getKey(byte[] request) {
+		List<String> wants = new ArrayList<>();
+		Set<String> capabilities = new TreeSet<>();
+		List<String> others = new ArrayList<>();
+		boolean done = false;
+		int pos = 0;
+		while (pos < request.length) {
+			if (done || pos + 4 > request.length)
+				return null;
+			int length;
+			try {
+				length = Integer.parseInt(new String(request, pos, 4, StandardCharsets.US_ASCII), 16);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (length == 0) {
+				others.add("");
+				pos += 4;
+				continue;
+			} else if (length < 4 || pos + length > request.length) {
+				return null;
+			}
+			String line = StringUtils.stripEnd(new String(request, pos+4, length-4, StandardCharsets.UTF_8), "\n");
+			pos += length;
+			
+			if (line.startsWith("want ")) {
+				String[] fields = StringUtils.split(line.substring("want ".length()), ' ');
+				if (fields.length == 0)
+					return null;
+				wants.add(fields[0]);
+				for (int i=1; i<fields.length; i++) {
+					if (!fields[i].startsWith("agent=") && !fields[i].startsWith("session-id="))
+						capabilities.add(fields[i]);
+				}
+			} else if (line.equals(DONE)) {
+				done = true;
+			} else {
+				others.add(line);
+			}
+		}
+		if (!done)
+			return null;
+		
+		Collections.sort(wants);
+		StringBuilder builder = new StringBuilder();
+		for (String want: wants)
+			builder.append("want ").append(want).append("\n");
+		builder.append(StringUtils.join(capabilities, " ")).append("\n");
+		for (String other: others)
+			builder.append(other).append("\n");
+		return DigestUtils.sha256Hex(builder.toString());
+	}
+
+}
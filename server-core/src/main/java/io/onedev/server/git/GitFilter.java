@@ -1,13 +1,16 @@
 package io.onedev.server.git;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -31,41 +34,46 @@ import org.hibernate.Hibernate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.io.ByteStreams;
+
 import io.onedev.commons.utils.command.ErrorCollector;
 import io.onedev.commons.utils.command.ExecutionResult;
 import io.onedev.server.OneDev;
 import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.entitymanager.SettingManager;
-import io.onedev.server.git.command.AdvertiseReceiveRefsCommand;
-import io.onedev.server.git.command.AdvertiseUploadRefsCommand;
+import io.onedev.server.git.GitTransportManager.Lane;
 import io.onedev.server.git.command.ReceivePackCommand;
 import io.onedev.server.git.command.UploadPackCommand;
 import io.onedev.server.git.exception.GitException;
+import io.onedev.server.git.exception.GitTransportBusyException;
 import io.onedev.server.model.Project;
 import io.onedev.server.persistence.SessionManager;
 import io.onedev.server.security.CodePullAuthorizationSource;
 import io.onedev.server.security.SecurityUtils;
 import io.onedev.server.storage.StorageManager;
+import io.onedev.server.util.DiskCache;
 import io.onedev.server.util.ServerConfig;
-import io.onedev.server.util.concurrent.PrioritizedRunnable;
-import io.onedev.server.util.work.WorkExecutor;
 
 @Singleton
 public class GitFilter implements Filter {
 	
 	private static final Logger logger = LoggerFactory.getLogger(GitFilter.class);
 
-	private static final int PRIORITY = 2;
-	
 	private static final String INFO_REFS = "info/refs";
 	
+	private static final int MAX_CACHEABLE_REQUEST = 1024*1024;
+	
 	private final OneDev oneDev;
 	
 	private final StorageManager storageManager;
 	
 	private final ProjectManager projectManager;
 	
-	private final WorkExecutor workExecutor;
+	private final GitTransportManager gitTransportManager;
+	
+	private final PackCacheManager packCacheManager;
+	
+	private final AdvertisedRefsManager advertisedRefsManager;
 	
 	private final ServerConfig serverConfig;
 	
@@ -77,12 +85,15 @@ public class GitFilter implements Filter {
 	
 	@Inject
 	public GitFilter(OneDev oneDev, StorageManager storageManager, ProjectManager projectManager, 
-			WorkExecutor workExecutor, ServerConfig serverConfig, SettingManager settingManager,
+			GitTransportManager gitTransportManager, PackCacheManager packCacheManager, 
+			AdvertisedRefsManager advertisedRefsManager, ServerConfig serverConfig, SettingManager settingManager, 
 			SessionManager sessionManager, Set<CodePullAuthorizationSource> codePullAuthorizationSources) {
 		this.oneDev = oneDev;
 		this.storageManager = storageManager;
 		this.projectManager = projectManager;
-		this.workExecutor = workExecutor;
+		this.gitTransportManager = gitTransportManager;
+		this.packCacheManager = packCacheManager;
+		this.advertisedRefsManager = advertisedRefsManager;
 		this.serverConfig = serverConfig;
 		this.settingManager = settingManager;
 		this.sessionManager = sessionManager;
@@ -119,6 +130,7 @@ public class GitFilter implements Filter {
 			throws ServletException, IOException, InterruptedException, ExecutionException {
 		File gitDir;
 		boolean upload;
+		Long projectId;
 		Map<String, String> environments = new HashMap<>();
 		
 		sessionManager.openSession();
@@ -150,6 +162,7 @@ public class GitFilter implements Filter {
 			environments.put("GITPLEX_USER_ID", SecurityUtils.getUserId().toString());
 			environments.put("GITPLEX_REPOSITORY_ID", project.getId().toString());
 			
+			projectId = project.getId();
 			gitDir = storageManager.getProjectGitDir(project.getId());
 
 			if (GitSmartHttpTools.isUploadPack(request)) {
@@ -165,75 +178,102 @@ public class GitFilter implements Filter {
 		}
 		
 		if (upload) {
-			workExecutor.submit(new PrioritizedRunnable(PRIORITY) {
+			gitTransportManager.run(projectId, Lane.FETCH, new Callable<Void>() {
 				
 				@Override
-				public void run() {
-					try {
-						InputStream stdin = ServletUtils.getInputStream(request);
-						OutputStream stdout = response.getOutputStream();
+				public Void call() throws Exception {
+					InputStream stdin = ServletUtils.getInputStream(request);
+					OutputStream stdout = gitTransportManager.countServed(response.getOutputStream());
 						
-						AtomicBoolean toleratedErrors = new AtomicBoolean(false);
-						ErrorCollector stderr = new ErrorCollector(StandardCharsets.UTF_8.name()) {
-
-							@Override
-							public void consume(String line) {
-								super.consume(line);
-								// This error may happen during a normal shallow fetch/clone 
-								if (line.contains("remote end hung up unexpectedly")) {
-									toleratedErrors.set(true);
-									logger.debug(line);
-								} else {
-									logger.error(line);
-								}
+					if (packCacheManager.isEnabled()) {
+						byte[] requestBytes = ByteStreams.toByteArray(
+								ByteStreams.limit(stdin, MAX_CACHEABLE_REQUEST + 1));
+						if (requestBytes.length <= MAX_CACHEABLE_REQUEST) {
+							boolean served;
+							try {
+								served = packCacheManager.serve(projectId, requestBytes, new DiskCache.Generator() {
+	
+									@Override
+									public void generate(OutputStream os) throws Exception {
+										uploadPack(gitDir, environments, new ByteArrayInputStream(requestBytes), os);
+									}
+								
+								}, stdout);
+							} catch (IOException e) {
+								/*
+								 * Only writing to client throws IOException here. Tolerate it the same way 
+								 * as upload pack tolerates remote end hanging up, as client may disconnect 
+								 * during a normal shallow fetch/clone
+								 */
+								logger.debug("Client hung up while serving cached upload pack", e);
+								served = true;
 							}
-							
-						};
-						UploadPackCommand upload = new UploadPackCommand(gitDir, environments);
-						upload.stdin(stdin).stdout(stdout).stderr(stderr).statelessRpc(true);
-						ExecutionResult result = upload.call();
-						result.setStderr(stderr.getMessage());
-						
-						if (result.getReturnCode() != 0 && !toleratedErrors.get())
-							throw result.buildException();
-					} catch (IOException e) {
-						throw new RuntimeException(e);
+							if (served)
+								return null;
+						}
+						stdin = new SequenceInputStream(new ByteArrayInputStream(requestBytes), stdin);
 					}
+					uploadPack(gitDir, environments, stdin, stdout);
+					return null;
 				}
 				
-			}).get();
+			});
 		} else {
-			workExecutor.submit(new PrioritizedRunnable(PRIORITY) {
+			gitTransportManager.run(projectId, Lane.PUSH, new Callable<Void>() {
 				
 				@Override
-				public void run() {
-					try {
-						InputStream stdin = ServletUtils.getInputStream(request);
-						OutputStream stdout = response.getOutputStream();
+				public Void call() throws Exception {
+					InputStream stdin = ServletUtils.getInputStream(request);
+					OutputStream stdout = response.getOutputStream();
 						
-						ErrorCollector stderr = new ErrorCollector(StandardCharsets.UTF_8.name()) {
+					ErrorCollector stderr = new ErrorCollector(StandardCharsets.UTF_8.name()) {
 
-							@Override
-							public void consume(String line) {
-								super.consume(line);
-								logger.error(line);
-							}
+						@Override
+						public void consume(String line) {
+							super.consume(line);
+							logger.error(line);
+						}
 							
-						};
-						ReceivePackCommand receive = new ReceivePackCommand(gitDir, environments);
-						receive.stdin(stdin).stdout(stdout).stderr(stderr).statelessRpc(true);
-						ExecutionResult result = receive.call();
-						result.setStderr(stderr.getMessage());
-						result.checkReturnCode();
-					} catch (IOException e) {
-						throw new RuntimeException(e);
-					}
+					};
+					ReceivePackCommand receive = new ReceivePackCommand(gitDir, environments);
+					receive.stdin(stdin).stdout(stdout).stderr(stderr).statelessRpc(true);
+					ExecutionResult result = receive.call();
+					result.setStderr(stderr.getMessage());
+					result.checkReturnCode();
+					return null;
 				}
 				
-			}).get();
+			});
 		}
 	}
 	
+	private void uploadPack(File gitDir, Map<String, String> environments, InputStream stdin, 
+			OutputStream stdout) {
+		AtomicBoolean toleratedErrors = new AtomicBoolean(false);
+		ErrorCollector stderr = new ErrorCollector(StandardCharsets.UTF_8.name()) {
+
+			@Override
+			public void consume(String line) {
+				super.consume(line);
+				// This error may happen during a normal shallow fetch/clone 
+				if (line.contains("remote end hung up unexpectedly")) {
+					toleratedErrors.set(true);
+					logger.debug(line);
+				} else {
+					logger.error(line);
+				}
+			}
+			
+		};
+		UploadPackCommand upload = new UploadPackCommand(gitDir, environments);
+		upload.stdin(stdin).stdout(stdout).stderr(stderr).statelessRpc(true);
+		ExecutionResult result = upload.call();
+		result.setStderr(stderr.getMessage());
+		
+		if (result.getReturnCode() != 0 && !toleratedErrors.get())
+			throw result.buildException();
+	}
+	
 	private void writeInitial(HttpServletResponse response, String service) throws IOException {
 		doNotCache(response);
 		response.setHeader("Content-Type", "application/x-" + service + "-advertisement");			
@@ -286,10 +326,7 @@ public class GitFilter implements Filter {
 		} finally {
 			sessionManager.closeSession();
 		}
-		if (upload)
-			new AdvertiseUploadRefsCommand(gitDir).output(response.getOutputStream()).call();
-		else
-			new AdvertiseReceiveRefsCommand(gitDir).output(response.getOutputStream()).call();
+		advertisedRefsManager.advertise(gitDir, upload, response.getOutputStream());
 	}
 
 	@Override
@@ -316,6 +353,10 @@ public class GitFilter implements Filter {
 			} else {
 				chain.doFilter(request, response);
 			}
+		} catch (GitTransportBusyException e) {
+			logger.warn(e.getMessage());
+			httpResponse.setHeader("Retry-After", String.valueOf(e.getRetryAfter()));
+			httpResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
 		} catch (GitException|InterruptedException|ExecutionException e) {
 			logger.error("Error serving git request", e);
 			GitSmartHttpTools.sendError(httpRequest, httpResponse, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
@@ -7,6 +7,9 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
 import javax.annotation.Nullable;
@@ -29,16 +32,16 @@ import io.onedev.commons.utils.StringUtils;
 import io.onedev.commons.utils.command.ExecutionResult;
 import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.entitymanager.SettingManager;
+import io.onedev.server.git.GitTransportManager.Lane;
 import io.onedev.server.git.command.ReceivePackCommand;
 import io.onedev.server.git.command.UploadPackCommand;
+import io.onedev.server.git.exception.GitTransportBusyException;
 import io.onedev.server.model.Project;
 import io.onedev.server.persistence.SessionManager;
 import io.onedev.server.security.SecurityUtils;
 import io.onedev.server.ssh.SshAuthenticator;
 import io.onedev.server.ssh.SshCommandCreator;
 import io.onedev.server.util.ServerConfig;
-import io.onedev.server.util.concurrent.PrioritizedRunnable;
-import io.onedev.server.util.work.WorkExecutor;
 
 @Singleton
 public class GitSshCommandCreator implements SshCommandCreator {
@@ -55,30 +58,34 @@ public class GitSshCommandCreator implements SshCommandCreator {
 	
 	private final SshAuthenticator authenticator;
 	
-	private final WorkExecutor workExecutor;
+	private final ExecutorService executorService;
+	
+	private final GitTransportManager gitTransportManager;
 	
 	@Inject
 	public GitSshCommandCreator(ServerConfig serverConfig, SettingManager settingManager, 
 			ProjectManager projectManager, SessionManager sessionManager, 
-			WorkExecutor workExecutor, SshAuthenticator authenticator) {
+			ExecutorService executorService, GitTransportManager gitTransportManager, 
+			SshAuthenticator authenticator) {
 		this.serverConfig = serverConfig;
 		this.settingManager = settingManager;
 		this.projectManager = projectManager;
 		this.sessionManager = sessionManager;
-		this.workExecutor = workExecutor;
+		this.executorService = executorService;
+		this.gitTransportManager = gitTransportManager;
 		this.authenticator = authenticator;
 	}
 	
 	@Override
 	public Command createCommand(String command) {
 		if (command.startsWith(RemoteConfig.DEFAULT_UPLOAD_PACK)) {
-			return new GitSshCommand(command) {
+			return new GitSshCommand(command, Lane.FETCH) {
 
 				@Override
 				protected ExecutionResult execute(File gitDir, Map<String, String> gitEnvs) {
 		            return new UploadPackCommand(gitDir, gitEnvs)
 		            		.stdin(inputStream)
-		            		.stdout(outputStream)
+		            		.stdout(gitTransportManager.countServed(outputStream))
 		            		.stderr(errorStream)
 		            		.call();
 		        }
@@ -93,7 +100,7 @@ public class GitSshCommandCreator implements SshCommandCreator {
 				
 			};
 		} else if (command.startsWith(RemoteConfig.DEFAULT_RECEIVE_PACK)) {
-			return new GitSshCommand(command) {
+			return new GitSshCommand(command, Lane.PUSH) {
 
 				@Override
 				protected ExecutionResult execute(File gitDir, Map<String, String> gitEnvs) {
@@ -120,9 +127,9 @@ public class GitSshCommandCreator implements SshCommandCreator {
 
 	private abstract class GitSshCommand implements Command, ServerSessionAware {
 		
-		private static final int PRIORITY = 2;
-
 		final String command;
+
+		final Lane lane;
 		
 		InputStream inputStream;
 		
@@ -136,8 +143,9 @@ public class GitSshCommandCreator implements SshCommandCreator {
 		
 		Future<?> commandFuture;
 		
-		GitSshCommand(String command) {
+		GitSshCommand(String command, Lane lane) {
 			this.command = command;
+			this.lane = lane;
 		}
 		
 	    private Map<String, String> buildGitEnvs(Project project) {
@@ -160,6 +168,7 @@ public class GitSshCommandCreator implements SshCommandCreator {
 		public void start(ChannelSession channel, Environment env) throws IOException {
 			ThreadContext.bind(SecurityUtils.asSubject(authenticator.getPublicKeyOwnerId(session)));
 			
+            Long projectId;
             File gitDir;
             Map<String, String> gitEnvs;
             
@@ -178,19 +187,34 @@ public class GitSshCommandCreator implements SshCommandCreator {
             		return;
             	} 
 
+                projectId = project.getId();
                 gitDir = project.getGitDir();
                 gitEnvs = buildGitEnvs(project);
             } finally {                
                 sessionManager.closeSession();
             }
 			
-			commandFuture = workExecutor.submit(new PrioritizedRunnable(PRIORITY) {
+			commandFuture = executorService.submit(new Runnable() {
 				
 				@Override
 				public void run() {
 					try {
-						ExecutionResult result = execute(gitDir, gitEnvs);
+						ExecutionResult result = gitTransportManager.run(projectId, lane, 
+								new Callable<ExecutionResult>() {
+
+							@Override
+							public ExecutionResult call() throws Exception {
+								return execute(gitDir, gitEnvs);
+							}
+							
+						});
 						onExit(result.getReturnCode(), null);
+					} catch (GitTransportBusyException e) {
+						logger.warn(e.getMessage());
+						onExit(-1, e.getMessage());
+					} catch (ExecutionException e) {
+						logger.error("Error executing git command", e.getCause());
+						onExit(-1, e.getCause().getMessage());
 					} catch (Exception e) {
 						logger.error("Error executing git command", e);
 						onExit(-1, e.getMessage());
@@ -0,0 +1,48 @@
+package io.onedev.server.git;
+
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import io.onedev.server.git.exception.GitTransportBusyException;
+
+/**
+ * Admission control of git transports (upload-pack and receive-pack) over http and ssh. 
+ * Fetches and pushes run in separate lanes so that pushes do not queue behind a storm 
+ * of clones, and each lane runs a limited number of transports at a time. Queued 
+ * transports of different projects take turns, so that a project being cloned by many 
+ * clients at once does not block transports of other projects.
+ */
+public interface GitTransportManager {
+	
+	enum Lane {FETCH, PUSH};
+	
+	/**
+	 * Run specified transport in calling thread once a slot of specified lane is available
+	 * 
+	 * @param projectId
+	 * 			id of the project to run transport against
+	 * @param lane
+	 * 			lane of the transport
+	 * @param transport
+	 * 			transport to run
+	 * @return
+	 * 			result of the transport
+	 * @throws GitTransportBusyException
+	 * 			if no slot is available within configured queue timeout
+	 * @throws ExecutionException
+	 * 			if transport throws exception
+	 * @throws InterruptedException
+	 * 			if interrupted while waiting for a slot
+	 */
+	<T> T run(Long projectId, Lane lane, Callable<T> transport) 
+			throws InterruptedException, ExecutionException;
+	
+	/**
+	 * Wrap specified output stream of a fetch to count bytes served
+	 */
+	OutputStream countServed(OutputStream os);
+	
+	GitTransportStatus getStatus();
+
+}
@@ -0,0 +1,59 @@
+package io.onedev.server.git;
+
+public class GitTransportStatus {
+	
+	private final int activeFetches;
+	
+	private final int queuedFetches;
+	
+	private final int activePushes;
+	
+	private final int queuedPushes;
+	
+	private final long rejected;
+	
+	private final long bytesServed;
+	
+	public GitTransportStatus(int activeFetches, int queuedFetches, int activePushes, int queuedPushes,
+			long rejected, long bytesServed) {
+		this.activeFetches = activeFetches;
+		this.queuedFetches = queuedFetches;
+		this.activePushes = activePushes;
+		this.queuedPushes = queuedPushes;
+		this.rejected = rejected;
+		this.bytesServed = bytesServed;
+	}
+	
+	public int getActiveFetches() {
+		return activeFetches;
+	}
+	
+	public int getQueuedFetches() {
+		return queuedFetches;
+	}
+	
+	public int getActivePushes() {
+		return activePushes;
+	}
+	
+	public int getQueuedPushes() {
+		return queuedPushes;
+	}
+	
+	/**
+	 * @return
+	 * 			number of transports rejected as queue timed out
+	 */
+	public long getRejected() {
+		return rejected;
+	}
+	
+	/**
+	 * @return
+	 * 			number of bytes sent to clients by fetches
+	 */
+	public long getBytesServed() {
+		return bytesServed;
+	}
+
+}
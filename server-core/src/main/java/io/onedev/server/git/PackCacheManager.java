@@ -0,0 +1,40 @@
+package io.onedev.server.git;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import io.onedev.server.util.DiskCache;
+
+public interface PackCacheManager {
+	
+	/**
+	 * @return
+	 * 			whether or not upload-pack responses should be cached
+	 */
+	boolean isEnabled();
+	
+	/**
+	 * Serve response of specified upload-pack request from cache. The response is generated 
+	 * on first request and cached for subsequent identical requests against the same project, 
+	 * until refs of the project are updated. Concurrent identical requests wait for a single 
+	 * generation
+	 * 
+	 * @param projectId
+	 * 			id of the project to serve the request
+	 * @param request
+	 * 			upload-pack request body sent by client in stateless rpc mode
+	 * @param generator
+	 * 			generator to run upload-pack with the request if response is not cached
+	 * @param output
+	 * 			output to write response to
+	 * @return
+	 * 			<tt>true</tt> if response is served, or <tt>false</tt> if specified request 
+	 * 			is not cacheable, for instance a negotiation round before client sends done. 
+	 * 			Caller should run upload-pack by itself in this case
+	 * @throws IOException
+	 * 			if error occurs writing to the output
+	 */
+	boolean serve(Long projectId, byte[] request, DiskCache.Generator generator, 
+			OutputStream output) throws IOException;
+
+}
@@ -26,6 +26,8 @@ import io.onedev.commons.launcher.loader.ListenerRegistry;
 import io.onedev.commons.utils.StringUtils;
 import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.RefsUpdated;
+import io.onedev.server.git.AdvertisedRefsManager;
 import io.onedev.server.git.GitUtils;
 import io.onedev.server.model.Project;
 import io.onedev.server.persistence.SessionManager;
@@ -46,11 +48,15 @@ public class GitPostReceiveCallback extends HttpServlet {
     
     private final SessionManager sessionManager;
     
+    private final AdvertisedRefsManager advertisedRefsManager;
+    
     @Inject
-    public GitPostReceiveCallback(ProjectManager projectManager, SessionManager sessionManager, ListenerRegistry listenerRegistry) {
+    public GitPostReceiveCallback(ProjectManager projectManager, SessionManager sessionManager, 
+    		ListenerRegistry listenerRegistry, AdvertisedRefsManager advertisedRefsManager) {
     	this.projectManager = projectManager;
     	this.sessionManager = sessionManager;
         this.listenerRegistry = listenerRegistry;
+        this.advertisedRefsManager = advertisedRefsManager;
     }
 
     @Sessional
@@ -124,6 +130,10 @@ public class GitPostReceiveCallback extends HttpServlet {
         		fields.set(pos, field);
         }
         
+        // RefUpdated events are posted asynchronously, discard advertised refs now so that 
+        // fetches following the push see updated refs 
+        advertisedRefsManager.invalidate(project.getGitDir());
+        
         Long projectId = project.getId();
         
         sessionManager.runAsync(new Runnable() {
@@ -134,6 +144,7 @@ public class GitPostReceiveCallback extends HttpServlet {
 		        	// We can not use a hibernate entity safely in a different thread. Let's reload it 
 		            Project project = projectManager.load(projectId);
 
+		            List<RefUpdated> refUpdates = new ArrayList<>();
 		            for (ImmutableTriple<String, ObjectId, ObjectId> each: eventData) {
 		            	String refName = each.getLeft();
 		            	ObjectId oldObjectId = each.getMiddle();
@@ -143,8 +154,14 @@ public class GitPostReceiveCallback extends HttpServlet {
 			        	else 
 			        		project.cacheObjectId(refName, null);
 		            	
-			        	listenerRegistry.post(new RefUpdated(project, refName, oldObjectId, newObjectId));
+			        	refUpdates.add(new RefUpdated(project, refName, oldObjectId, newObjectId, true));
 		            }
+		            
+		            // Let listeners process the whole push at once, which matters when thousands 
+		            // of refs are pushed, for instance when a repository is imported 
+		            listenerRegistry.post(new RefsUpdated(project, refUpdates));
+		            for (RefUpdated refUpdated: refUpdates)
+		            	listenerRegistry.post(refUpdated);
 		        } catch (Exception e) {
 		        	logger.error("Error posting ref updated event", e);
 				}
@@ -87,10 +87,14 @@ public abstract class AbstractEnvironmentManager {
 	}
 	
 	protected Store getStore(Environment env, String storeName) {
+		return getStore(env, storeName, StoreConfig.WITHOUT_DUPLICATES);
+	}
+	
+	protected Store getStore(Environment env, String storeName, StoreConfig storeConfig) {
 		return env.computeInTransaction(new TransactionalComputable<Store>() {
 		    @Override
 		    public Store compute(Transaction txn) {
-		        return env.openStore(storeName, StoreConfig.WITHOUT_DUPLICATES, txn);
+		        return env.openStore(storeName, storeConfig, txn);
 		    }
 		});		
 	}
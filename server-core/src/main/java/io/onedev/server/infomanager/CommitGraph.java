@@ -0,0 +1,213 @@
+package io.onedev.server.infomanager;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+
+/**
+ * In-memory child graph of commits in a project. Commits are mapped to dense integers,
+ * and child relations are kept in primitive arrays as singly linked edge lists, so that
+ * descendants of a set of commits can be calculated into a bit set without touching the
+ * underlying store.
+ *
+ * This class is thread safe.
+ */
+public class CommitGraph {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final ObjectIdOwnerMap<Node> nodes = new ObjectIdOwnerMap<>();
+
+	private Node[] commits = new Node[INITIAL_CAPACITY];
+
+	// index of first child edge of each commit, -1 if the commit does not have children
+	private int[] firstEdges = new int[INITIAL_CAPACITY];
+
+	private int commitCount;
+
+	private int[] edgeChildren = new int[INITIAL_CAPACITY];
+
+	// index of next child edge of the same parent, -1 if this is the last one
+	private int[] nextEdges = new int[INITIAL_CAPACITY];
+
+	private int edgeCount;
+
+	private int getIndex(AnyObjectId commitId) {
+		Node node = nodes.get(commitId);
+		if (node == null) {
+			if (commitCount == commits.length) {
+				commits = Arrays.copyOf(commits, commitCount*2);
+				firstEdges = Arrays.copyOf(firstEdges, commitCount*2);
+			}
+			node = new Node(commitId, commitCount);
+			nodes.add(node);
+			commits[commitCount] = node;
+			firstEdges[commitCount] = -1;
+			commitCount++;
+		}
+		return node.index;
+	}
+
+	public synchronized void addChild(AnyObjectId parentId, AnyObjectId childId) {
+		int parent = getIndex(parentId);
+		int child = getIndex(childId);
+		for (int edge = firstEdges[parent]; edge != -1; edge = nextEdges[edge]) {
+			if (edgeChildren[edge] == child)
+				return;
+		}
+		if (edgeCount == edgeChildren.length) {
+			edgeChildren = Arrays.copyOf(edgeChildren, edgeCount*2);
+			nextEdges = Arrays.copyOf(nextEdges, edgeCount*2);
+		}
+		edgeChildren[edgeCount] = child;
+		nextEdges[edgeCount] = firstEdges[parent];
+		firstEdges[parent] = edgeCount;
+		edgeCount++;
+	}
+
+	public synchronized int getCommitCount() {
+		return commitCount;
+	}
+
+	private synchronized int indexOf(AnyObjectId commitId) {
+		Node node = nodes.get(commitId);
+		return node != null? node.index: -1;
+	}
+
+	/**
+	 * Get descendants of specified commits
+	 *
+	 * @param ancestors
+	 * 			commits to get descendants of
+	 * @return
+	 * 			a modifiable set of descendant commits, including specified ancestors
+	 * 			themselves. The set is backed by a bit set over this graph and does not
+	 * 			reflect subsequent changes of this graph
+	 */
+	public synchronized Set<ObjectId> getDescendants(Collection<? extends AnyObjectId> ancestors) {
+		BitSet descendants = new BitSet(commitCount);
+		Set<ObjectId> unknownAncestors = new HashSet<>();
+
+		// Use stack instead of recursion to avoid StackOverflowException
+		int[] stack = new int[64];
+		int stackSize = 0;
+		for (AnyObjectId ancestor: ancestors) {
+			Node node = nodes.get(ancestor);
+			if (node == null) {
+				unknownAncestors.add(ancestor.copy());
+			} else if (!descendants.get(node.index)) {
+				descendants.set(node.index);
+				if (stackSize == stack.length)
+					stack = Arrays.copyOf(stack, stackSize*2);
+				stack[stackSize++] = node.index;
+			}
+		}
+		while (stackSize != 0) {
+			int current = stack[--stackSize];
+			for (int edge = firstEdges[current]; edge != -1; edge = nextEdges[edge]) {
+				int child = edgeChildren[edge];
+				if (!descendants.get(child)) {
+					descendants.set(child);
+					if (stackSize == stack.length)
+						stack = Arrays.copyOf(stack, stackSize*2);
+					stack[stackSize++] = child;
+				}
+			}
+		}
+		return new CommitSet(descendants, unknownAncestors);
+	}
+
+	private static class Node extends ObjectIdOwnerMap.Entry {
+
+		final int index;
+
+		Node(AnyObjectId id, int index) {
+			super(id);
+			this.index = index;
+		}
+
+	}
+
+	private class CommitSet extends AbstractSet<ObjectId> {
+
+		private final BitSet bits;
+
+		private final Node[] commits;
+
+		private final Set<ObjectId> extras;
+
+		private final int cardinality;
+
+		CommitSet(BitSet bits, Set<ObjectId> extras) {
+			this.bits = bits;
+			this.extras = extras;
+
+			// Existing elements of commits array never change, and array only gets replaced
+			// while growing, so it is safe to iterate over a snapshot of it
+			commits = CommitGraph.this.commits;
+			cardinality = bits.cardinality();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (o instanceof AnyObjectId) {
+				int index = indexOf((AnyObjectId) o);
+				return index != -1 && bits.get(index) || extras.contains(o);
+			} else {
+				return false;
+			}
+		}
+
+		@Override
+		public boolean add(ObjectId e) {
+			if (!contains(e))
+				return extras.add(e.copy());
+			else
+				return false;
+		}
+
+		@Override
+		public Iterator<ObjectId> iterator() {
+			Iterator<ObjectId> extrasIterator = extras.iterator();
+			return new Iterator<ObjectId>() {
+
+				private int nextBit = bits.nextSetBit(0);
+
+				@Override
+				public boolean hasNext() {
+					return nextBit != -1 || extrasIterator.hasNext();
+				}
+
+				@Override
+				public ObjectId next() {
+					if (nextBit != -1) {
+						ObjectId next = commits[nextBit].copy();
+						nextBit = bits.nextSetBit(nextBit+1);
+						return next;
+					} else if (extrasIterator.hasNext()) {
+						return extrasIterator.next();
+					} else {
+						throw new NoSuchElementException();
+					}
+				}
+
+			};
+		}
+
+		@Override
+		public int size() {
+			return cardinality + extras.size();
+		}
+
+	}
+
+}
@@ -0,0 +1,140 @@
+package io.onedev.server.infomanager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import io.onedev.server.util.NameAndEmail;
+
+/**
+ * Compact binary encoding of values saved into commit info stores, used in place of Java
+ * serialization which is both verbose and slow for these small and frequently accessed
+ * values. Integers are encoded as zigzag varints, and strings are encoded as varint length
+ * followed by UTF-8 bytes.
+ */
+class CompactCodec {
+
+	public static byte[] encodeUser(NameAndEmail user) {
+		Output output = new Output();
+		output.writeString(user.getName());
+		output.writeString(user.getEmailAddress());
+		return output.toByteArray();
+	}
+
+	public static NameAndEmail decodeUser(byte[] bytes) {
+		Input input = new Input(bytes);
+		return new NameAndEmail(input.readString(), input.readString());
+	}
+
+	public static byte[] encodeLong(long value) {
+		Output output = new Output();
+		output.writeLong(value);
+		return output.toByteArray();
+	}
+
+	public static long decodeLong(byte[] bytes) {
+		return new Input(bytes).readLong();
+	}
+
+	public static byte[] encodeLineStats(Map<String, Integer> lineStats) {
+		Output output = new Output();
+		output.writeLong(lineStats.size());
+		for (Map.Entry<String, Integer> entry: lineStats.entrySet()) {
+			output.writeString(entry.getKey());
+			output.writeLong(entry.getValue());
+		}
+		return output.toByteArray();
+	}
+
+	public static Map<String, Integer> decodeLineStats(byte[] bytes) {
+		Input input = new Input(bytes);
+		int size = (int) input.readLong();
+		Map<String, Integer> lineStats = new HashMap<>();
+		for (int i=0; i<size; i++)
+			lineStats.put(input.readString(), (int) input.readLong());
+		return lineStats;
+	}
+
+	static class Output {
+
+		private byte[] bytes = new byte[32];
+
+		private int length;
+
+		private void ensureCapacity(int capacity) {
+			if (capacity > bytes.length)
+				bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length*2));
+		}
+
+		public void writeLong(long value) {
+			ensureCapacity(length + 10);
+			long zigzag = (value << 1) ^ (value >> 63);
+			while ((zigzag & ~0x7FL) != 0) {
+				bytes[length++] = (byte) ((zigzag & 0x7F) | 0x80);
+				zigzag >>>= 7;
+			}
+			bytes[length++] = (byte) zigzag;
+		}
+
+		/**
+		 * Write specified string. Length is written as length plus one so that
+		 * <tt>null</tt> can be encoded as zero
+		 */
+		public void writeString(@Nullable String value) {
+			if (value != null) {
+				byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+				writeLong(valueBytes.length + 1);
+				ensureCapacity(length + valueBytes.length);
+				System.arraycopy(valueBytes, 0, bytes, length, valueBytes.length);
+				length += valueBytes.length;
+			} else {
+				writeLong(0);
+			}
+		}
+
+		public byte[] toByteArray() {
+			return Arrays.copyOf(bytes, length);
+		}
+
+	}
+
+	static class Input {
+
+		private final byte[] bytes;
+
+		private int pos;
+
+		public Input(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		public long readLong() {
+			long zigzag = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = bytes[pos++];
+				zigzag |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return (zigzag >>> 1) ^ -(zigzag & 1);
+		}
+
+		@Nullable
+		public String readString() {
+			int length = (int) readLong();
+			if (length != 0) {
+				String value = new String(bytes, pos, length-1, StandardCharsets.UTF_8);
+				pos += length-1;
+				return value;
+			} else {
+				return null;
+			}
+		}
+
+	}
+
+}
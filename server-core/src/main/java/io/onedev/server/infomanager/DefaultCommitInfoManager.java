@@ -2,10 +2,10 @@ package io.onedev.server.infomanager;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -18,7 +18,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.Stack;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
@@ -27,7 +26,6 @@ import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
-import org.apache.commons.lang3.SerializationUtils;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
@@ -40,6 +38,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 import io.onedev.commons.launcher.loader.Listen;
@@ -49,6 +48,7 @@ import io.onedev.commons.utils.StringUtils;
 import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.entitymanager.UserManager;
 import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.RefsUpdated;
 import io.onedev.server.event.entity.EntityRemoved;
 import io.onedev.server.event.system.SystemStarted;
 import io.onedev.server.git.GitContribution;
@@ -74,13 +74,16 @@ import io.onedev.server.util.concurrent.Prioritized;
 import io.onedev.server.util.facade.UserFacade;
 import io.onedev.server.util.work.BatchWorkManager;
 import io.onedev.server.util.work.BatchWorker;
+import io.onedev.server.util.work.WorkCategory;
 import jetbrains.exodus.ArrayByteIterable;
 import jetbrains.exodus.ByteIterable;
 import jetbrains.exodus.backup.BackupStrategy;
 import jetbrains.exodus.backup.BackupStrategy.FileDescriptor;
 import jetbrains.exodus.backup.VirtualFileDescriptor;
+import jetbrains.exodus.env.Cursor;
 import jetbrains.exodus.env.Environment;
 import jetbrains.exodus.env.Store;
+import jetbrains.exodus.env.StoreConfig;
 import jetbrains.exodus.env.Transaction;
 import jetbrains.exodus.env.TransactionalComputable;
 import jetbrains.exodus.env.TransactionalExecutable;
@@ -90,7 +93,7 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultCommitInfoManager.class);
 	
-	private static final int INFO_VERSION = 11;
+	private static final int INFO_VERSION = 12;
 	
 	private static final long LOG_FILE_SIZE = 256*1024;
 	
@@ -98,6 +101,8 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 	
 	private static final int MAX_COLLECTING_FILES = 50000;
 	
+	private static final int MAX_PRUNABLE_FILES = 5000;
+	
 	private static final int MAX_HISTORY_PATHS = 100;
 	
 	private static final int MAX_COMMIT_FILES = 100;
@@ -124,6 +129,12 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 	
 	private static final String DAILY_CONTRIBUTIONS_STORE = "dailyContributions";
 	
+	private static final String USERS_STORE = "users";
+	
+	private static final String FILES_STORE = "files";
+	
+	private static final String LINE_STATS_STORE = "lineStats";
+	
 	private static final ByteIterable NEXT_PATH_INDEX_KEY = new StringByteIterable("nextPathIndex");
 	
 	private static final ByteIterable NEXT_USER_INDEX_KEY = new StringByteIterable("nextUserIndex");
@@ -134,16 +145,14 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 	
 	private static final ByteIterable LAST_COMMIT_OF_CONTRIBS_KEY = new StringByteIterable("lastCommitOfContribs");
 	
-	private static final ByteIterable LINE_STATS_KEY = new StringByteIterable("lineStats");
-	
-	private static final ByteIterable USERS_KEY = new StringByteIterable("users");
-	
-	private static final ByteIterable FILES_KEY = new StringByteIterable("files");
+	private static final ByteIterable FILE_COUNT_KEY = new StringByteIterable("fileCount");
 	
 	private static final ByteIterable OVERALL_CONTRIBUTIONS_KEY = new StringByteIterable("overallContributions");
 	
 	private static final ByteIterable COMMIT_COUNT_KEY = new StringByteIterable("commitCount");
 	
+	private static final ByteIterable EMPTY_VALUE = new ArrayByteIterable(new byte[0]);
+	
 	private static final int PRIORITY = 100;
 	
 	private static final Map<String, String> PROGRAMMING_LANGUAGES = new HashMap<>();
@@ -294,6 +303,8 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 	
 	private final Map<Long, List<NameAndEmail>> usersCache = new ConcurrentHashMap<>();
 	
+	private final Map<Long, CommitGraph> commitGraphs = new ConcurrentHashMap<>();
+	
 	@Inject
 	public DefaultCommitInfoManager(ProjectManager projectManager, StorageManager storageManager, 
 			BatchWorkManager batchWorkManager, SessionManager sessionManager, UserManager userManager) {
@@ -325,6 +336,8 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		Store userToIndexStore = getStore(env, USER_TO_INDEX_STORE);
 		Store indexToUserStore = getStore(env, INDEX_TO_USER_STORE);
 		Store fixCommitsStore = getStore(env, FIX_COMMITS_STORE);
+		Store usersStore = getStore(env, USERS_STORE);
+		Store filesStore = getStore(env, FILES_STORE, StoreConfig.WITHOUT_DUPLICATES_WITH_PREFIXING);
 		
 		Repository repository = project.getRepository();
 
@@ -358,11 +371,15 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 
 				@Override
 				public void process(ObjectId untilCommitId, ObjectId sinceCommitId) {
+					boolean commitGraphLoaded = commitGraphs.containsKey(project.getId());
+					List<Pair<ObjectId, ObjectId>> newEdges = new ArrayList<>();
+					
 					env.executeInTransaction(new TransactionalExecutable() {
 						
-						@SuppressWarnings("unchecked")
 						@Override
 						public void execute(Transaction txn) {
+							newEdges.clear();
+							
 							AtomicInteger totalCommitCount = new AtomicInteger(readInt(defaultStore, txn, COMMIT_COUNT_KEY, 0));
 							
 							NextIndex nextIndex = new NextIndex();
@@ -371,19 +388,9 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 							
 							Map<Long, Integer> commitCountCache = new HashMap<>();
 							
-							Set<NameAndEmail> users;
-							byte[] userBytes = readBytes(defaultStore, txn, USERS_KEY);
-							if (userBytes != null)
-								users = (Set<NameAndEmail>) SerializationUtils.deserialize(userBytes);
-							else
-								users = new HashSet<>();
-
-							Map<String, Long> files;
-							byte[] fileBytes = readBytes(defaultStore, txn, FILES_KEY);
-							if (fileBytes != null)
-								files = (Map<String, Long>) SerializationUtils.deserialize(fileBytes);
-							else
-								files = new HashMap<>();
+							// users and touched files of this batch, to be merged into their stores
+							Set<NameAndEmail> users = new HashSet<>();
+							Map<String, Long> files = new HashMap<>();
 
 							new ElementPumper<GitCommit>() {
 
@@ -427,7 +434,10 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 										commitsStore.put(txn, currentCommitKey, new ArrayByteIterable(newCurrentCommitBytes));
 										
 										for (String parentCommitHash: currentCommit.getParentHashes()) {
-											ByteIterable parentCommitKey = new CommitByteIterable(ObjectId.fromString(parentCommitHash));
+											ObjectId parentCommitId = ObjectId.fromString(parentCommitHash);
+											if (commitGraphLoaded)
+												newEdges.add(new Pair<>(parentCommitId, currentCommitId));
+											ByteIterable parentCommitKey = new CommitByteIterable(parentCommitId);
 											byte[] parentCommitBytes = readBytes(commitsStore, txn, parentCommitKey);
 											byte[] newParentCommitBytes;
 											if (parentCommitBytes != null) {
@@ -465,7 +475,7 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 										
 										if (currentCommit.getCommitDate() != null) {
 											for (String file: currentCommit.getChangedFiles())
-												files.put(file, currentCommit.getCommitDate().getTime());
+												files.merge(file, currentCommit.getCommitDate().getTime(), Math::max);
 										}
 										
 										if (currentCommit.getCommitter() != null)
@@ -475,7 +485,7 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 											NameAndEmail nameAndEmail = new NameAndEmail(currentCommit.getAuthor());
 											users.add(nameAndEmail);
 											
-											ByteIterable authorKey = new ArrayByteIterable(SerializationUtils.serialize(nameAndEmail));											
+											ByteIterable authorKey = new ArrayByteIterable(CompactCodec.encodeUser(nameAndEmail));											
 											int userIndex = readInt(userToIndexStore, txn, authorKey, -1);
 											if (userIndex == -1) {
 												userIndex = nextIndex.user++;
@@ -548,18 +558,22 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 							writeInt(defaultStore, txn, NEXT_USER_INDEX_KEY, nextIndex.user);
 							writeInt(defaultStore, txn, NEXT_PATH_INDEX_KEY, nextIndex.path);
 							
-							userBytes = SerializationUtils.serialize((Serializable) users);
-							defaultStore.put(txn, USERS_KEY, new ArrayByteIterable(userBytes));
+							for (NameAndEmail user: users) 
+								usersStore.put(txn, new ArrayByteIterable(CompactCodec.encodeUser(user)), EMPTY_VALUE);
 							usersCache.remove(project.getId());
 							
-							if (files.size() > MAX_COLLECTING_FILES) {
-								List<String> fileList = new ArrayList<>(files.keySet());
-								fileList.sort((file1, file2)->files.get(file1).compareTo(files.get(file2)));
-								for (int i=0; i<fileList.size() - MAX_COLLECTING_FILES; i++)
-									files.remove(fileList.get(i));
+							int fileCount = readInt(defaultStore, txn, FILE_COUNT_KEY, 0);
+							for (Map.Entry<String, Long> entry: files.entrySet()) {
+								ByteIterable fileKey = new StringByteIterable(entry.getKey());
+								ByteIterable fileValue = new ArrayByteIterable(CompactCodec.encodeLong(entry.getValue()));
+								if (filesStore.add(txn, fileKey, fileValue))
+									fileCount++;
+								else
+									filesStore.put(txn, fileKey, fileValue);
 							}
-							fileBytes = SerializationUtils.serialize((Serializable) files);
-							defaultStore.put(txn, FILES_KEY, new ArrayByteIterable(fileBytes));
+							if (fileCount > MAX_COLLECTING_FILES + MAX_PRUNABLE_FILES)
+								fileCount = pruneFiles(filesStore, txn);
+							writeInt(defaultStore, txn, FILE_COUNT_KEY, fileCount);
 							filesCache.remove(project.getId());
 							
 							for (Map.Entry<Long, Integer> entry: commitCountCache.entrySet()) 
@@ -568,6 +582,18 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 							defaultStore.put(txn, LAST_COMMIT_KEY, new CommitByteIterable(untilCommitId));
 						}
 					});
+					
+					if (commitGraphLoaded) {
+						commitGraphs.computeIfPresent(project.getId(), (projectId, commitGraph) -> {
+							for (Pair<ObjectId, ObjectId> edge: newEdges)
+								commitGraph.addChild(edge.getFirst(), edge.getSecond());
+							return commitGraph;
+						});
+					} else {
+						// Commit graph might be loaded by others before this transaction commits, 
+						// discard it to be reloaded
+						commitGraphs.remove(project.getId());
+					}
 				}
 				
 			});
@@ -581,6 +607,27 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		logger.debug("Collected commit information (project: {}, ref: {})", project.getName(), refName);
 	}
 
+	/*
+	 * Only keep most recently touched files to limit size of the files store
+	 * 
+	 * @return number of remaining files 
+	 */
+	private int pruneFiles(Store filesStore, Transaction txn) {
+		List<Pair<ByteIterable, Long>> files = new ArrayList<>();
+		try (Cursor cursor = filesStore.openCursor(txn)) {
+			while (cursor.getNext()) {
+				ByteIterable value = cursor.getValue();
+				long time = CompactCodec.decodeLong(Arrays.copyOf(value.getBytesUnsafe(), value.getLength()));
+				ByteIterable key = cursor.getKey();
+				files.add(new Pair<>(new ArrayByteIterable(Arrays.copyOf(key.getBytesUnsafe(), key.getLength())), time));
+			}
+		}
+		files.sort((file1, file2)->file1.getSecond().compareTo(file2.getSecond()));
+		for (int i=0; i<files.size() - MAX_COLLECTING_FILES; i++)
+			filesStore.delete(txn, files.get(i).getFirst());
+		return Math.min(files.size(), MAX_COLLECTING_FILES);
+	}
+
 	private void collectContribs(Project project, ObjectId commitId) {
 		Environment env = getEnv(project.getId().toString());
 		Store defaultStore = getStore(env, DEFAULT_STORE);
@@ -657,7 +704,7 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 
 									if (currentCommit.getAuthor() != null) {
 										NameAndEmail author = new NameAndEmail(currentCommit.getAuthor());
-										ByteIterable authorKey = new ArrayByteIterable(SerializationUtils.serialize(author));											
+										ByteIterable authorKey = new ArrayByteIterable(CompactCodec.encodeUser(author));											
 										int userIndex = readInt(userToIndexStore, txn, authorKey, -1);
 										Preconditions.checkState(userIndex != -1);
 
@@ -694,6 +741,7 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 	private void collectLineStats(Project project, ObjectId commitId) {
 		Environment env = getEnv(project.getId().toString());
 		Store defaultStore = getStore(env, DEFAULT_STORE);
+		Store lineStatsStore = getStore(env, LINE_STATS_STORE);
 		
 		Repository repository = project.getRepository();
 		
@@ -753,8 +801,11 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 						
 					}.pump();
 					
-					byte[] bytesOfLineStats = SerializationUtils.serialize((Serializable) lineStats);
-					defaultStore.put(txn, LINE_STATS_KEY, new ArrayByteIterable(bytesOfLineStats));
+					try (Cursor cursor = lineStatsStore.openCursor(txn)) {
+						while (cursor.getNext())
+							cursor.deleteCurrent();
+					}
+					writeLineStats(lineStatsStore, txn, lineStats);
 					
 					defaultStore.put(txn, LAST_COMMIT_OF_LINE_STATS_KEY, new CommitByteIterable(commitId));
 				}
@@ -763,28 +814,24 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		} else {
 			env.executeInTransaction(new TransactionalExecutable() {
 				
-				@SuppressWarnings("unchecked")
 				@Override
 				public void execute(Transaction txn) {
-					Map<Integer, Map<String, Integer>> lineStats;
-					byte[] bytesOfLineStats = readBytes(defaultStore, txn, LINE_STATS_KEY);
-					if (bytesOfLineStats != null) {
-						lineStats = (Map<Integer, Map<String, Integer>>) SerializationUtils.deserialize(
-								bytesOfLineStats);
-					} else {
-						lineStats = new HashMap<>();
-					}
-					
 					ListNumStatsCommand command = new ListNumStatsCommand(project.getGitDir());
 					List<FileChange> fileChanges = command.fromRev(lastCommitId.name()).toRev(commitId.name()).call();
 					RevCommit revCommit = project.getRevCommit(commitId, true);
 					GitCommit gitCommit = new GitCommit(revCommit.name(), null, null, revCommit.getAuthorIdent(), 
 							revCommit.getCommitterIdent().getWhen(), null, null, fileChanges);
 					
+					// Only line stats of the day of this commit needs to be updated
+					int dayValue = new Day(gitCommit.getCommitDate()).getValue();
+					Map<Integer, Map<String, Integer>> lineStats = new HashMap<>();
+					byte[] bytesOfLineStatsOnDay = readBytes(lineStatsStore, txn, new IntByteIterable(dayValue));
+					if (bytesOfLineStatsOnDay != null)
+						lineStats.put(dayValue, CompactCodec.decodeLineStats(bytesOfLineStatsOnDay));
+					
 					updateLineStats(txn, gitCommit, lineStats);
 
-					bytesOfLineStats = SerializationUtils.serialize((Serializable) lineStats);
-					defaultStore.put(txn, LINE_STATS_KEY, new ArrayByteIterable(bytesOfLineStats));
+					writeLineStats(lineStatsStore, txn, lineStats);
 					
 					defaultStore.put(txn, LAST_COMMIT_OF_LINE_STATS_KEY, new CommitByteIterable(commitId));
 				}
@@ -847,6 +894,13 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		}		
 	}
 		
+	private void writeLineStats(Store lineStatsStore, Transaction txn, Map<Integer, Map<String, Integer>> lineStats) {
+		for (Map.Entry<Integer, Map<String, Integer>> entry: lineStats.entrySet()) {
+			lineStatsStore.put(txn, new IntByteIterable(entry.getKey()), 
+					new ArrayByteIterable(CompactCodec.encodeLineStats(entry.getValue())));
+		}
+	}
+		
 	private void updateLineStats(Transaction txn, GitCommit currentCommit, Map<Integer, Map<String, Integer>> lineStats) {		
 		int dayValue = new Day(currentCommit.getCommitDate()).getValue();
 		
@@ -909,22 +963,21 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		List<NameAndEmail> users = usersCache.get(project.getId());
 		if (users == null) {
 			Environment env = getEnv(project.getId().toString());
-			Store store = getStore(env, DEFAULT_STORE);
+			Store store = getStore(env, USERS_STORE);
 
 			users = env.computeInReadonlyTransaction(new TransactionalComputable<List<NameAndEmail>>() {
 
-				@SuppressWarnings("unchecked")
 				@Override
 				public List<NameAndEmail> compute(Transaction txn) {
-					byte[] bytes = readBytes(store, txn, USERS_KEY);
-					if (bytes != null) { 
-						List<NameAndEmail> users = 
-								new ArrayList<>((Set<NameAndEmail>) SerializationUtils.deserialize(bytes));
-						Collections.sort(users);
-						return users;
-					} else { 
-						return new ArrayList<>();
+					List<NameAndEmail> users = new ArrayList<>();
+					try (Cursor cursor = store.openCursor(txn)) {
+						while (cursor.getNext()) {
+							ByteIterable key = cursor.getKey();
+							users.add(CompactCodec.decodeUser(Arrays.copyOf(key.getBytesUnsafe(), key.getLength())));
+						}
 					}
+					Collections.sort(users);
+					return users;
 				}
 				
 			});
@@ -938,34 +991,33 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		List<String> files = filesCache.get(project.getId());
 		if (files == null) {
 			Environment env = getEnv(project.getId().toString());
-			final Store store = getStore(env, DEFAULT_STORE);
+			final Store store = getStore(env, FILES_STORE, StoreConfig.WITHOUT_DUPLICATES_WITH_PREFIXING);
 
 			files = env.computeInReadonlyTransaction(new TransactionalComputable<List<String>>() {
 
-				@SuppressWarnings("unchecked")
 				@Override
 				public List<String> compute(Transaction txn) {
-					byte[] bytes = readBytes(store, txn, FILES_KEY);
-					if (bytes != null) {
-						List<String> files = new ArrayList<>(
-								((Map<String, Long>)SerializationUtils.deserialize(bytes)).keySet());
-						Map<String, List<String>> segmentsMap = new HashMap<>();
-						Splitter splitter = Splitter.on("/");
-						for (String file: files) {
-							segmentsMap.put(file, splitter.splitToList(file));
+					List<String> files = new ArrayList<>();
+					try (Cursor cursor = store.openCursor(txn)) {
+						while (cursor.getNext()) {
+							ByteIterable key = cursor.getKey();
+							files.add(new String(key.getBytesUnsafe(), 0, key.getLength(), StandardCharsets.UTF_8));
 						}
-						files.sort(new Comparator<String>() {
+					}
+					Map<String, List<String>> segmentsMap = new HashMap<>();
+					Splitter splitter = Splitter.on("/");
+					for (String file: files) {
+						segmentsMap.put(file, splitter.splitToList(file));
+					}
+					files.sort(new Comparator<String>() {
 
-							@Override
-							public int compare(String o1, String o2) {
-								return PathUtils.compare(segmentsMap.get(o1), segmentsMap.get(o2));
-							}
+						@Override
+						public int compare(String o1, String o2) {
+							return PathUtils.compare(segmentsMap.get(o1), segmentsMap.get(o2));
+						}
 							
-						});
-						return files;
-					} else {
-						return new ArrayList<>();
-					}
+					});
+					return files;
 				}
 			});
 			filesCache.put(project.getId(), files);
@@ -976,21 +1028,21 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 	@Override
 	public Map<Day, Map<String, Integer>> getLineIncrements(Project project) {
 		Environment env = getEnv(project.getId().toString());
-		Store store = getStore(env, DEFAULT_STORE);
+		Store store = getStore(env, LINE_STATS_STORE);
 
 		return env.computeInReadonlyTransaction(new TransactionalComputable<Map<Day, Map<String, Integer>>>() {
 
 			@Override
 			public Map<Day, Map<String, Integer>> compute(Transaction txn) {
 				Map<Day, Map<String, Integer>> lineIncrements = new HashMap<>();
-				byte[] bytes = readBytes(store, txn, LINE_STATS_KEY);
-				if (bytes != null) {
-					@SuppressWarnings("unchecked")
-					Map<Integer, Map<String, Integer>> storedMap = 
-							(Map<Integer, Map<String, Integer>>) SerializationUtils.deserialize(bytes);
-					for (Map.Entry<Integer, Map<String, Integer>> entry: storedMap.entrySet())
-						lineIncrements.put(new Day(entry.getKey()), entry.getValue());
-				} 
+				try (Cursor cursor = store.openCursor(txn)) {
+					while (cursor.getNext()) {
+						int dayValue = ByteBuffer.wrap(cursor.getKey().getBytesUnsafe()).getInt();
+						ByteIterable value = cursor.getValue();
+						lineIncrements.put(new Day(dayValue), CompactCodec.decodeLineStats(
+								Arrays.copyOf(value.getBytesUnsafe(), value.getLength())));
+					}
+				}
 				return lineIncrements;
 			}
 			
@@ -1040,50 +1092,39 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		});
 	}
 	
-	@Override
-	public Collection<ObjectId> getDescendants(Project project, Collection<ObjectId> ancestors) {
-		Environment env = getEnv(project.getId().toString());
-		final Store store = getStore(env, COMMITS_STORE);
-
-		return env.computeInReadonlyTransaction(new TransactionalComputable<Set<ObjectId>>() {
+	private CommitGraph getCommitGraph(Project project) {
+		return commitGraphs.computeIfAbsent(project.getId(), projectId -> {
+			Environment env = getEnv(projectId.toString());
+			Store store = getStore(env, COMMITS_STORE);
+			return env.computeInReadonlyTransaction(new TransactionalComputable<CommitGraph>() {
 
-			@Override
-			public Set<ObjectId> compute(Transaction txn) {
-				Set<ObjectId> descendants = new HashSet<>();
-				
-				// Use stack instead of recursion to avoid StackOverflowException
-				Stack<ObjectId> stack = new Stack<>();
-				descendants.addAll(ancestors);
-				stack.addAll(ancestors);
-				while (!stack.isEmpty()) {
-					ObjectId current = stack.pop();
-					byte[] valueBytes = readBytes(store, txn, new CommitByteIterable(current));
-					if (valueBytes != null) {
-						if (valueBytes.length % 20 == 0) {
-							for (int i=0; i<valueBytes.length/20; i++) {
-								ObjectId child = ObjectId.fromRaw(valueBytes, i*20);
-								if (!descendants.contains(child)) {
-									descendants.add(child);
-									stack.push(child);
-								}
-							}
-						} else { 
-							for (int i=0; i<(valueBytes.length-1)/20; i++) {
-								ObjectId child = ObjectId.fromRaw(valueBytes, i*20+1);
-								if (!descendants.contains(child)) {
-									descendants.add(child);
-									stack.push(child);
-								}
-							}
+				@Override
+				public CommitGraph compute(Transaction txn) {
+					CommitGraph commitGraph = new CommitGraph();
+					try (Cursor cursor = store.openCursor(txn)) {
+						while (cursor.getNext()) {
+							ObjectId commitId = ObjectId.fromRaw(cursor.getKey().getBytesUnsafe());
+							ByteIterable value = cursor.getValue();
+							byte[] valueBytes = value.getBytesUnsafe();
+							
+							// Collected commits stores an additional leading byte
+							for (int i=value.getLength()%20; i<value.getLength(); i+=20) 
+								commitGraph.addChild(commitId, ObjectId.fromRaw(valueBytes, i));
 						}
 					}
+					logger.debug("Loaded commit graph (project id: {}, commits: {})", 
+							projectId, commitGraph.getCommitCount());
+					return commitGraph;
 				}
 				
-				return descendants;
-			}
-			
+			});
 		});
 	}
+	
+	@Override
+	public Collection<ObjectId> getDescendants(Project project, Collection<ObjectId> ancestors) {
+		return getCommitGraph(project).getDescendants(ancestors);
+	}
 
 	@Listen
 	public void on(EntityRemoved event) {
@@ -1093,11 +1134,12 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 			filesCache.remove(projectId);
 			totalCommitCountCache.remove(projectId);
 			usersCache.remove(projectId);
+			commitGraphs.remove(projectId);
 		}
 	}
 	
 	private BatchWorker getBatchWorker(Long projectId) {
-		return new BatchWorker("project-" + projectId + "-collectCommitInfo") {
+		return new BatchWorker("project-" + projectId + "-collectCommitInfo", WorkCategory.COMMIT_INFO) {
 
 			@Override
 			public void doWorks(Collection<Prioritized> works) {
@@ -1106,9 +1148,22 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 					@Override
 					public void run() {
 						Project project = projectManager.load(projectId);
-						List<CollectingWork> collectingWorks = new ArrayList<>();
-						for (Object work: works)
-							collectingWorks.add((CollectingWork)work);
+						
+						/*
+						 * Collect each commit only once even if pointed by many refs (for instance
+						 * many tags pushed at once), preferring default branch as line stats and 
+						 * contributions are only collected for it
+						 */
+						String defaultBranchRef = GitUtils.branch2ref(project.getDefaultBranch());
+						Map<ObjectId, CollectingWork> worksByCommit = new HashMap<>();
+						for (Object work: works) {
+							CollectingWork collectingWork = (CollectingWork) work;
+							if (!worksByCommit.containsKey(collectingWork.getCommit()) 
+									|| collectingWork.getRefName().equals(defaultBranchRef)) {
+								worksByCommit.put(collectingWork.getCommit(), collectingWork);
+							}
+						}
+						List<CollectingWork> collectingWorks = new ArrayList<>(worksByCommit.values());
 						Collections.sort(collectingWorks, new CommitTimeComparator());
 						
 						for (CollectingWork work: collectingWorks) 
@@ -1155,14 +1210,26 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 	@Sessional
 	@Listen
 	public void on(RefUpdated event) {
-		if (!event.getNewCommitId().equals(ObjectId.zeroId()) 
-				&& (event.getRefName().startsWith(Constants.R_HEADS) 
-						|| event.getRefName().startsWith(Constants.R_TAGS))) {
-			try (RevWalk revWalk = new RevWalk(event.getProject().getRepository())) {
-				RevCommit commit = GitUtils.parseCommit(revWalk, event.getNewCommitId());
-				if (commit != null) {
-					CollectingWork work = new CollectingWork(PRIORITY, commit, event.getRefName());
-					batchWorkManager.submit(getBatchWorker(event.getProject().getId()), work);
+		if (!event.isBulk())
+			collect(event.getProject(), Lists.newArrayList(event));
+	}
+	
+	@Sessional
+	@Listen
+	public void on(RefsUpdated event) {
+		collect(event.getProject(), event.getRefUpdates());
+	}
+	
+	private void collect(Project project, List<RefUpdated> refUpdates) {
+		BatchWorker batchWorker = getBatchWorker(project.getId());
+		try (RevWalk revWalk = new RevWalk(project.getRepository())) {
+			for (RefUpdated refUpdated: refUpdates) {
+				if (!refUpdated.getNewCommitId().equals(ObjectId.zeroId()) 
+						&& (refUpdated.getRefName().startsWith(Constants.R_HEADS) 
+								|| refUpdated.getRefName().startsWith(Constants.R_TAGS))) {
+					RevCommit commit = GitUtils.parseCommit(revWalk, refUpdated.getNewCommitId());
+					if (commit != null) 
+						batchWorkManager.submit(batchWorker, new CollectingWork(PRIORITY, commit, refUpdated.getRefName()));
 				}
 			}
 		}
@@ -1340,7 +1407,7 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 				if (userOpt == null) {
 					byte[] userBytes = readBytes(indexToUserStore, txn, new IntByteIterable(userIndex));
 					if (userBytes != null) { 
-						NameAndEmail user = (NameAndEmail) SerializationUtils.deserialize(userBytes);
+						NameAndEmail user = CompactCodec.decodeUser(userBytes);
 						UserFacade facade = userManager.findFacadeByEmail(user.getEmailAddress());
 						if (facade != null)
 							user = facade.getNameAndEmail();
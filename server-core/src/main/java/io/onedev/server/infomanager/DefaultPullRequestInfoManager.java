@@ -32,6 +32,7 @@ import io.onedev.server.storage.StorageManager;
 import io.onedev.server.util.concurrent.Prioritized;
 import io.onedev.server.util.work.BatchWorkManager;
 import io.onedev.server.util.work.BatchWorker;
+import io.onedev.server.util.work.WorkCategory;
 import jetbrains.exodus.ArrayByteIterable;
 import jetbrains.exodus.ByteIterable;
 import jetbrains.exodus.env.Environment;
@@ -87,7 +88,7 @@ public class DefaultPullRequestInfoManager extends AbstractEnvironmentManager
 	}
 	
 	private BatchWorker getBatchWorker(Long projectId) {
-		return new BatchWorker("project-" + projectId + "-collectPullRequestInfo") {
+		return new BatchWorker("project-" + projectId + "-collectPullRequestInfo", WorkCategory.PULL_REQUEST_INFO) {
 
 			@Override
 			public void doWorks(Collection<Prioritized> works) {
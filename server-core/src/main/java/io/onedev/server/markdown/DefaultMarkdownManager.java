@@ -2,15 +2,23 @@ package io.onedev.server.markdown;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.wicket.request.cycle.RequestCycle;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
 import com.vladsch.flexmark.Extension;
 import com.vladsch.flexmark.ast.Node;
 import com.vladsch.flexmark.ext.anchorlink.AnchorLinkExtension;
@@ -25,26 +33,82 @@ import com.vladsch.flexmark.parser.ParserEmulationProfile;
 import com.vladsch.flexmark.util.options.MutableDataHolder;
 import com.vladsch.flexmark.util.options.MutableDataSet;
 
+import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.server.entitymanager.SettingManager;
+import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.RefsUpdated;
+import io.onedev.server.event.entity.EntityEvent;
+import io.onedev.server.event.entity.EntityPersisted;
+import io.onedev.server.event.entity.EntityRemoved;
+import io.onedev.server.model.Build;
 import io.onedev.server.model.Project;
+import io.onedev.server.model.User;
+import io.onedev.server.persistence.TransactionManager;
+import io.onedev.server.persistence.annotation.Transactional;
 import io.onedev.server.util.HtmlUtils;
 import io.onedev.server.web.resource.AttachmentResource;
 
+/**
+ * Markdown parser and renderer are built once and shared, as they are immutable and 
+ * thread-safe. Rendered html and processed html are cached by content hash. Processed 
+ * html also depends on project, existence of referenced projects and users, versions 
+ * of referenced builds, and commits of the project, so cached entries are invalidated 
+ * when these change. Html processed with a render context is not cached as processors 
+ * may resolve it against repository content and permissions of current user.
+ */
 @Singleton
 public class DefaultMarkdownManager implements MarkdownManager {
 	
+	private static final long MAX_CACHE_WEIGHT = 16*1024*1024; // in characters
+	
 	private final SettingManager settingManager;
 	
+	private final TransactionManager transactionManager;
+	
 	private final Set<Extension> contributedExtensions;
 	
 	private final Set<MarkdownProcessor> htmlTransformers;
 	
+	private final Parser parser;
+	
+	private final HtmlRenderer renderer;
+	
+	private final Cache<String, String> renderCache = newCache();
+	
+	private final Cache<ProcessKey, String> processCache = newCache();
+	
+	private final AtomicLong renderTime = new AtomicLong();
+	
+	private final AtomicLong processTime = new AtomicLong();
+	
+	private long version;
+	
 	@Inject
-	public DefaultMarkdownManager(SettingManager settingManager, Set<Extension> contributedExtensions, 
-			Set<MarkdownProcessor> htmlTransformers) {
+	public DefaultMarkdownManager(SettingManager settingManager, TransactionManager transactionManager, 
+			Set<Extension> contributedExtensions, Set<MarkdownProcessor> htmlTransformers) {
 		this.settingManager = settingManager;
+		this.transactionManager = transactionManager;
 		this.contributedExtensions = contributedExtensions;
 		this.htmlTransformers = htmlTransformers;
+		
+		MutableDataHolder options = setupOptions();
+		parser = Parser.builder(options).build();
+		renderer = HtmlRenderer.builder(options).softBreak("<br>").build();
+	}
+	
+	private static <K> Cache<K, String> newCache() {
+		return CacheBuilder.newBuilder()
+				.maximumWeight(MAX_CACHE_WEIGHT)
+				.weigher(new Weigher<K, String>() {
+
+					@Override
+					public int weigh(K key, String value) {
+						return value.length();
+					}
+					
+				})
+				.recordStats()
+				.build();
 	}
 
 	private MutableDataHolder setupOptions() {
@@ -73,9 +137,15 @@ public class DefaultMarkdownManager implements MarkdownManager {
 	
 	@Override
 	public String render(String markdown) {
-		MutableDataHolder options = setupOptions();
-		Node node = parse(markdown);
-		return HtmlRenderer.builder(options).softBreak("<br>").build().render(node);
+		String key = DigestUtils.sha1Hex(markdown);
+		String html = renderCache.getIfPresent(key);
+		if (html == null) {
+			long time = System.nanoTime();
+			html = renderer.render(parse(markdown));
+			renderTime.addAndGet(System.nanoTime() - time);
+			renderCache.put(key, html);
+		}
+		return html;
 	}
 
 	@Override
@@ -84,41 +154,173 @@ public class DefaultMarkdownManager implements MarkdownManager {
 		for (MarkdownProcessor htmlTransformer: htmlTransformers)
 			htmlTransformer.process(document, project, context);
 		
-		if (forExternal) {
-			for (Element element: document.body().getElementsByTag("img")) {
-				String src = element.attr("src");
-				if (src.startsWith("/")) {
-					src = settingManager.getSystemSetting().getServerUrl() + src;
-					element.attr("src", AttachmentResource.authorizeGroup(src));
-				}
-				String style = element.attr("style");
-				if (!style.endsWith(";"))
-					style += ";";
-				style += "max-width:100%";
-				element.attr("style", style);
+		if (forExternal)
+			externalize(document);
+		
+		return document;
+	}
+	
+	private void externalize(Document document) {
+		for (Element element: document.body().getElementsByTag("img")) {
+			String src = element.attr("src");
+			if (src.startsWith("/")) {
+				src = settingManager.getSystemSetting().getServerUrl() + src;
+				element.attr("src", AttachmentResource.authorizeGroup(src));
 			}
-			for (Element element: document.body().getElementsByTag("a")) {
-				String href = element.attr("href");
-				if (href.startsWith("/")) {
-					href = settingManager.getSystemSetting().getServerUrl() + href;
-					element.attr("href", AttachmentResource.authorizeGroup(href));
-				}
+			String style = element.attr("style");
+			if (!style.endsWith(";"))
+				style += ";";
+			style += "max-width:100%";
+			element.attr("style", style);
+		}
+		for (Element element: document.body().getElementsByTag("a")) {
+			String href = element.attr("href");
+			if (href.startsWith("/")) {
+				href = settingManager.getSystemSetting().getServerUrl() + href;
+				element.attr("href", AttachmentResource.authorizeGroup(href));
 			}
 		}
-		
-		return document;
 	}
 	
 	@Override
 	public String process(String html, Project project, Object context, boolean forExternal) {
-		return process(HtmlUtils.parse(html), project, context, forExternal).body().html();
+		if (context != null)
+			return process(HtmlUtils.parse(html), project, context, forExternal).body().html();
+
+		/*
+		 * Processors generate urls relative to current request if there is one, so base url 
+		 * of current request is part of the key
+		 */
+		String baseUrl;
+		if (RequestCycle.get() != null)
+			baseUrl = RequestCycle.get().getUrlRenderer().getBaseUrl().toString();
+		else
+			baseUrl = null;
+		ProcessKey key = new ProcessKey(DigestUtils.sha1Hex(html), 
+				project != null? project.getId(): null, baseUrl);
+		
+		String processed = processCache.getIfPresent(key);
+		if (processed == null) {
+			long versionBeforeProcess;
+			synchronized (this) {
+				versionBeforeProcess = version;
+			}
+			long time = System.nanoTime();
+			processed = process(HtmlUtils.parse(html), project, null, false).body().html();
+			processTime.addAndGet(System.nanoTime() - time);
+			synchronized (this) {
+				// Do not cache html processed while cache is invalidated
+				if (version == versionBeforeProcess)
+					processCache.put(key, processed);
+			}
+		}
+		
+		if (forExternal) {
+			Document document = HtmlUtils.parse(processed);
+			externalize(document);
+			return document.body().html();
+		} else {
+			return processed;
+		}
 	}
 
 	@Override
 	public Node parse(String markdown) {
-		MutableDataHolder options = setupOptions();
-		Parser parser = Parser.builder(options).build();
 		return parser.parse(markdown);
 	}
+	
+	@Override
+	public MarkdownCacheStatus getCacheStatus() {
+		CacheStats renderStats = renderCache.stats();
+		CacheStats processStats = processCache.stats();
+		return new MarkdownCacheStatus(
+				renderCache.size(), renderStats.hitRate(), 
+				renderStats.missCount()!=0? renderTime.get()/renderStats.missCount()/1000: 0, 
+				processCache.size(), processStats.hitRate(), 
+				processStats.missCount()!=0? processTime.get()/processStats.missCount()/1000: 0);
+	}
+	
+	private synchronized void invalidate(Long projectId) {
+		version++;
+		processCache.asMap().keySet().removeIf(it -> projectId.equals(it.projectId));
+	}
+	
+	private synchronized void invalidateAll() {
+		version++;
+		processCache.invalidateAll();
+	}
+	
+	private void onChange(EntityEvent event) {
+		if (event.getEntity() instanceof Project
+				|| event.getEntity() instanceof User
+				|| event.getEntity() instanceof Build && ((Build)event.getEntity()).getVersion() != null) {
+			invalidateAll();
+			transactionManager.runAfterCommit(new Runnable() {
+
+				@Override
+				public void run() {
+					invalidateAll();
+				}
+				
+			});
+		}
+	}
+	
+	@Transactional
+	@Listen
+	public void on(EntityPersisted event) {
+		onChange(event);
+	}
+	
+	@Transactional
+	@Listen
+	public void on(EntityRemoved event) {
+		onChange(event);
+	}
+	
+	@Listen
+	public void on(RefUpdated event) {
+		// Commit processor checks existence of referenced commits in project
+		if (!event.isBulk())
+			invalidate(event.getProject().getId());
+	}
+	
+	@Listen
+	public void on(RefsUpdated event) {
+		invalidate(event.getProject().getId());
+	}
+	
+	private static class ProcessKey {
+		
+		final String htmlHash;
+		
+		final Long projectId;
+		
+		final String baseUrl;
+		
+		ProcessKey(String htmlHash, @Nullable Long projectId, @Nullable String baseUrl) {
+			this.htmlHash = htmlHash;
+			this.projectId = projectId;
+			this.baseUrl = baseUrl;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof ProcessKey)) 
+				return false;
+			if (this == other)
+				return true;
+			ProcessKey otherKey = (ProcessKey) other;
+			return htmlHash.equals(otherKey.htmlHash) 
+					&& Objects.equals(projectId, otherKey.projectId) 
+					&& Objects.equals(baseUrl, otherKey.baseUrl);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(htmlHash, projectId, baseUrl);
+		}
+		
+	}
 
 }
@@ -0,0 +1,59 @@
+package io.onedev.server.markdown;
+
+public class MarkdownCacheStatus {
+	
+	private final long renderCacheSize;
+	
+	private final double renderHitRate;
+	
+	private final long averageRenderTime;
+	
+	private final long processCacheSize;
+	
+	private final double processHitRate;
+	
+	private final long averageProcessTime;
+	
+	public MarkdownCacheStatus(long renderCacheSize, double renderHitRate, long averageRenderTime,
+			long processCacheSize, double processHitRate, long averageProcessTime) {
+		this.renderCacheSize = renderCacheSize;
+		this.renderHitRate = renderHitRate;
+		this.averageRenderTime = averageRenderTime;
+		this.processCacheSize = processCacheSize;
+		this.processHitRate = processHitRate;
+		this.averageProcessTime = averageProcessTime;
+	}
+	
+	public long getRenderCacheSize() {
+		return renderCacheSize;
+	}
+	
+	public double getRenderHitRate() {
+		return renderHitRate;
+	}
+	
+	/**
+	 * @return
+	 * 			average time in microseconds to render markdown not found in cache
+	 */
+	public long getAverageRenderTime() {
+		return averageRenderTime;
+	}
+	
+	public long getProcessCacheSize() {
+		return processCacheSize;
+	}
+	
+	public double getProcessHitRate() {
+		return processHitRate;
+	}
+	
+	/**
+	 * @return
+	 * 			average time in microseconds to process html not found in cache
+	 */
+	public long getAverageProcessTime() {
+		return averageProcessTime;
+	}
+
+}
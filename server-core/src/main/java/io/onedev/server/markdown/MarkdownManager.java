@@ -27,4 +27,6 @@ public interface MarkdownManager {
 
 	String process(String html, @Nullable Project project, @Nullable Object context, boolean forExternal);
 	
+	MarkdownCacheStatus getCacheStatus();
+	
 }
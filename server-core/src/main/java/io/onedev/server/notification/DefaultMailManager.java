@@ -1,8 +1,7 @@
 package io.onedev.server.notification;
 
+import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -13,8 +12,8 @@ import java.util.Properties;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -31,16 +30,11 @@ import javax.mail.Session;
 import javax.mail.Store;
 import javax.mail.event.MessageCountEvent;
 import javax.mail.event.MessageCountListener;
-import javax.mail.internet.AddressException;
 import javax.mail.internet.ContentType;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeUtility;
 
-import org.apache.commons.codec.CharEncoding;
-import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.mail.EmailException;
-import org.apache.commons.mail.HtmlEmail;
 import org.apache.shiro.authz.Permission;
 import org.apache.shiro.authz.UnauthorizedException;
 import org.jsoup.Jsoup;
@@ -50,6 +44,8 @@ import org.jsoup.nodes.Node;
 import org.jsoup.nodes.TextNode;
 import org.jsoup.select.NodeTraversor;
 import org.jsoup.select.NodeVisitor;
+import org.quartz.ScheduleBuilder;
+import org.quartz.SimpleScheduleBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -102,13 +98,21 @@ import io.onedev.server.security.permission.ProjectPermission;
 import io.onedev.server.security.permission.ReadCode;
 import io.onedev.server.util.EmailAddress;
 import io.onedev.server.util.HtmlUtils;
+import io.onedev.server.util.schedule.SchedulableTask;
+import io.onedev.server.util.schedule.TaskScheduler;
 import io.onedev.server.util.validation.UserNameValidator;
 
 @Singleton
-public class DefaultMailManager implements MailManager {
+public class DefaultMailManager implements MailManager, SchedulableTask {
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultMailManager.class);
 	
+	private static final String QUEUE_DIR = "mail-queue";
+	
+	private static final long INITIAL_RETRY_DELAY = 30000L;
+	
+	private static final int RETRY_CHECK_INTERVAL = 10;
+	
 	private final SettingManager settingManager;
 	
 	private final TransactionManager transactionManager;
@@ -135,10 +139,16 @@ public class DefaultMailManager implements MailManager {
 	
 	private final UrlManager urlManager;
 	
+	private final TaskScheduler taskScheduler;
+	
 	private volatile boolean stopping;
 	
 	private volatile Thread thread;
 	
+	private volatile MailQueue mailQueue;
+	
+	private String taskId;
+	
 	@Inject
 	public DefaultMailManager(TransactionManager transactionManager, SettingManager setingManager, 
 			UserManager userManager, ProjectManager projectManager, 
@@ -146,7 +156,7 @@ public class DefaultMailManager implements MailManager {
 			IssueCommentManager issueCommentManager, IssueWatchManager issueWatchManager, 
 			PullRequestManager pullRequestManager, PullRequestCommentManager pullRequestCommentManager, 
 			PullRequestWatchManager pullRequestWatchManager, ExecutorService executorService, 
-			UrlManager urlManager) {
+			UrlManager urlManager, TaskScheduler taskScheduler) {
 		this.transactionManager = transactionManager;
 		this.settingManager = setingManager;
 		this.userManager = userManager;
@@ -160,105 +170,69 @@ public class DefaultMailManager implements MailManager {
 		this.pullRequestWatchManager = pullRequestWatchManager;
 		this.executorService = executorService;
 		this.urlManager = urlManager;
+		this.taskScheduler = taskScheduler;
+	}
+
+	private MailQueue getMailQueue() {
+		if (mailQueue == null) {
+			synchronized (this) {
+				if (mailQueue == null) {
+					mailQueue = new MailQueue(new File(Bootstrap.getSiteDir(), QUEUE_DIR), executorService, 
+							new Supplier<MailSetting>() {
+
+								@Override
+								public MailSetting get() {
+									return settingManager.getMailSetting();
+								}
+								
+							}, INITIAL_RETRY_DELAY);
+				}
+			}
+		}
+		return mailQueue;
 	}
 
 	@Sessional
 	@Override
 	public void sendMailAsync(Collection<String> toList, Collection<String> ccList, Collection<String> bccList, 
 			String subject, String htmlBody, String textBody, String replyAddress, String references) {
+		OutboundMail mail = new OutboundMail(toList, ccList, bccList, subject, htmlBody, textBody, 
+				replyAddress, references);
+		if (!mail.hasRecipients())
+			return;
+		
 		transactionManager.runAfterCommit(new Runnable() {
 
 			@Override
 			public void run() {
-				executorService.execute(new Runnable() {
-
-					@Override
-					public void run() {
-						try {
-							sendMail(toList, ccList, bccList, subject, htmlBody, textBody, replyAddress, references);
-						} catch (Exception e) {
-							logger.error("Error sending email (to: " + toList + ", subject: " + subject + ")", e);
-						}		
-					}
-					
-				});
+				getMailQueue().add(mail);
 			}
 			
 		});
 	}
 	
-	private String getThreadIndex(String references) {
-		byte[] threadIndexBytes = new byte[22];
-		FileTime ft = FileTime.fromMillis(System.currentTimeMillis());
-		long value = ft.to(TimeUnit.MICROSECONDS);
-		ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
-		buffer.mark();
-		buffer.putLong(value);
-		buffer.reset();
-		buffer.get(threadIndexBytes, 0, 6);
-
-		byte[] md5Bytes = DigestUtils.md5(references.toString());
-		System.arraycopy(md5Bytes, 0, threadIndexBytes, 6, md5Bytes.length);
-		return Base64.encodeBase64String(threadIndexBytes);
+	@Override
+	public MailQueue.Status getMailQueueStatus() {
+		return getMailQueue().getStatus();
 	}
 
 	@Override
 	public void sendMail(MailSetting mailSetting, Collection<String> toList, Collection<String> ccList, 
 			Collection<String> bccList, String subject, String htmlBody, String textBody, 
 			String replyAddress, String references) {
-		if (toList.isEmpty() && ccList.isEmpty() && bccList.isEmpty())
+		OutboundMail mail = new OutboundMail(toList, ccList, bccList, subject, htmlBody, textBody, 
+				replyAddress, references);
+		if (!mail.hasRecipients())
 			return;
 
 		if (mailSetting == null)
 			mailSetting = settingManager.getMailSetting();
 		
 		if (mailSetting != null) {
-			HtmlEmail email = new HtmlEmail();
-			try {
-				email.setHtmlMsg(htmlBody);
-				email.setTextMsg(textBody);
-			} catch (EmailException e) {
-				throw new RuntimeException(e);
-			}
-			
-	        email.setSocketConnectionTimeout(Bootstrap.SOCKET_CONNECT_TIMEOUT);
-
-	        if (mailSetting.getTimeout() != 0)
-	        	email.setSocketTimeout(mailSetting.getTimeout()*1000);
-	        
-	        email.setStartTLSEnabled(mailSetting.isEnableStartTLS());
-	        email.setSSLOnConnect(false);
-	        email.setSSLCheckServerIdentity(false);
-	        if (references != null) {
-	        	email.addHeader("References", references);
-	        	email.addHeader("In-Reply-To", references);
-	        	email.addHeader("Thread-Index", getThreadIndex(references));
-	        }
-			
 			try {
-				if (replyAddress != null)
-					email.setReplyTo(Lists.newArrayList(InternetAddress.parse(replyAddress)));
-				email.setFrom(mailSetting.getEmailAddress());
-				for (String address: toList)
-					email.addTo(address);
-				for (String address: ccList)
-					email.addCc(address);
-				for (String address: bccList)
-					email.addBcc(address);
-		
-				email.setHostName(mailSetting.getSmtpHost());
-				email.setSmtpPort(mailSetting.getSmtpPort());
-				email.setSslSmtpPort(String.valueOf(mailSetting.getSmtpPort()));
-		        String smtpUser = mailSetting.getSmtpUser();
-				if (smtpUser != null)
-					email.setAuthentication(smtpUser, mailSetting.getSmtpPassword());
-				email.setCharset(CharEncoding.UTF_8);
-				
-				email.setSubject(subject);
-				
 				logger.debug("Sending email (to: {}, subject: {})... ", toList, subject);
-				email.send();
-			} catch (EmailException | AddressException e) {
+				mail.toEmail(mailSetting).send();
+			} catch (EmailException e) {
 				throw new RuntimeException(e);
 			}
 		} else {
@@ -725,10 +699,17 @@ public class DefaultMailManager implements MailManager {
 			}
 		});
 		thread.start();
+		
+		getMailQueue().start();
+		taskId = taskScheduler.schedule(this);
 	}
 	
 	@Listen
 	public void on(SystemStopping event) {
+		if (taskId != null)
+			taskScheduler.unschedule(taskId);
+		getMailQueue().stop();
+		
 		stopping = true;
 		while (true) {
 			Thread thread = this.thread;
@@ -744,6 +725,16 @@ public class DefaultMailManager implements MailManager {
 		}
 	}
 	
+	@Override
+	public void execute() {
+		getMailQueue().retry();
+	}
+
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return SimpleScheduleBuilder.repeatSecondlyForever(RETRY_CHECK_INTERVAL);
+	}
+	
 	private void close(AtomicReference<Store> storeRef, AtomicReference<IMAPFolder> inboxRef) {
 		if (inboxRef.get() != null) {
 			if (inboxRef.get().isOpen()) {
@@ -38,4 +38,6 @@ public interface MailManager {
 	
 	InboxMonitor monitorInbox(MailSetting mailSetting, MessageListener listener);
 	
+	MailQueue.Status getMailQueueStatus();
+	
 }
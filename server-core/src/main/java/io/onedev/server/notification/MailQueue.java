@@ -0,0 +1,335 @@
+package io.onedev.server.notification;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.commons.mail.HtmlEmail;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.server.model.support.administration.MailSetting;
+import io.onedev.server.util.FileQueue;
+
+/**
+ * Outbound mail queue. Mails are saved into a durable queue before sending, and are only
+ * removed from the queue after sent or given up, so queued mails survive server restart.
+ * Mails are sent by a limited number of senders, and each sender sends a batch of mails
+ * over a single SMTP connection to avoid connect, STARTTLS and authentication handshake
+ * for every mail. Failed mails are retried with exponential backoff.
+ */
+public class MailQueue {
+	
+	private static final Logger logger = LoggerFactory.getLogger(MailQueue.class);
+	
+	private static final int MAX_SENDERS = 2;
+	
+	private static final int MAX_BATCH_SIZE = 100;
+	
+	private static final int MAX_ATTEMPTS = 10;
+	
+	private static final long MAX_RETRY_DELAY = 3600000L;
+	
+	private final FileQueue<OutboundMail> queue;
+	
+	private final ExecutorService executor;
+	
+	private final Supplier<MailSetting> mailSettingSupplier;
+	
+	private final long initialRetryDelay;
+	
+	private final Queue<QueuedMail> pending = new ArrayDeque<>();
+	
+	private final List<QueuedMail> waiting = new ArrayList<>();
+	
+	private int sending;
+	
+	private int senders;
+	
+	private long sent;
+	
+	private long failures;
+	
+	private long lastLatency;
+	
+	private String lastError;
+	
+	private boolean started;
+	
+	/**
+	 * @param queueDir
+	 * 			directory to save queued mails
+	 * @param executor
+	 * 			executor to run senders
+	 * @param mailSettingSupplier
+	 * 			supplier of mail setting to send mails with. Mail setting is retrieved for each
+	 * 			batch so that setting change takes effect without restarting the queue
+	 * @param initialRetryDelay
+	 * 			delay in milliseconds before first retry of a failed mail. The delay doubles
+	 * 			for each subsequent retry
+	 */
+	public MailQueue(File queueDir, ExecutorService executor, Supplier<MailSetting> mailSettingSupplier,
+			long initialRetryDelay) {
+		queue = new FileQueue<>(queueDir);
+		this.executor = executor;
+		this.mailSettingSupplier = mailSettingSupplier;
+		this.initialRetryDelay = initialRetryDelay;
+	}
+	
+	/**
+	 * Start sending. Mails left in queue since last run are sent immediately
+	 */
+	public synchronized void start() {
+		started = true;
+		for (Map.Entry<Long, OutboundMail> entry: queue.load().entrySet()) {
+			entry.getValue().setNextAttemptTime(0);
+			waiting.add(new QueuedMail(entry.getKey(), entry.getValue()));
+		}
+		retry();
+	}
+	
+	public synchronized void stop() {
+		started = false;
+		pending.clear();
+		waiting.clear();
+	}
+	
+	/**
+	 * Queue specified mail for sending. If queue is not started yet, the mail will be
+	 * sent when it starts
+	 */
+	public synchronized void add(OutboundMail mail) {
+		long id = queue.add(mail);
+		if (started) {
+			pending.add(new QueuedMail(id, mail));
+			dispatch();
+		}
+	}
+	
+	/**
+	 * Send failed mails whose retry time has come
+	 */
+	public synchronized void retry() {
+		long now = System.currentTimeMillis();
+		for (Iterator<QueuedMail> it = waiting.iterator(); it.hasNext();) {
+			QueuedMail queued = it.next();
+			if (queued.mail.getNextAttemptTime() <= now) {
+				it.remove();
+				pending.add(queued);
+			}
+		}
+		dispatch();
+	}
+	
+	private void dispatch() {
+		while (started && senders < Math.min(MAX_SENDERS, (pending.size()+MAX_BATCH_SIZE-1) / MAX_BATCH_SIZE)) {
+			senders++;
+			executor.execute(new Runnable() {
+				
+				@Override
+				public void run() {
+					while (true) {
+						List<QueuedMail> batch = new ArrayList<>();
+						synchronized (MailQueue.this) {
+							while (started && batch.size() < MAX_BATCH_SIZE && !pending.isEmpty())
+								batch.add(pending.poll());
+							if (batch.isEmpty()) {
+								senders--;
+								break;
+							}
+							sending += batch.size();
+						}
+						try {
+							send(batch);
+						} catch (Exception e) {
+							logger.error("Error sending mails", e);
+						} finally {
+							synchronized (MailQueue.this) {
+								sending -= batch.size();
+							}
+						}
+					}
+				}
+			
+			});
+		}
+	}
+	
+	private void send(List<QueuedMail> batch) {
+		MailSetting mailSetting = mailSettingSupplier.get();
+		if (mailSetting == null) {
+			logger.warn("Unable to send mail as mail setting is not specified");
+			for (QueuedMail queued: batch)
+				queue.remove(queued.id);
+			return;
+		}
+		
+		Transport transport = null;
+		MessagingException connectError = null;
+		try {
+			for (QueuedMail queued: batch) {
+				if (!queued.mail.hasRecipients()) {
+					queue.remove(queued.id);
+					continue;
+				}
+				
+				// Do not try to connect again for each remaining mail if server is not reachable
+				if (connectError != null) {
+					onFailed(queued, connectError);
+					continue;
+				}
+				try {
+					HtmlEmail email = queued.mail.toEmail(mailSetting);
+					email.buildMimeMessage();
+					MimeMessage message = email.getMimeMessage();
+					message.saveChanges();
+					if (transport == null) {
+						Transport newTransport = email.getMailSession().getTransport("smtp");
+						try {
+							newTransport.connect();
+						} catch (MessagingException e) {
+							connectError = e;
+							throw e;
+						}
+						transport = newTransport;
+					}
+					logger.debug("Sending email (to: {}, subject: {})... ", queued.mail.getToList(),
+							queued.mail.getSubject());
+					transport.sendMessage(message, message.getAllRecipients());
+					onSent(queued);
+				} catch (Exception e) {
+					onFailed(queued, e);
+					
+					// Connection might be broken, reconnect for next mail
+					if (transport != null) {
+						close(transport);
+						transport = null;
+					}
+				}
+			}
+		} finally {
+			if (transport != null)
+				close(transport);
+		}
+	}
+	
+	private void close(Transport transport) {
+		try {
+			transport.close();
+		} catch (MessagingException e) {
+		}
+	}
+	
+	private synchronized void onSent(QueuedMail queued) {
+		queue.remove(queued.id);
+		sent++;
+		lastLatency = System.currentTimeMillis() - queued.mail.getCreateTime();
+	}
+	
+	private synchronized void onFailed(QueuedMail queued, Exception exception) {
+		OutboundMail mail = queued.mail;
+		String error = exception.getMessage() != null? exception.getMessage(): exception.getClass().getName();
+		failures++;
+		lastError = error;
+		mail.setAttempts(mail.getAttempts() + 1);
+		
+		// Only retry on messaging errors such as connection failure, as invalid addresses or 
+		// malformed mails will not become valid by retrying
+		boolean retryable = exception instanceof MessagingException 
+				&& !(exception instanceof SendFailedException);
+		if (retryable && mail.getAttempts() < MAX_ATTEMPTS) {
+			long retryDelay = Math.min(initialRetryDelay << Math.min(mail.getAttempts()-1, 30), MAX_RETRY_DELAY);
+			mail.setNextAttemptTime(System.currentTimeMillis() + retryDelay);
+			queue.update(queued.id, mail);
+			if (started)
+				waiting.add(queued);
+			logger.warn("Error sending email (to: {}, subject: {}, will retry in {} seconds): {}",
+					mail.getToList(), mail.getSubject(), retryDelay/1000, error);
+		} else {
+			queue.remove(queued.id);
+			logger.error("Error sending email (to: " + mail.getToList() + ", subject: " + mail.getSubject()
+					+ ", giving up after " + mail.getAttempts() + " attempts)", exception);
+		}
+	}
+	
+	public synchronized Status getStatus() {
+		return new Status(pending.size() + sending + waiting.size(), sent, failures, lastLatency, lastError);
+	}
+	
+	private static class QueuedMail {
+		
+		final long id;
+		
+		final OutboundMail mail;
+		
+		QueuedMail(long id, OutboundMail mail) {
+			this.id = id;
+			this.mail = mail;
+		}
+	
+	}
+	
+	public static class Status {
+		
+		private final int queueDepth;
+		
+		private final long sent;
+		
+		private final long failures;
+		
+		private final long lastLatency;
+		
+		private final String lastError;
+		
+		public Status(int queueDepth, long sent, long failures, long lastLatency, @Nullable String lastError) {
+			this.queueDepth = queueDepth;
+			this.sent = sent;
+			this.failures = failures;
+			this.lastLatency = lastLatency;
+			this.lastError = lastError;
+		}
+		
+		/**
+		 * @return
+		 * 			number of mails pending, being sent, or waiting for retry
+		 */
+		public int getQueueDepth() {
+			return queueDepth;
+		}
+		
+		public long getSent() {
+			return sent;
+		}
+		
+		public long getFailures() {
+			return failures;
+		}
+		
+		/**
+		 * @return
+		 * 			milliseconds from queuing to sending of last sent mail
+		 */
+		public long getLastLatency() {
+			return lastLatency;
+		}
+		
+		@Nullable
+		public String getLastError() {
+			return lastError;
+		}
+	
+	}
+
+}
@@ -0,0 +1,163 @@
+package io.onedev.server.notification;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+
+import org.apache.commons.codec.CharEncoding;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.mail.EmailException;
+import org.apache.commons.mail.HtmlEmail;
+
+import com.google.common.collect.Lists;
+
+import io.onedev.commons.launcher.bootstrap.Bootstrap;
+import io.onedev.server.model.support.administration.MailSetting;
+
+public class OutboundMail implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private final ArrayList<String> toList;
+	
+	private final ArrayList<String> ccList;
+	
+	private final ArrayList<String> bccList;
+	
+	private final String subject;
+	
+	private final String htmlBody;
+	
+	private final String textBody;
+	
+	private final String replyAddress;
+	
+	private final String references;
+	
+	private final long createTime = System.currentTimeMillis();
+	
+	private int attempts;
+	
+	private long nextAttemptTime;
+	
+	public OutboundMail(Collection<String> toList, Collection<String> ccList, Collection<String> bccList,
+			String subject, String htmlBody, String textBody, @Nullable String replyAddress,
+			@Nullable String references) {
+		this.toList = new ArrayList<>(toList);
+		this.ccList = new ArrayList<>(ccList);
+		this.bccList = new ArrayList<>(bccList);
+		this.subject = subject;
+		this.htmlBody = htmlBody;
+		this.textBody = textBody;
+		this.replyAddress = replyAddress;
+		this.references = references;
+	}
+	
+	public Collection<String> getToList() {
+		return toList;
+	}
+	
+	public String getSubject() {
+		return subject;
+	}
+	
+	public long getCreateTime() {
+		return createTime;
+	}
+	
+	public int getAttempts() {
+		return attempts;
+	}
+	
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+	
+	public long getNextAttemptTime() {
+		return nextAttemptTime;
+	}
+	
+	public void setNextAttemptTime(long nextAttemptTime) {
+		this.nextAttemptTime = nextAttemptTime;
+	}
+	
+	public boolean hasRecipients() {
+		return !toList.isEmpty() || !ccList.isEmpty() || !bccList.isEmpty();
+	}
+	
+	private String getThreadIndex() {
+		byte[] threadIndexBytes = new byte[22];
+		FileTime ft = FileTime.fromMillis(System.currentTimeMillis());
+		long value = ft.to(TimeUnit.MICROSECONDS);
+		ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+		buffer.mark();
+		buffer.putLong(value);
+		buffer.reset();
+		buffer.get(threadIndexBytes, 0, 6);
+		
+		byte[] md5Bytes = DigestUtils.md5(references.toString());
+		System.arraycopy(md5Bytes, 0, threadIndexBytes, 6, md5Bytes.length);
+		return Base64.encodeBase64String(threadIndexBytes);
+	}
+	
+	/**
+	 * Create email of this mail to be sent with specified mail setting
+	 */
+	public HtmlEmail toEmail(MailSetting mailSetting) {
+		HtmlEmail email = new HtmlEmail();
+		try {
+			email.setHtmlMsg(htmlBody);
+			email.setTextMsg(textBody);
+		} catch (EmailException e) {
+			throw new RuntimeException(e);
+		}
+		
+		email.setSocketConnectionTimeout(Bootstrap.SOCKET_CONNECT_TIMEOUT);
+		
+		if (mailSetting.getTimeout() != 0)
+			email.setSocketTimeout(mailSetting.getTimeout()*1000);
+		
+		email.setStartTLSEnabled(mailSetting.isEnableStartTLS());
+		email.setSSLOnConnect(false);
+		email.setSSLCheckServerIdentity(false);
+		if (references != null) {
+			email.addHeader("References", references);
+			email.addHeader("In-Reply-To", references);
+			email.addHeader("Thread-Index", getThreadIndex());
+		}
+		
+		try {
+			if (replyAddress != null)
+				email.setReplyTo(Lists.newArrayList(InternetAddress.parse(replyAddress)));
+			email.setFrom(mailSetting.getEmailAddress());
+			for (String address: toList)
+				email.addTo(address);
+			for (String address: ccList)
+				email.addCc(address);
+			for (String address: bccList)
+				email.addBcc(address);
+			
+			email.setHostName(mailSetting.getSmtpHost());
+			email.setSmtpPort(mailSetting.getSmtpPort());
+			email.setSslSmtpPort(String.valueOf(mailSetting.getSmtpPort()));
+			String smtpUser = mailSetting.getSmtpUser();
+			if (smtpUser != null)
+				email.setAuthentication(smtpUser, mailSetting.getSmtpPassword());
+			email.setCharset(CharEncoding.UTF_8);
+			
+			email.setSubject(subject);
+		} catch (EmailException | AddressException e) {
+			throw new RuntimeException(e);
+		}
+		return email;
+	}
+
+}
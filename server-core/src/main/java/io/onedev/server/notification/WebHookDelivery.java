@@ -0,0 +1,59 @@
+package io.onedev.server.notification;
+
+import java.io.Serializable;
+
+public class WebHookDelivery implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private final Long projectId;
+	
+	private final String postUrl;
+	
+	private final String payload;
+	
+	private final long createTime = System.currentTimeMillis();
+	
+	private int attempts;
+	
+	private long nextAttemptTime;
+	
+	public WebHookDelivery(Long projectId, String postUrl, String payload) {
+		this.projectId = projectId;
+		this.postUrl = postUrl;
+		this.payload = payload;
+	}
+	
+	public Long getProjectId() {
+		return projectId;
+	}
+	
+	public String getPostUrl() {
+		return postUrl;
+	}
+	
+	public String getPayload() {
+		return payload;
+	}
+	
+	public long getCreateTime() {
+		return createTime;
+	}
+	
+	public int getAttempts() {
+		return attempts;
+	}
+	
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+	
+	public long getNextAttemptTime() {
+		return nextAttemptTime;
+	}
+	
+	public void setNextAttemptTime(long nextAttemptTime) {
+		this.nextAttemptTime = nextAttemptTime;
+	}
+
+}
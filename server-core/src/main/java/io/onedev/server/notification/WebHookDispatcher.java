@@ -0,0 +1,406 @@
+package io.onedev.server.notification;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.server.model.support.WebHook;
+import io.onedev.server.util.FileQueue;
+
+/**
+ * Delivers web hook payloads with a shared pooled http client. Deliveries are saved into
+ * a durable queue before sending, and are only removed from the queue after delivered or
+ * given up, so pending deliveries survive server restart. Deliveries to the same endpoint
+ * run with limited concurrency, and each running worker continues with next pending
+ * delivery of the endpoint to reuse its connection. Failed deliveries are retried with
+ * exponential backoff.
+ * <p>
+ * Secrets of web hooks are not saved into the queue. Web hook of a delivery is located 
+ * again via project id and post url each time it is sent, and the delivery is dropped if 
+ * the web hook no longer exists. 
+ */
+public class WebHookDispatcher {
+	
+	private static final Logger logger = LoggerFactory.getLogger(WebHookDispatcher.class);
+	
+	static final String SIGNATURE_HEAD = "X-OneDev-Signature";
+	
+	private static final int MAX_CONNECTIONS = 100;
+	
+	private static final int MAX_CONCURRENCY_PER_ENDPOINT = 2;
+	
+	private static final int CONNECT_TIMEOUT = 10000;
+	
+	private static final int SOCKET_TIMEOUT = 30000;
+	
+	private static final int MAX_ATTEMPTS = 10;
+	
+	private static final long MAX_RETRY_DELAY = 3600000L;
+	
+	private static final int SC_TOO_MANY_REQUESTS = 429;
+	
+	private final FileQueue<WebHookDelivery> queue;
+	
+	private final ExecutorService executor;
+	
+	private final long initialRetryDelay;
+	
+	private final CloseableHttpClient client;
+	
+	private final Map<String, Endpoint> endpoints = new HashMap<>();
+	
+	private final List<QueuedDelivery> waiting = new ArrayList<>();
+	
+	private final WebHookLocator locator;
+	
+	// Ids of deliveries loaded at start, which should not be dispatched again by submit 
+	private final Set<Long> loadedIds = new HashSet<>();
+	
+	private boolean started;
+	
+	/**
+	 * @param queueDir
+	 * 			directory to save pending deliveries
+	 * @param locator
+	 * 			locator to find web hook of a delivery
+	 * @param executor
+	 * 			executor to run deliveries
+	 * @param initialRetryDelay
+	 * 			delay in milliseconds before first retry of a failed delivery. The delay
+	 * 			doubles for each subsequent retry
+	 */
+	public WebHookDispatcher(File queueDir, WebHookLocator locator, ExecutorService executor, 
+			long initialRetryDelay) {
+		queue = new FileQueue<>(queueDir);
+		this.locator = locator;
+		this.executor = executor;
+		this.initialRetryDelay = initialRetryDelay;
+		
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(MAX_CONNECTIONS);
+		connectionManager.setDefaultMaxPerRoute(MAX_CONCURRENCY_PER_ENDPOINT);
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(CONNECT_TIMEOUT)
+				.setConnectionRequestTimeout(CONNECT_TIMEOUT)
+				.setSocketTimeout(SOCKET_TIMEOUT)
+				.build();
+		client = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.evictExpiredConnections()
+				.evictIdleConnections(1, TimeUnit.MINUTES)
+				.build();
+	}
+	
+	/**
+	 * Start dispatching. Deliveries left in queue since last run are sent immediately
+	 */
+	public synchronized void start() {
+		started = true;
+		for (Map.Entry<Long, WebHookDelivery> entry: queue.load().entrySet()) {
+			entry.getValue().setNextAttemptTime(0);
+			waiting.add(new QueuedDelivery(entry.getKey(), entry.getValue()));
+			loadedIds.add(entry.getKey());
+		}
+		retry();
+	}
+	
+	public void stop() {
+		synchronized (this) {
+			started = false;
+			endpoints.clear();
+			waiting.clear();
+			loadedIds.clear();
+		}
+		try {
+			client.close();
+		} catch (IOException e) {
+		}
+	}
+	
+	/**
+	 * Queue specified payload for delivery. If dispatcher is not started yet, delivery
+	 * will be sent when it starts
+	 * 
+	 * @param projectId
+	 * 			id of project owning the web hook
+	 */
+	public void submit(Long projectId, WebHook webHook, String payload) {
+		WebHookDelivery delivery = new WebHookDelivery(projectId, webHook.getPostUrl(), payload);
+		long id = queue.add(delivery);
+		synchronized (this) {
+			// Delivery saved before dispatcher starts might be loaded and dispatched already
+			if (started && !loadedIds.remove(id)) {
+				Endpoint endpoint = getEndpoint(delivery.getPostUrl());
+				endpoint.pending.add(new QueuedDelivery(id, delivery));
+				dispatch(endpoint);
+			}
+		}
+	}
+	
+	/**
+	 * Send failed deliveries whose retry time has come
+	 */
+	public synchronized void retry() {
+		long now = System.currentTimeMillis();
+		for (Iterator<QueuedDelivery> it = waiting.iterator(); it.hasNext();) {
+			QueuedDelivery queued = it.next();
+			if (queued.delivery.getNextAttemptTime() <= now) {
+				it.remove();
+				Endpoint endpoint = getEndpoint(queued.delivery.getPostUrl());
+				endpoint.pending.add(queued);
+				dispatch(endpoint);
+			}
+		}
+	}
+	
+	private Endpoint getEndpoint(String postUrl) {
+		Endpoint endpoint = endpoints.get(postUrl);
+		if (endpoint == null) {
+			endpoint = new Endpoint();
+			endpoints.put(postUrl, endpoint);
+		}
+		return endpoint;
+	}
+	
+	private void dispatch(Endpoint endpoint) {
+		while (started && endpoint.running < MAX_CONCURRENCY_PER_ENDPOINT && !endpoint.pending.isEmpty()) {
+			QueuedDelivery first = endpoint.pending.poll();
+			endpoint.running++;
+			executor.execute(new Runnable() {
+				
+				@Override
+				public void run() {
+					QueuedDelivery current = first;
+					while (current != null) {
+						deliver(endpoint, current);
+						synchronized (WebHookDispatcher.this) {
+							current = started? endpoint.pending.poll(): null;
+							if (current == null)
+								endpoint.running--;
+						}
+					}
+				}
+			
+			});
+		}
+	}
+	
+	private void deliver(Endpoint endpoint, QueuedDelivery queued) {
+		WebHookDelivery delivery = queued.delivery;
+		String error;
+		boolean retryable;
+		try {
+			WebHook webHook = locator.locate(delivery.getProjectId(), delivery.getPostUrl());
+			if (webHook == null) {
+				queue.remove(queued.id);
+				logger.debug("Web hook not found, dropping delivery (project id: {}, post url: {})", 
+						delivery.getProjectId(), delivery.getPostUrl());
+				return;
+			}
+			
+			HttpPost httpPost = new HttpPost(delivery.getPostUrl());
+			httpPost.setEntity(new StringEntity(delivery.getPayload(), StandardCharsets.UTF_8.name()));
+			httpPost.setHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON);
+			httpPost.setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
+			httpPost.setHeader(HttpHeaders.ACCEPT_CHARSET, StandardCharsets.UTF_8.name());
+			if (webHook.getSecret() != null)
+				httpPost.setHeader(SIGNATURE_HEAD, webHook.getSecret());
+			
+			try (CloseableHttpResponse response = client.execute(httpPost)) {
+				// Consume response entity so that connection can be reused
+				HttpEntity responseEntity = response.getEntity();
+				String responseText = responseEntity != null? EntityUtils.toString(responseEntity): "";
+				int statusCode = response.getStatusLine().getStatusCode();
+				if (statusCode >= 200 && statusCode < 300) {
+					error = null;
+					retryable = false;
+				} else {
+					error = "Http status " + statusCode + ": " + responseText;
+					retryable = statusCode >= 500 || statusCode == SC_TOO_MANY_REQUESTS;
+				}
+			}
+		} catch (Exception e) {
+			error = e.getMessage() != null? e.getMessage(): e.getClass().getName();
+			retryable = true;
+		}
+		
+		// Access queue out of the lock as it involves file I/O 
+		long now = System.currentTimeMillis();
+		if (error == null) {
+			queue.remove(queued.id);
+			synchronized (this) {
+				endpoint.delivered++;
+				endpoint.lastLatency = now - delivery.getCreateTime();
+			}
+		} else {
+			delivery.setAttempts(delivery.getAttempts() + 1);
+			if (retryable && delivery.getAttempts() < MAX_ATTEMPTS) {
+				long retryDelay = Math.min(initialRetryDelay << Math.min(delivery.getAttempts()-1, 30),
+						MAX_RETRY_DELAY);
+				delivery.setNextAttemptTime(now + retryDelay);
+				queue.update(queued.id, delivery);
+				synchronized (this) {
+					if (started)
+						waiting.add(queued);
+				}
+				logger.warn("Error delivering web hook to '{}' (will retry in {} seconds): {}",
+						delivery.getPostUrl(), retryDelay/1000, error);
+			} else {
+				queue.remove(queued.id);
+				logger.error("Error delivering web hook to '{}' (giving up after {} attempts): {}",
+						delivery.getPostUrl(), delivery.getAttempts(), error);
+			}
+			synchronized (this) {
+				endpoint.failures++;
+				endpoint.lastError = error;
+			}
+		}
+	}
+	
+	/**
+	 * Get delivery status of specified endpoint
+	 *
+	 * @param postUrl
+	 * 			post url of the web hook
+	 * @return
+	 * 			delivery status, or <tt>null</tt> if nothing is delivered to specified
+	 * 			endpoint since dispatcher starts
+	 */
+	@Nullable
+	public synchronized DeliveryStatus getStatus(String postUrl) {
+		Endpoint endpoint = endpoints.get(postUrl);
+		if (endpoint != null) {
+			int backlog = endpoint.pending.size() + endpoint.running;
+			for (QueuedDelivery queued: waiting) {
+				if (queued.delivery.getPostUrl().equals(postUrl))
+					backlog++;
+			}
+			return new DeliveryStatus(backlog, endpoint.delivered, endpoint.failures,
+					endpoint.lastLatency, endpoint.lastError);
+		} else {
+			return null;
+		}
+	}
+	
+	public static interface WebHookLocator {
+		
+		/**
+		 * @return
+		 * 			web hook with specified post url in specified project, or <tt>null</tt> 
+		 * 			if not found
+		 */
+		@Nullable
+		WebHook locate(Long projectId, String postUrl);
+		
+	}
+	
+	private static class QueuedDelivery {
+		
+		final long id;
+		
+		final WebHookDelivery delivery;
+		
+		QueuedDelivery(long id, WebHookDelivery delivery) {
+			this.id = id;
+			this.delivery = delivery;
+		}
+	
+	}
+	
+	private static class Endpoint {
+		
+		final Queue<QueuedDelivery> pending = new ArrayDeque<>();
+		
+		int running;
+		
+		long delivered;
+		
+		long failures;
+		
+		long lastLatency;
+		
+		String lastError;
+	
+	}
+	
+	public static class DeliveryStatus {
+		
+		private final int backlog;
+		
+		private final long delivered;
+		
+		private final long failures;
+		
+		private final long lastLatency;
+		
+		private final String lastError;
+		
+		public DeliveryStatus(int backlog, long delivered, long failures, long lastLatency,
+				@Nullable String lastError) {
+			this.backlog = backlog;
+			this.delivered = delivered;
+			this.failures = failures;
+			this.lastLatency = lastLatency;
+			this.lastError = lastError;
+		}
+		
+		/**
+		 * @return
+		 * 			number of deliveries pending, running, or waiting for retry
+		 */
+		public int getBacklog() {
+			return backlog;
+		}
+		
+		public long getDelivered() {
+			return delivered;
+		}
+		
+		public long getFailures() {
+			return failures;
+		}
+		
+		/**
+		 * @return
+		 * 			milliseconds from queuing to successful delivery of last delivered payload
+		 */
+		public long getLastLatency() {
+			return lastLatency;
+		}
+		
+		@Nullable
+		public String getLastError() {
+			return lastError;
+		}
+	
+	}
+
+}
@@ -1,105 +1,147 @@
 package io.onedev.server.notification;
 
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.File;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import javax.ws.rs.core.HttpHeaders;
-import javax.ws.rs.core.MediaType;
 
-import org.apache.commons.httpclient.HttpStatus;
-import org.apache.http.HttpEntity;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.quartz.ScheduleBuilder;
+import org.quartz.SimpleScheduleBuilder;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import io.onedev.commons.launcher.bootstrap.Bootstrap;
 import io.onedev.commons.launcher.loader.Listen;
+import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.event.ProjectEvent;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
+import io.onedev.server.model.Project;
 import io.onedev.server.model.support.WebHook;
+import io.onedev.server.notification.WebHookDispatcher.DeliveryStatus;
+import io.onedev.server.notification.WebHookDispatcher.WebHookLocator;
+import io.onedev.server.persistence.SessionManager;
 import io.onedev.server.persistence.annotation.Sessional;
+import io.onedev.server.util.schedule.SchedulableTask;
+import io.onedev.server.util.schedule.TaskScheduler;
 
 @Singleton
-public class WebHookManager {
+public class WebHookManager implements SchedulableTask {
 
-	private static final Logger logger = LoggerFactory.getLogger(WebHookManager.class);
+	private static final String QUEUE_DIR = "webhook-deliveries";
 	
-	private static final String SIGNATURE_HEAD = "X-OneDev-Signature";
+	private static final long INITIAL_RETRY_DELAY = 10000L;
+	
+	private static final int RETRY_CHECK_INTERVAL = 10;
 	
 	private final ObjectMapper mapper;
 	
 	private final ExecutorService executor;
 
+	private final TaskScheduler taskScheduler;
+	
+	private final SessionManager sessionManager;
+	
+	private final ProjectManager projectManager;
+	
+	private volatile WebHookDispatcher dispatcher;
+	
+	private String taskId;
+
 	@Inject
-	public WebHookManager(ObjectMapper mapper, ExecutorService executor) {
+	public WebHookManager(ObjectMapper mapper, ExecutorService executor, TaskScheduler taskScheduler, 
+			SessionManager sessionManager, ProjectManager projectManager) {
 		this.mapper = mapper;
 		this.executor = executor;
+		this.taskScheduler = taskScheduler;
+		this.sessionManager = sessionManager;
+		this.projectManager = projectManager;
+	}
+	
+	private WebHookDispatcher getDispatcher() {
+		if (dispatcher == null) {
+			synchronized (this) {
+				if (dispatcher == null) {
+					dispatcher = new WebHookDispatcher(new File(Bootstrap.getSiteDir(), QUEUE_DIR), 
+							new WebHookLocator() {
+
+								@Override
+								public WebHook locate(Long projectId, String postUrl) {
+									return sessionManager.call(new Callable<WebHook>() {
+
+										@Override
+										public WebHook call() throws Exception {
+											Project project = projectManager.get(projectId);
+											if (project != null) {
+												for (WebHook webHook: project.getWebHooks()) {
+													if (webHook.getPostUrl().equals(postUrl))
+														return webHook;
+												}
+											}
+											return null;
+										}
+										
+									});
+								}
+								
+							}, executor, INITIAL_RETRY_DELAY);
+				}
+			}
+		}
+		return dispatcher;
+	}
+	
+	@Listen
+	public void on(SystemStarted event) {
+		getDispatcher().start();
+		taskId = taskScheduler.schedule(this);
+	}
+	
+	@Listen
+	public void on(SystemStopping event) {
+		if (taskId != null)
+			taskScheduler.unschedule(taskId);
+		getDispatcher().stop();
 	}
 	
 	@Sessional
 	@Listen
 	public void on(ProjectEvent event) {
-		String jsonOfEvent;
-		try {
-			jsonOfEvent = mapper.writeValueAsString(event);
-		} catch (JsonProcessingException e) {
-			throw new RuntimeException(e);
-		}
-		
+		String jsonOfEvent = null;
 		for (WebHook webHook: event.getProject().getWebHooks()) {
 			for (WebHook.EventType eventType: webHook.getEventTypes()) {
 				if (eventType.includes(event)) {
-					executor.submit(new Runnable() {
-
-						@Override
-						public void run() {
-							CloseableHttpClient client = HttpClients.createDefault();
-							try {
-							    HttpPost httpPost = new HttpPost(webHook.getPostUrl());
-							 
-							    StringEntity entity = new StringEntity(jsonOfEvent, StandardCharsets.UTF_8.name());
-							    httpPost.setEntity(entity);
-							    httpPost.setHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON);
-							    httpPost.setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
-							    httpPost.setHeader(HttpHeaders.ACCEPT_CHARSET, StandardCharsets.UTF_8.name());
-							    httpPost.setHeader(SIGNATURE_HEAD, webHook.getSecret());
-							 
-							    CloseableHttpResponse response = client.execute(httpPost);
-							    try {
-							    	HttpEntity responseEntity = response.getEntity();
-							    	String responseText = EntityUtils.toString(responseEntity);
-							    	if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK)
-							    		logger.error("Error calling web hooks: " + responseText);
-							    } finally {
-							    	try {
-										response.close();
-									} catch (IOException e) {
-									}
-							    }
-							} catch (IOException e) {
-								logger.error("Error calling web hooks", e);
-							} finally {
-								try {
-									client.close();
-								} catch (IOException e) {
-								}
-							}
+					if (jsonOfEvent == null) {
+						try {
+							jsonOfEvent = mapper.writeValueAsString(event);
+						} catch (JsonProcessingException e) {
+							throw new RuntimeException(e);
 						}
-						
-					});
+					}
+					getDispatcher().submit(event.getProject().getId(), webHook, jsonOfEvent);
 					break;
 				}
 			}
 		}
 	}
 	
+	@Nullable
+	public DeliveryStatus getDeliveryStatus(WebHook webHook) {
+		return getDispatcher().getStatus(webHook.getPostUrl());
+	}
+
+	@Override
+	public void execute() {
+		getDispatcher().retry();
+	}
+
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return SimpleScheduleBuilder.repeatSecondlyForever(RETRY_CHECK_INTERVAL);
+	}
+	
 }
@@ -0,0 +1,129 @@
+package io.onedev.server.rest;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.model.Project;
+import io.onedev.server.rest.annotation.Api;
+import io.onedev.server.rest.jersey.InvalidParamException;
+import io.onedev.server.rest.support.RestConstants;
+import io.onedev.server.search.code.SearchManager;
+import io.onedev.server.search.code.hit.QueryHit;
+import io.onedev.server.search.code.hit.TextHit;
+import io.onedev.server.search.code.query.BlobQuery;
+import io.onedev.server.search.code.query.TextQuery;
+import io.onedev.server.search.code.query.TooGeneralQueryException;
+import io.onedev.server.security.permission.ReadCode;
+
+@Api(order=1200)
+@Path("/code-search")
+@Consumes(MediaType.APPLICATION_JSON)
+@Produces(MediaType.APPLICATION_JSON)
+@Singleton
+public class CodeSearchResource {
+	
+	private final ProjectManager projectManager;
+	
+	private final SearchManager searchManager;
+	
+	@Inject
+	public CodeSearchResource(ProjectManager projectManager, SearchManager searchManager) {
+		this.projectManager = projectManager;
+		this.searchManager = searchManager;
+	}
+	
+	@Api(order=100, description="Search text in default branches of all projects with code read permission")
+	@GET
+	public List<TextHitResponse> searchText(
+			@QueryParam("term") @Api(example="getName") String term,
+			@QueryParam("regex") boolean regex,
+			@QueryParam("wholeWord") boolean wholeWord,
+			@QueryParam("caseSensitive") boolean caseSensitive,
+			@QueryParam("fileNames") @Api(description="Comma separated file name patterns", example="*.java,*.js") String fileNames,
+			@QueryParam("count") @Api(example="100") int count) {
+		
+		if (term == null)
+			throw new InvalidParamException("Term should be specified");
+		if (count <= 0)
+			throw new InvalidParamException("Count should be greater than 0");
+		if (count > RestConstants.MAX_PAGE_SIZE)
+			throw new InvalidParamException("Count should not be greater than " + RestConstants.MAX_PAGE_SIZE);
+		
+		BlobQuery query = new TextQuery.Builder()
+				.term(term)
+				.regex(regex)
+				.wholeWord(wholeWord)
+				.caseSensitive(caseSensitive)
+				.fileNames(fileNames)
+				.count(count)
+				.build();
+		
+		List<Project> projects = new ArrayList<>(projectManager.getPermittedProjects(new ReadCode()));
+		projects.sort(Comparator.comparing(Project::getName));
+		
+		Map<Project, List<QueryHit>> hits;
+		try {
+			hits = searchManager.search(projects, query);
+		} catch (TooGeneralQueryException e) {
+			throw new InvalidParamException("Term is too general");
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		
+		List<TextHitResponse> responses = new ArrayList<>();
+		for (Map.Entry<Project, List<QueryHit>> entry: hits.entrySet()) {
+			for (QueryHit hit: entry.getValue()) {
+				TextHitResponse response = new TextHitResponse();
+				response.projectId = entry.getKey().getId();
+				response.projectName = entry.getKey().getName();
+				response.blobPath = hit.getBlobPath();
+				response.lineContent = ((TextHit) hit).getLineContent();
+				if (hit.getTokenPos() != null) {
+					response.line = hit.getTokenPos().getFromRow() + 1;
+					response.fromColumn = hit.getTokenPos().getFromColumn();
+					response.toColumn = hit.getTokenPos().getToColumn();
+				}
+				responses.add(response);
+			}
+		}
+		return responses;
+	}
+	
+	public static class TextHitResponse implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		Long projectId;
+		
+		String projectName;
+		
+		@Api(example="src/main/java/Example.java")
+		String blobPath;
+		
+		String lineContent;
+		
+		@Api(description="Line number of the hit, starting from 1")
+		int line;
+		
+		@Api(description="Column of the hit start, starting from 0")
+		int fromColumn;
+		
+		@Api(description="Column of the hit end, exclusive")
+		int toColumn;
+	
+	}
+
+}
@@ -0,0 +1,168 @@
+package io.onedev.server.search.code;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.search.IndexSearcher;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import io.onedev.commons.utils.ExceptionUtils;
+import io.onedev.server.search.code.hit.QueryHit;
+import io.onedev.server.search.code.query.BlobQuery;
+
+/**
+ * Verifies candidate blob paths matched by lucene query against blobs of a tree. Candidates
+ * are verified in batches, with paths of each batch resolved by a single tree walk, and
+ * multiple batches verified concurrently. Hits are merged in order of batches so that result
+ * does not depend on timing, and verification stops as soon as enough hits are confirmed.
+ */
+class CandidateVerifier {
+
+	private static final int BATCH_SIZE = 64;
+
+	private final ExecutorService executor;
+
+	private final IndexSearcher searcher;
+
+	private final Repository repository;
+
+	private final AnyObjectId treeId;
+
+	private final BlobQuery query;
+
+	private final int maxPendingBatches;
+
+	private final Set<String> checkedBlobPaths = new HashSet<>();
+
+	private final Queue<Future<List<QueryHit>>> pendingBatches = new ArrayDeque<>();
+
+	private final List<QueryHit> hits = new ArrayList<>();
+
+	private Set<String> batch = new LinkedHashSet<>();
+
+	private volatile boolean stopped;
+
+	public CandidateVerifier(ExecutorService executor, IndexSearcher searcher, Repository repository,
+			AnyObjectId treeId, BlobQuery query) {
+		this.executor = executor;
+		this.searcher = searcher;
+		this.repository = repository;
+		this.treeId = treeId;
+		this.query = query;
+		maxPendingBatches = Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * @return
+	 * 			<tt>true</tt> if enough hits are confirmed and no more candidates are needed
+	 */
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * Add a candidate blob path. Blocks if too many batches are pending verification
+	 */
+	public void add(String blobPath) throws InterruptedException {
+		if (!stopped && checkedBlobPaths.add(blobPath)) {
+			batch.add(blobPath);
+			if (batch.size() >= BATCH_SIZE) {
+				submit();
+				while (!stopped && pendingBatches.size() >= maxPendingBatches)
+					mergeNext();
+			}
+		}
+	}
+
+	/**
+	 * Verify remaining candidates and get verified hits
+	 */
+	public List<QueryHit> finish() throws InterruptedException {
+		if (!stopped && !batch.isEmpty())
+			submit();
+		while (!stopped && !pendingBatches.isEmpty())
+			mergeNext();
+		return hits;
+	}
+
+	/**
+	 * Stop verification and wait for running batches to return. This should always be
+	 * called before the index searcher is released
+	 */
+	public void close() {
+		stopped = true;
+		for (Future<List<QueryHit>> future: pendingBatches) {
+			try {
+				Uninterruptibles.getUninterruptibly(future);
+			} catch (ExecutionException e) {
+			}
+		}
+		pendingBatches.clear();
+	}
+
+	private void submit() {
+		Set<String> blobPaths = batch;
+		batch = new LinkedHashSet<>();
+		pendingBatches.add(executor.submit(new Callable<List<QueryHit>>() {
+
+			@Override
+			public List<QueryHit> call() throws Exception {
+				return verify(blobPaths);
+			}
+
+		}));
+	}
+
+	private void mergeNext() throws InterruptedException {
+		List<QueryHit> batchHits;
+		try {
+			batchHits = pendingBatches.peek().get();
+		} catch (ExecutionException e) {
+			throw ExceptionUtils.unchecked(e.getCause());
+		}
+		pendingBatches.remove();
+		for (QueryHit hit: batchHits) {
+			if (hits.size() < query.getCount())
+				hits.add(hit);
+		}
+		if (hits.size() >= query.getCount())
+			stopped = true;
+	}
+
+	private List<QueryHit> verify(Set<String> blobPaths) throws Exception {
+		List<QueryHit> batchHits = new ArrayList<>();
+		if (!stopped) {
+			try (TreeWalk treeWalk = new TreeWalk(repository)) {
+				treeWalk.addTree(treeId);
+				treeWalk.setRecursive(true);
+				treeWalk.setFilter(PathFilterGroup.createFromStrings(blobPaths));
+				while (!stopped && !Thread.currentThread().isInterrupted() && treeWalk.next()) {
+					// Path filter also includes children of a path which is a directory in this tree
+					if (blobPaths.contains(treeWalk.getPathString())) {
+						query.collect(searcher, treeWalk, batchHits);
+
+						// Hits after this are never used even if previous batches have no hits
+						if (batchHits.size() >= query.getCount())
+							break;
+					}
+				}
+			}
+		}
+		return batchHits;
+	}
+
+}
@@ -19,23 +19,33 @@ import static io.onedev.server.search.code.IndexConstants.NGRAM_SIZE;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
+import java.nio.channels.ClosedByInterruptException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.lang.SerializationUtils;
 import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexFormatTooOldException;
 import org.apache.lucene.index.IndexReader;
@@ -46,6 +56,7 @@ import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.SimpleCollector;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
@@ -61,10 +72,13 @@ import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.quartz.ScheduleBuilder;
+import org.quartz.SimpleScheduleBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 
 import io.onedev.commons.jsymbol.Symbol;
 import io.onedev.commons.jsymbol.SymbolExtractor;
@@ -76,19 +90,26 @@ import io.onedev.commons.utils.FileUtils;
 import io.onedev.commons.utils.StringUtils;
 import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.RefsUpdated;
+import io.onedev.server.event.entity.EntityRemoved;
 import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.model.Project;
 import io.onedev.server.persistence.SessionManager;
 import io.onedev.server.persistence.annotation.Sessional;
+import io.onedev.server.persistence.annotation.Transactional;
 import io.onedev.server.storage.StorageManager;
 import io.onedev.server.util.ContentDetector;
 import io.onedev.server.util.IndexResult;
 import io.onedev.server.util.concurrent.Prioritized;
+import io.onedev.server.util.schedule.SchedulableTask;
+import io.onedev.server.util.schedule.TaskScheduler;
 import io.onedev.server.util.work.BatchWorkManager;
 import io.onedev.server.util.work.BatchWorker;
+import io.onedev.server.util.work.WorkCategory;
 
 @Singleton
-public class DefaultIndexManager implements IndexManager {
+public class DefaultIndexManager implements IndexManager, SchedulableTask {
 	
 	private static final Logger logger = LoggerFactory.getLogger(DefaultIndexManager.class);
 
@@ -96,7 +117,17 @@ public class DefaultIndexManager implements IndexManager {
 	
 	private static final int BACKEND_INDEXING_PRIORITY = 50;
 	
-	private static final int DATA_VERSION = 6;
+	private static final int DATA_VERSION = 7;
+	
+	private static final int VERSION_CHECK_BATCH_SIZE = 512;
+	
+	private static final int INDEXING_CONCURRENCY = Runtime.getRuntime().availableProcessors();
+	
+	private static final long PROGRESS_REPORT_INTERVAL = 10000;
+	
+	private static final int MAX_OPEN_INDEXES = 100;
+	
+	private static final long INDEX_IDLE_TIMEOUT = 30*60*1000L;
 	
 	private final StorageManager storageManager;
 	
@@ -108,14 +139,134 @@ public class DefaultIndexManager implements IndexManager {
 	
 	private final ListenerRegistry listenerRegistry;
 	
+	private final ExecutorService executorService;
+	
+	private final TaskScheduler taskScheduler;
+	
+	private final Map<Long, ProjectIndex> projectIndexes = new HashMap<>();
+	
+	// Shared by pipelines of all projects to bound total number of indexing threads
+	private final Semaphore indexingPermits = new Semaphore(INDEXING_CONCURRENCY);
+	
+	private String taskId;
+	
 	@Inject
 	public DefaultIndexManager(ListenerRegistry listenerRegistry, StorageManager storageManager, 
-			BatchWorkManager batchWorkManager, SessionManager sessionManager, ProjectManager projectManager) {
+			BatchWorkManager batchWorkManager, SessionManager sessionManager, ProjectManager projectManager, 
+			ExecutorService executorService, TaskScheduler taskScheduler) {
 		this.listenerRegistry = listenerRegistry;
 		this.storageManager = storageManager;
 		this.batchWorkManager = batchWorkManager;
 		this.sessionManager = sessionManager;
 		this.projectManager = projectManager;
+		this.executorService = executorService;
+		this.taskScheduler = taskScheduler;
+	}
+	
+	/**
+	 * Get index of specified project, opening it if necessary. The index should be released 
+	 * via {@link #release(Long, ProjectIndex)} after use
+	 * 
+	 * @param create
+	 * 			whether or not to create the index if it does not exist yet
+	 * @return
+	 * 			index of specified project, or <tt>null</tt> if index does not exist and 
+	 * 			<tt>create</tt> is <tt>false</tt>
+	 */
+	@Nullable
+	private ProjectIndex acquire(Long projectId, boolean create) throws IOException {
+		ProjectIndex index;
+		ProjectIndex evicted = null;
+		synchronized (projectIndexes) {
+			index = projectIndexes.get(projectId);
+			if (index == null || index.broken) {
+				if (projectIndexes.size() >= MAX_OPEN_INDEXES)
+					evicted = evictLeastRecentlyUsed();
+				index = new ProjectIndex(storageManager.getProjectIndexDir(projectId));
+				projectIndexes.put(projectId, index);
+			}
+			index.users++;
+			index.lastAccess = System.currentTimeMillis();
+		}
+		if (evicted != null)
+			evicted.close();
+		
+		// Open index out of the global lock as it may take a long time for large indexes
+		boolean opened = false;
+		try {
+			opened = index.open(create);
+		} finally {
+			if (!opened)
+				release(projectId, index);
+		}
+		return opened? index: null;
+	}
+	
+	private void release(Long projectId, ProjectIndex index) {
+		boolean close = false;
+		synchronized (projectIndexes) {
+			index.users--;
+			index.lastAccess = System.currentTimeMillis();
+			if (index.users == 0 && (index.broken || !index.isOpened())) {
+				if (projectIndexes.get(projectId) == index)
+					projectIndexes.remove(projectId);
+				close = true;
+			}
+		}
+		if (close)
+			index.close();
+	}
+	
+	/**
+	 * @return
+	 * 			evicted index which should be closed by caller, or <tt>null</tt> if all 
+	 * 			indexes are in use
+	 */
+	@Nullable
+	private ProjectIndex evictLeastRecentlyUsed() {
+		Long leastRecentlyUsed = null;
+		long leastAccess = Long.MAX_VALUE;
+		for (Map.Entry<Long, ProjectIndex> entry: projectIndexes.entrySet()) {
+			ProjectIndex index = entry.getValue();
+			if (index.users == 0 && index.lastAccess < leastAccess) {
+				leastRecentlyUsed = entry.getKey();
+				leastAccess = index.lastAccess;
+			}
+		}
+		if (leastRecentlyUsed != null) 
+			return projectIndexes.remove(leastRecentlyUsed);
+		else
+			return null;
+	}
+	
+	@Override
+	public <T> T withSearcher(Project project, SearcherCallback<T> callback) throws InterruptedException {
+		try {
+			ProjectIndex index = acquire(project.getId(), false);
+			if (index != null) {
+				try {
+					IndexSearcher searcher = index.searcherManager.acquire();
+					try {
+						return callback.call(searcher);
+					} finally {
+						index.searcherManager.release(searcher);
+					}
+				} finally {
+					release(project.getId(), index);
+				}
+			} else {
+				return null;
+			}
+		} catch (ClosedByInterruptException e) {
+			// catch this exception and convert to normal InterruptedException as 
+			// we do not want to throw the original exception to surprise the user
+			// when they searches by typing fast (and subsequent typing will cancel 
+			// search of previous typing by interrupting previous search thread 
+			// which may be opening the index if it is not opened yet
+			throw new InterruptedException();
+		} catch (IOException e) {
+			throw ExceptionUtils.unchecked(e);
+		}
 	}
 
 	private String getCommitIndexVersion(final IndexSearcher searcher, AnyObjectId commitId) throws IOException {
@@ -144,8 +295,9 @@ public class DefaultIndexManager implements IndexManager {
 		return indexVersion.get();
 	}
 	
-	private IndexResult index(Repository repository, AnyObjectId commitId, 
+	private IndexResult index(Project project, AnyObjectId commitId, 
 			IndexWriter writer, final IndexSearcher searcher) throws Exception {
+		Repository repository = project.getRepository();
 		try (	RevWalk revWalk = new RevWalk(repository); 
 				TreeWalk treeWalk = new TreeWalk(repository)) {
 			treeWalk.addTree(revWalk.parseCommit(commitId).getTree());
@@ -167,60 +319,25 @@ public class DefaultIndexManager implements IndexManager {
 				}
 			}
 	
-			int indexed = 0;
+			IndexPipeline pipeline = new IndexPipeline(project.getName(), repository, writer);
 			int checked = 0;
-			while (treeWalk.next()) {
-				if ((treeWalk.getRawMode(0) & FileMode.TYPE_MASK) == FileMode.TYPE_FILE 
-						&& (treeWalk.getTreeCount() == 1 || !treeWalk.idEqual(0, 1))) {
-					ObjectId blobId = treeWalk.getObjectId(0);
-					String blobPath = treeWalk.getPathString();
-					String blobName = treeWalk.getNameString();
-					
-					BooleanQuery.Builder builder = new BooleanQuery.Builder();
-					builder.add(BLOB_HASH.query(blobId.name()), Occur.MUST);
-					builder.add(BLOB_PATH.query(blobPath), Occur.MUST);
-					BooleanQuery query = builder.build();
-					
-					final AtomicReference<String> blobIndexVersionRef = new AtomicReference<>(null);
-					if (searcher != null) {
-						searcher.search(query, new SimpleCollector() {
-	
-							private LeafReaderContext context;
-	
-							@Override
-							public void collect(int doc) throws IOException {
-								blobIndexVersionRef.set(searcher.doc(context.docBase+doc).get(BLOB_INDEX_VERSION.name()));
-							}
-	
-							@Override
-							protected void doSetNextReader(LeafReaderContext context) throws IOException {
-								this.context = context;
-							}
-	
-							@Override
-							public boolean needsScores() {
-								return false;
-							}
-							
-						});
-						checked++;
-					}
-	
-					SymbolExtractor<Symbol> extractor = SymbolExtractorRegistry.getExtractor(blobName);
-					String currentBlobIndexVersion = getIndexVersion(extractor);
-					String blobIndexVersion = blobIndexVersionRef.get();
-					if (blobIndexVersion != null) {
-						if (!blobIndexVersion.equals(currentBlobIndexVersion)) {
-							writer.deleteDocuments(query);
-							indexBlob(writer, repository, extractor, blobId, blobPath);
-							indexed++;
+			try {
+				List<BlobInfo> batch = new ArrayList<>();
+				while (treeWalk.next()) {
+					if ((treeWalk.getRawMode(0) & FileMode.TYPE_MASK) == FileMode.TYPE_FILE 
+							&& (treeWalk.getTreeCount() == 1 || !treeWalk.idEqual(0, 1))) {
+						batch.add(new BlobInfo(treeWalk.getObjectId(0), treeWalk.getPathString()));
+						if (batch.size() == VERSION_CHECK_BATCH_SIZE) {
+							checked += index(batch, writer, searcher, pipeline);
+							batch.clear();
 						}
-					} else {
-						indexBlob(writer, repository, extractor, blobId, blobPath);
-						indexed++;
 					}
 				}
+				checked += index(batch, writer, searcher, pipeline);
+			} finally {
+				pipeline.await();
 			}
+			pipeline.checkError();
 	
 			// record current commit so that we know which commit has been indexed
 			Document document = new Document();
@@ -235,10 +352,78 @@ public class DefaultIndexManager implements IndexManager {
 			document.add(new StoredField(LAST_COMMIT_HASH.name(), commitId.getName()));
 			writer.updateDocument(META.term(LAST_COMMIT.name()), document);
 			
-			return new IndexResult(checked, indexed);
+			return new IndexResult(checked, pipeline.getIndexed());
 		}
 	}
 	
+	/*
+	 * Check index versions of specified blobs with a single query, and hand over blobs 
+	 * requiring (re)indexing to the pipeline 
+	 * 
+	 * @return number of checked blobs
+	 */
+	private int index(List<BlobInfo> blobs, IndexWriter writer, @Nullable IndexSearcher searcher, 
+			IndexPipeline pipeline) throws Exception {
+		Map<String, String> blobIndexVersions = new HashMap<>();
+		if (searcher != null && !blobs.isEmpty()) {
+			BooleanQuery.Builder builder = new BooleanQuery.Builder();
+			for (BlobInfo blob: blobs) 
+				builder.add(getBlobQuery(blob), Occur.SHOULD);
+			
+			searcher.search(builder.build(), new SimpleCollector() {
+
+				private LeafReaderContext context;
+				
+				private BinaryDocValues blobPathValues;
+
+				@Override
+				public void collect(int doc) throws IOException {
+					Preconditions.checkState(blobPathValues.advanceExact(doc));
+					String blobPath = blobPathValues.binaryValue().utf8ToString();
+					String blobIndexVersion = searcher.doc(context.docBase+doc).get(BLOB_INDEX_VERSION.name());
+					blobIndexVersions.put(blobPath, blobIndexVersion);
+				}
+
+				@Override
+				protected void doSetNextReader(LeafReaderContext context) throws IOException {
+					this.context = context;
+					blobPathValues = context.reader().getBinaryDocValues(BLOB_PATH.name());
+				}
+
+				@Override
+				public boolean needsScores() {
+					return false;
+				}
+				
+			});
+		}
+		
+		for (BlobInfo blob: blobs) {
+			String blobName = blob.path;
+			if (blobName.indexOf('/') != -1) 
+				blobName = StringUtils.substringAfterLast(blobName, "/");
+			SymbolExtractor<Symbol> extractor = SymbolExtractorRegistry.getExtractor(blobName);
+			String currentBlobIndexVersion = getIndexVersion(extractor);
+			String blobIndexVersion = blobIndexVersions.get(blob.path);
+			if (blobIndexVersion != null) {
+				if (!blobIndexVersion.equals(currentBlobIndexVersion)) {
+					writer.deleteDocuments(getBlobQuery(blob));
+					pipeline.submit(extractor, blob);
+				}
+			} else {
+				pipeline.submit(extractor, blob);
+			}
+		}
+		return searcher != null? blobs.size(): 0;
+	}
+	
+	private BooleanQuery getBlobQuery(BlobInfo blob) {
+		BooleanQuery.Builder builder = new BooleanQuery.Builder();
+		builder.add(BLOB_HASH.query(blob.id.name()), Occur.MUST);
+		builder.add(BLOB_PATH.query(blob.path), Occur.MUST);
+		return builder.build();
+	}
+	
 	private void indexBlob(IndexWriter writer, Repository repository, 
 			SymbolExtractor<Symbol> extractor, ObjectId blobId, String blobPath) throws IOException {
 		Document document = new Document();
@@ -282,8 +467,7 @@ public class DefaultIndexManager implements IndexManager {
 								document.add(new StringField(fieldName, fieldValue, Store.NO));
 							}
 						}
-						byte[] bytesOfSymbols = SerializationUtils.serialize((Serializable) symbols);
-						document.add(new StoredField(BLOB_SYMBOL_LIST.name(), bytesOfSymbols));
+						document.add(new StoredField(BLOB_SYMBOL_LIST.name(), SymbolListCodec.encode(symbols)));
 					}
 				} 
 			} else {
@@ -297,7 +481,7 @@ public class DefaultIndexManager implements IndexManager {
 	}
 	
 	private BatchWorker getBatchWorker(Long projectId) {
-		return new BatchWorker("project-" + projectId + "-indexBlob", 1) {
+		return new BatchWorker("project-" + projectId + "-indexBlob", WorkCategory.INDEXING, 1) {
 
 			@Override
 			public void doWorks(Collection<Prioritized> works) {
@@ -320,36 +504,42 @@ public class DefaultIndexManager implements IndexManager {
 		};
 	}
 
-	private IndexResult doIndex(Project project, ObjectId commit, Directory directory, IndexSearcher searcher) {
-		IndexWriterConfig writerConfig = new IndexWriterConfig(new NGramAnalyzer(NGRAM_SIZE, NGRAM_SIZE));
-		writerConfig.setOpenMode(OpenMode.CREATE_OR_APPEND);
-		try (IndexWriter writer = new IndexWriter(directory, writerConfig)) {
-			try {
-				logger.debug("Indexing commit (project: {}, commit: {})", project.getName(), commit.getName());
-				IndexResult indexResult = index(project.getRepository(), commit, writer, searcher);
-				writer.commit();
-				return indexResult;
-			} catch (Exception e) {
-				writer.rollback();
-				throw ExceptionUtils.unchecked(e);
-			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
-	}
-	
 	private IndexResult doIndex(Project project, ObjectId commit) {
-		try (Directory directory = FSDirectory.open(storageManager.getProjectIndexDir(project.getId()).toPath())) {
-			if (DirectoryReader.indexExists(directory)) {
-				try (IndexReader reader = DirectoryReader.open(directory)) {
-					IndexSearcher searcher = new IndexSearcher(reader);
+		try {
+			ProjectIndex index = acquire(project.getId(), true);
+			try {
+				IndexSearcher searcher = index.searcherManager.acquire();
+				try {
 					if (getIndexVersion().equals(getCommitIndexVersion(searcher, commit)))
 						return new IndexResult(0, 0);
-					else
-						return doIndex(project, commit, directory, searcher);
+					
+					try {
+						logger.debug("Indexing commit (project: {}, commit: {})", project.getName(), commit.getName());
+						IndexResult indexResult = index(project, commit, index.writer, searcher);
+						index.writer.commit();
+						index.searcherManager.maybeRefresh();
+						return indexResult;
+					} catch (Exception e) {
+						/*
+						 * Roll back (which also closes the writer and releases its write lock) before 
+						 * marking the index broken, as a replacement index opened by concurrent callers 
+						 * seeing the flag needs to obtain the write lock
+						 */
+						try {
+							index.writer.rollback();
+							index.searcherManager.close();
+						} finally {
+							synchronized (projectIndexes) {
+								index.broken = true;
+							}
+						}
+						throw ExceptionUtils.unchecked(e);
+					}
+				} finally {
+					index.searcherManager.release(searcher);
 				}
-			} else {
-				return doIndex(project, commit, directory, null);
+			} finally {
+				release(project.getId(), index);
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
@@ -373,17 +563,17 @@ public class DefaultIndexManager implements IndexManager {
 
 	@Override
 	public boolean isIndexed(Project project, ObjectId commit) {
-		File indexDir = storageManager.getProjectIndexDir(project.getId());
-		try (Directory directory = FSDirectory.open(indexDir.toPath())) {
-			if (DirectoryReader.indexExists(directory)) {
-				try (IndexReader reader = DirectoryReader.open(directory)) {
-					IndexSearcher searcher = new IndexSearcher(reader);
+		try {
+			Boolean indexed = withSearcher(project, new SearcherCallback<Boolean>() {
+
+				@Override
+				public Boolean call(IndexSearcher searcher) throws IOException {
 					return getIndexVersion().equals(getCommitIndexVersion(searcher, commit));
 				}
-			} else {
-				return false;
-			}
-		} catch (IOException e) {
+				
+			});
+			return indexed != null && indexed;
+		} catch (InterruptedException e) {
 			throw new RuntimeException(e);
 		}
 	}
@@ -391,12 +581,30 @@ public class DefaultIndexManager implements IndexManager {
 	@Sessional
 	@Listen
 	public void on(RefUpdated event) {
+		if (!event.isBulk())
+			index(event.getProject(), Lists.newArrayList(event));
+	}
+	
+	@Sessional
+	@Listen
+	public void on(RefsUpdated event) {
+		index(event.getProject(), event.getRefUpdates());
+	}
+	
+	private void index(Project project, List<RefUpdated> refUpdates) {
 		// only index branches at back end, tags will be indexed on demand from GUI 
-		// as many tags might be pushed all at once when the repository is imported 
-		if (event.getRefName().startsWith(Constants.R_HEADS) && !event.getNewCommitId().equals(ObjectId.zeroId())) {
-			IndexWork work = new IndexWork(BACKEND_INDEXING_PRIORITY, event.getNewCommitId());
-			batchWorkManager.submit(getBatchWorker(event.getProject().getId()), work);
+		// as many tags might be pushed all at once when the repository is imported. 
+		// Index each new tip only once even if pointed by multiple branches 
+		Set<ObjectId> commitIds = new LinkedHashSet<>();
+		for (RefUpdated refUpdated: refUpdates) {
+			if (refUpdated.getRefName().startsWith(Constants.R_HEADS) 
+					&& !refUpdated.getNewCommitId().equals(ObjectId.zeroId())) {
+				commitIds.add(refUpdated.getNewCommitId());
+			}
 		}
+		BatchWorker batchWorker = getBatchWorker(project.getId());
+		for (ObjectId commitId: commitIds)
+			batchWorkManager.submit(batchWorker, new IndexWork(BACKEND_INDEXING_PRIORITY, commitId));
 	}
 	
 	@Sessional
@@ -417,6 +625,59 @@ public class DefaultIndexManager implements IndexManager {
 				}
 			}
 		}
+		taskId = taskScheduler.schedule(this);
+	}
+	
+	@Listen
+	public void on(SystemStopping event) {
+		if (taskId != null)
+			taskScheduler.unschedule(taskId);
+		synchronized (projectIndexes) {
+			for (ProjectIndex index: projectIndexes.values())
+				index.close();
+			projectIndexes.clear();
+		}
+	}
+	
+	@Transactional
+	@Listen
+	public void on(EntityRemoved event) {
+		if (event.getEntity() instanceof Project) {
+			ProjectIndex index;
+			synchronized (projectIndexes) {
+				index = projectIndexes.remove(event.getEntity().getId());
+				if (index != null) {
+					// Index still in use will be closed when released by last user
+					index.broken = true;
+					if (index.users != 0)
+						index = null;
+				}
+			}
+			if (index != null)
+				index.close();
+		}
+	}
+	
+	@Override
+	public void execute() {
+		Collection<ProjectIndex> idleIndexes = new ArrayList<>();
+		synchronized (projectIndexes) {
+			long now = System.currentTimeMillis();
+			for (Iterator<ProjectIndex> it = projectIndexes.values().iterator(); it.hasNext();) {
+				ProjectIndex index = it.next();
+				if (index.users == 0 && now - index.lastAccess > INDEX_IDLE_TIMEOUT) {
+					idleIndexes.add(index);
+					it.remove();
+				}
+			}
+		}
+		for (ProjectIndex index: idleIndexes)
+			index.close();
+	}
+
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return SimpleScheduleBuilder.repeatMinutelyForever();
 	}
 	
 	@Sessional
@@ -431,6 +692,201 @@ public class DefaultIndexManager implements IndexManager {
 		batchWorkManager.submit(getBatchWorker(project.getId()), work);
 	}
 	
+	/**
+	 * Long-lived writer of a project index, together with a searcher manager opening 
+	 * near real time readers from the writer, so that neither indexing nor searching 
+	 * needs to open the index directory each time  
+	 */
+	private static class ProjectIndex {
+		
+		final File indexDir;
+		
+		// below fields are set once index is opened
+		
+		Directory directory;
+		
+		volatile IndexWriter writer;
+		
+		SearcherManager searcherManager;
+		
+		// below fields are guarded by projectIndexes. Broken index is removed from 
+		// projectIndexes, and will be closed when released by last user
+		
+		int users;
+		
+		long lastAccess;
+		
+		boolean broken;
+		
+		ProjectIndex(File indexDir) {
+			this.indexDir = indexDir;
+		}
+		
+		boolean isOpened() {
+			return writer != null;
+		}
+		
+		/**
+		 * Open this index if not opened yet. Concurrent callers wait for the one opening 
+		 * this index, without blocking access to other indexes
+		 * 
+		 * @return
+		 * 			<tt>false</tt> if index does not exist and <tt>create</tt> is <tt>false</tt>
+		 */
+		synchronized boolean open(boolean create) throws IOException {
+			if (writer == null) {
+				Directory directory = FSDirectory.open(indexDir.toPath());
+				try {
+					if (!create && !DirectoryReader.indexExists(directory)) {
+						directory.close();
+						return false;
+					}
+					IndexWriterConfig writerConfig = new IndexWriterConfig(new NGramAnalyzer(NGRAM_SIZE, NGRAM_SIZE));
+					writerConfig.setOpenMode(OpenMode.CREATE_OR_APPEND);
+					IndexWriter writer = new IndexWriter(directory, writerConfig);
+					try {
+						searcherManager = new SearcherManager(writer, null);
+					} catch (Exception e) {
+						writer.close();
+						throw e;
+					}
+					this.directory = directory;
+					this.writer = writer;
+				} catch (Exception e) {
+					directory.close();
+					throw e;
+				}
+			}
+			return true;
+		}
+		
+		synchronized void close() {
+			if (writer != null) {
+				try {
+					searcherManager.close();
+					if (writer.isOpen())
+						writer.close();
+					directory.close();
+				} catch (IOException e) {
+					logger.error("Error closing index", e);
+				}
+			}
+		}
+		
+	}
+	
+	private static class BlobInfo {
+		
+		final ObjectId id;
+		
+		final String path;
+		
+		BlobInfo(ObjectId id, String path) {
+			this.id = id;
+			this.path = path;
+		}
+		
+	}
+	
+	/**
+	 * Load blobs, convert them to text, extract symbols and add them to index writer with 
+	 * bounded concurrency, while caller continues to walk the tree and check index versions
+	 */
+	private class IndexPipeline {
+		
+		private final String projectName;
+		
+		private final Repository repository;
+		
+		private final IndexWriter writer;
+		
+		private final AtomicInteger indexed = new AtomicInteger(0);
+		
+		private final AtomicReference<Throwable> error = new AtomicReference<>(null);
+		
+		private int inProgress;
+		
+		private final long startTime = System.currentTimeMillis();
+		
+		private long lastReportTime = startTime;
+		
+		IndexPipeline(String projectName, Repository repository, IndexWriter writer) {
+			this.projectName = projectName;
+			this.repository = repository;
+			this.writer = writer;
+		}
+		
+		void submit(@Nullable SymbolExtractor<Symbol> extractor, BlobInfo blob) throws Exception {
+			checkError();
+			indexingPermits.acquire();
+			synchronized (this) {
+				inProgress++;
+			}
+			try {
+				executorService.execute(new Runnable() {
+	
+					@Override
+					public void run() {
+						try {
+							if (error.get() == null) {
+								indexBlob(writer, repository, extractor, blob.id, blob.path);
+								indexed.incrementAndGet();
+							}
+						} catch (Throwable e) {
+							error.compareAndSet(null, e);
+						} finally {
+							done();
+						}
+					}
+					
+				});
+			} catch (Throwable e) {
+				done();
+				throw e;
+			}
+			
+			long now = System.currentTimeMillis();
+			if (now - lastReportTime >= PROGRESS_REPORT_INTERVAL) {
+				lastReportTime = now;
+				int inProgress;
+				synchronized (this) {
+					inProgress = this.inProgress;
+				}
+				logger.info("Indexing blobs (project: {}, indexed: {}, blobs per second: {}, in progress: {})", 
+						projectName, indexed.get(), indexed.get()*1000L/(now-startTime), inProgress);
+			}
+		}
+		
+		private void done() {
+			indexingPermits.release();
+			synchronized (this) {
+				inProgress--;
+				notifyAll();
+			}
+		}
+		
+		/**
+		 * Wait until all submitted blobs are processed
+		 */
+		synchronized void await() throws InterruptedException {
+			while (inProgress != 0)
+				wait();
+		}
+		
+		void checkError() throws Exception {
+			Throwable e = error.get();
+			if (e instanceof Error) 
+				throw (Error) e;
+			else if (e != null)
+				throw (Exception) e;
+		}
+		
+		int getIndexed() {
+			return indexed.get();
+		}
+		
+	}
+	
 	private static class IndexWork extends Prioritized {
 
 		private final ObjectId commitId;
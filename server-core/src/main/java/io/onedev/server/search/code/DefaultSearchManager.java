@@ -6,173 +6,236 @@ import static io.onedev.server.search.code.FieldConstants.BLOB_PATH;
 import static io.onedev.server.search.code.FieldConstants.BLOB_SYMBOL_LIST;
 
 import java.io.IOException;
-import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicReference;
 
-import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
-import org.apache.commons.lang.SerializationUtils;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.BinaryDocValues;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.CollectionTerminatedException;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.SimpleCollector;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.treewalk.TreeWalk;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
 
 import io.onedev.commons.jsymbol.Symbol;
 import io.onedev.commons.jsymbol.SymbolExtractorRegistry;
-import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.commons.utils.ExceptionUtils;
-import io.onedev.server.event.entity.EntityRemoved;
-import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.model.Project;
-import io.onedev.server.persistence.annotation.Transactional;
+import io.onedev.server.search.code.IndexManager.SearcherCallback;
 import io.onedev.server.search.code.hit.QueryHit;
 import io.onedev.server.search.code.query.BlobQuery;
-import io.onedev.server.storage.StorageManager;
+import io.onedev.server.util.Pair;
 
 @Singleton
 public class DefaultSearchManager implements SearchManager {
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultSearchManager.class);
 	
-	private final StorageManager storageManager;
-	
-	private final Map<Long, SearcherManager> searcherManagers = new ConcurrentHashMap<>();
+	private static final long MAX_SYMBOLS_CACHE_WEIGHT = 1000000; // in symbols
 	
 	private final IndexManager indexManager;
 	
+	private final ExecutorService executorService;
+	
+	private final Cache<String, List<Symbol>> symbolsCache = CacheBuilder.newBuilder()
+			.maximumWeight(MAX_SYMBOLS_CACHE_WEIGHT)
+			.weigher(new Weigher<String, List<Symbol>>() {
+
+				@Override
+				public int weigh(String key, List<Symbol> value) {
+					return value.size() + 1;
+				}
+				
+			})
+			.build();
+	
 	@Inject
-	public DefaultSearchManager(StorageManager storageManager, IndexManager indexManager) {
-		this.storageManager = storageManager;
+	public DefaultSearchManager(IndexManager indexManager, ExecutorService executorService) {
 		this.indexManager = indexManager;
+		this.executorService = executorService;
 	}
 	
-	@Nullable
-	private SearcherManager getSearcherManager(Project project) throws InterruptedException {
+	@Override
+	public List<QueryHit> search(Project project, ObjectId commit, final BlobQuery query) 
+			throws InterruptedException {
+		List<QueryHit> hits = search(project.getForkRoot(), project.getRepository(), commit, query);
+		if (Thread.interrupted())
+			throw new InterruptedException();
+		return hits;
+	}
+
+	@Override
+	public Map<Project, List<QueryHit>> search(List<Project> projects, BlobQuery query) 
+			throws InterruptedException {
+		/*
+		 * Resolve everything needing hibernate session in calling thread, as shards are 
+		 * searched in other threads
+		 */
+		List<Shard> shards = new ArrayList<>();
+		for (Project project: projects) {
+			String defaultBranch = project.getDefaultBranch();
+			if (defaultBranch != null) {
+				ObjectId commit = project.getObjectId(defaultBranch, false);
+				if (commit != null)
+					shards.add(new Shard(project, project.getForkRoot(), project.getRepository(), commit));
+			}
+		}
+		
+		/*
+		 * Limit number of shards being searched to limit number of index readers opened 
+		 * at the same time. Results are merged in order of projects so that result does 
+		 * not depend on timing
+		 */
+		int maxPendingShards = Runtime.getRuntime().availableProcessors();
+		Map<Project, List<QueryHit>> hits = new LinkedHashMap<>();
+		Queue<Pair<Project, Future<List<QueryHit>>>> pendingShards = new ArrayDeque<>();
+		Iterator<Shard> it = shards.iterator();
+		int hitCount = 0;
 		try {
-			SearcherManager searcherManager = searcherManagers.get(project.getId());
-			if (searcherManager == null) synchronized (searcherManagers) {
-				searcherManager = searcherManagers.get(project.getId());
-				if (searcherManager == null) {
-					Directory directory = FSDirectory.open(storageManager.getProjectIndexDir(project.getId()).toPath());
-					if (DirectoryReader.indexExists(directory)) {
-						searcherManager = new SearcherManager(directory, null);
-						searcherManagers.put(project.getId(), searcherManager);
-					}
+			while (hitCount < query.getCount() && (it.hasNext() || !pendingShards.isEmpty())) {
+				while (it.hasNext() && pendingShards.size() < maxPendingShards) {
+					Shard shard = it.next();
+					pendingShards.add(new Pair<>(shard.project, executorService.submit(new Callable<List<QueryHit>>() {
+	
+						@Override
+						public List<QueryHit> call() throws Exception {
+							return search(shard.forkRoot, shard.repository, shard.commit, query);
+						}
+						
+					})));
+				}
+				
+				Pair<Project, Future<List<QueryHit>>> pendingShard = pendingShards.remove();
+				List<QueryHit> shardHits;
+				try {
+					shardHits = pendingShard.getSecond().get();
+				} catch (ExecutionException e) {
+					throw ExceptionUtils.unchecked(e.getCause());
+				}
+				if (shardHits.size() > query.getCount() - hitCount)
+					shardHits = new ArrayList<>(shardHits.subList(0, query.getCount() - hitCount));
+				if (!shardHits.isEmpty()) {
+					hits.put(pendingShard.getFirst(), shardHits);
+					hitCount += shardHits.size();
 				}
 			}
-			return searcherManager;
-		} catch (ClosedByInterruptException e) {
-			// catch this exception and convert to normal InterruptedException as 
-			// we do not want to throw the original exception to surprise the user
-			// when they searches by typing fast (and subsequent typing will cancel 
-			// search of previous typing by interrupting previous search thread 
-			// which may creating the searcher manager if it does not exist yet
-			throw new InterruptedException();
-		} catch (IOException e) {
-			throw ExceptionUtils.unchecked(e);
+		} finally {
+			/* 
+			 * Do not interrupt running shards as interrupting jgit io closes pack channels. 
+			 * Running shards stop by themselves after enough hits are found  
+			 */
+			for (Pair<Project, Future<List<QueryHit>>> pendingShard: pendingShards)
+				pendingShard.getSecond().cancel(false);
 		}
+
+		return hits;
 	}
 	
-	@Override
-	public List<QueryHit> search(Project project, ObjectId commit, final BlobQuery query) 
+	private List<QueryHit> search(Project forkRoot, Repository repository, ObjectId commit, BlobQuery query) 
 			throws InterruptedException {
-		List<QueryHit> hits = new ArrayList<>();
+		List<QueryHit> hits = indexManager.withSearcher(forkRoot, new SearcherCallback<List<QueryHit>>() {
 
-		SearcherManager searcherManager = getSearcherManager(project.getForkRoot());
-		if (searcherManager != null) {
-			try {
-				final IndexSearcher searcher = searcherManager.acquire();
+			@Override
+			public List<QueryHit> call(IndexSearcher searcher) throws IOException {
+				RevTree revTree;
+				try (RevWalk revWalk = new RevWalk(repository)) {
+					revTree = revWalk.parseCommit(commit).getTree();
+				}
+				
+				/*
+				 * Candidates are streamed to the verifier while lucene is still collecting, 
+				 * so that collecting stops as soon as enough hits are confirmed 
+				 */
+				CandidateVerifier verifier = new CandidateVerifier(executorService, searcher, 
+						repository, revTree, query);
 				try {
-					try (RevWalk revWalk = new RevWalk(project.getRepository())){
-						final RevTree revTree = revWalk.parseCommit(commit).getTree();
-						final Set<String> checkedBlobPaths = new HashSet<>();
+					searcher.search(query.asLuceneQuery(), new SimpleCollector() {
+
+						private BinaryDocValues blobPathValues;
 						
-						searcher.search(query.asLuceneQuery(), new SimpleCollector() {
-	
-							private BinaryDocValues blobPathValues;
+						@Override
+						public void collect(int doc) throws IOException {
+							if (verifier.isStopped() || Thread.currentThread().isInterrupted())
+								throw new CollectionTerminatedException();
 							
-							@Override
-							public void collect(int doc) throws IOException {
-								if (hits.size() < query.getCount() && !Thread.currentThread().isInterrupted()) {
-									Preconditions.checkState(blobPathValues.advanceExact(doc));
-									String blobPath = blobPathValues.binaryValue().utf8ToString();
-									
-									if (!checkedBlobPaths.contains(blobPath)) {
-										TreeWalk treeWalk = TreeWalk.forPath(project.getRepository(), blobPath, revTree);									
-										if (treeWalk != null)
-											query.collect(searcher, treeWalk, hits);
-										checkedBlobPaths.add(blobPath);
-									}
-								}
-							}
-	
-							@Override
-							protected void doSetNextReader(LeafReaderContext context) throws IOException {
-								blobPathValues  = context.reader().getBinaryDocValues(FieldConstants.BLOB_PATH.name());
+							Preconditions.checkState(blobPathValues.advanceExact(doc));
+							try {
+								verifier.add(blobPathValues.binaryValue().utf8ToString());
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+								throw new CollectionTerminatedException();
 							}
+						}
 
-							@Override
-							public boolean needsScores() {
-								return false;
-							}
-	
-						});
-					}
+						@Override
+						protected void doSetNextReader(LeafReaderContext context) throws IOException {
+							if (verifier.isStopped() || Thread.currentThread().isInterrupted())
+								throw new CollectionTerminatedException();
+							blobPathValues  = context.reader().getBinaryDocValues(FieldConstants.BLOB_PATH.name());
+						}
+
+						@Override
+						public boolean needsScores() {
+							return false;
+						}
+
+					});
+					
+					if (!Thread.currentThread().isInterrupted()) {
+						try {
+							return verifier.finish();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					} 
+					return new ArrayList<>();
 				} finally {
-					searcherManager.release(searcher);
+					verifier.close();
 				}
-			} catch (IOException e) {
-				throw ExceptionUtils.unchecked(e);
 			}
-		}
-		if (Thread.interrupted())
-			throw new InterruptedException();
-
-		return hits;
+			
+		});
+		return hits != null? hits: new ArrayList<>();
 	}
 
 	@Override
 	public List<Symbol> getSymbols(Project project, ObjectId blobId, String blobPath) {
 		try {
-			SearcherManager searcherManager = getSearcherManager(project.getForkRoot());
-			if (searcherManager != null) {
-				try {
-					IndexSearcher searcher = searcherManager.acquire();
-					try {
-						return getSymbols(searcher, blobId, blobPath);
-					} finally {
-						searcherManager.release(searcher);
-					}
-				} catch (IOException e) {
-					throw ExceptionUtils.unchecked(e);
+			return indexManager.withSearcher(project.getForkRoot(), new SearcherCallback<List<Symbol>>() {
+
+				@Override
+				public List<Symbol> call(IndexSearcher searcher) throws IOException {
+					return getSymbols(searcher, blobId, blobPath);
 				}
-			} else {
-				return null;
-			}
+				
+			});
 		} catch (InterruptedException e) {
 			throw new RuntimeException(e);
 		}
@@ -180,6 +243,9 @@ public class DefaultSearchManager implements SearchManager {
 	
 	@Override
 	public List<Symbol> getSymbols(IndexSearcher searcher, ObjectId blobId, String blobPath) {
+		if (searcher == null)
+			return null;
+		
 		BooleanQuery.Builder builder = new BooleanQuery.Builder();
 		builder.add(BLOB_HASH.query(blobId.name()), Occur.MUST);
 		builder.add(BLOB_PATH.query(blobPath), Occur.MUST);
@@ -187,89 +253,86 @@ public class DefaultSearchManager implements SearchManager {
 		BooleanQuery query = builder.build();
 		
 		String indexVersion = indexManager.getIndexVersion(SymbolExtractorRegistry.getExtractor(blobPath));
-		AtomicReference<List<Symbol>> symbolsRef = new AtomicReference<>(null);
-		if (searcher != null) {
-			try {
-				searcher.search(query, new SimpleCollector() {
+		
+		// Only load index version when looking up the blob, as symbol list is not needed on cache hit
+		AtomicReference<Integer> docRef = new AtomicReference<>(null);
+		try {
+			searcher.search(query, new SimpleCollector() {
 
-					private LeafReaderContext context;
+				private LeafReaderContext context;
 
-					@SuppressWarnings("unchecked")
-					@Override
-					public void collect(int doc) throws IOException {
-						Document document = searcher.doc(context.docBase+doc);
-						if (indexVersion.equals(document.get(BLOB_INDEX_VERSION.name()))) {
-							BytesRef bytesRef = document.getBinaryValue(BLOB_SYMBOL_LIST.name());
-							if (bytesRef != null) {
-								try {
-									symbolsRef.set((List<Symbol>) SerializationUtils.deserialize(bytesRef.bytes));
-								} catch (Exception e) {
-									logger.error("Error deserializing symbols", e);
-								}
-							}
-						}
-					}
+				@Override
+				public void collect(int doc) throws IOException {
+					Document document = searcher.doc(context.docBase+doc, 
+							Collections.singleton(BLOB_INDEX_VERSION.name()));
+					if (indexVersion.equals(document.get(BLOB_INDEX_VERSION.name()))) 
+						docRef.set(context.docBase+doc);
+				}
 
-					@Override
-					protected void doSetNextReader(LeafReaderContext context) throws IOException {
-						this.context = context;
-					}
+				@Override
+				protected void doSetNextReader(LeafReaderContext context) throws IOException {
+					this.context = context;
+				}
 
-					@Override
-					public boolean needsScores() {
-						return false;
-					}
-					
-				});
+				@Override
+				public boolean needsScores() {
+					return false;
+				}
+				
+			});
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		
+		Integer doc = docRef.get();
+		if (doc == null)
+			return null;
+		
+		/*
+		 * Symbols are decided by blob content and extractor, and index version reflects the extractor. 
+		 * Cache is consulted only after the blob is found in this index, so that a blob cached from 
+		 * one project is not reported as indexed in another project
+		 */
+		String cacheKey = blobId.name() + ":" + indexVersion;
+		List<Symbol> symbols = symbolsCache.getIfPresent(cacheKey);
+		if (symbols == null) {
+			BytesRef bytesRef;
+			try {
+				bytesRef = searcher.doc(doc, Collections.singleton(BLOB_SYMBOL_LIST.name()))
+						.getBinaryValue(BLOB_SYMBOL_LIST.name());
 			} catch (IOException e) {
 				throw new RuntimeException(e);
 			}
-		}
-		
-		return symbolsRef.get();
-	}
-	
-	@Listen
-	public void on(CommitIndexed event) {
-		try {
-			SearcherManager searcherManager = getSearcherManager(event.getProject().getForkRoot()); 
-			if (searcherManager != null)
-				searcherManager.maybeRefresh();
-		} catch (InterruptedException | IOException e) {
-			throw ExceptionUtils.unchecked(e);
-		}
-	}
-
-	@Transactional
-	@Listen
-	public void on(EntityRemoved event) {
-		if (event.getEntity() instanceof Project) {
-			synchronized (searcherManagers) {
-				Long projectId = event.getEntity().getId();						
-				SearcherManager searcherManager = searcherManagers.remove(projectId);
-				if (searcherManager != null) {
-					try {
-						searcherManager.close();
-					} catch (IOException e) {
-						throw ExceptionUtils.unchecked(e);
-					}
-				}
+			if (bytesRef == null)
+				return null;
+			try {
+				symbols = SymbolListCodec.decode(bytesRef.bytes, bytesRef.offset, bytesRef.length);
+			} catch (Exception e) {
+				logger.error("Error decoding symbols", e);
+				return null;
 			}
+			symbolsCache.put(cacheKey, symbols);
 		}
+		return new ArrayList<>(symbols);
 	}
 
-	@Listen
-	public void on(SystemStopping event) {
-		synchronized (searcherManagers) {
-			for (SearcherManager searcherManager: searcherManagers.values()) {
-				try {
-					searcherManager.close();
-				} catch (IOException e) {
-					throw ExceptionUtils.unchecked(e);
-				}
-			}
-			searcherManagers.clear();
+	private static class Shard {
+		
+		final Project project;
+		
+		final Project forkRoot;
+		
+		final Repository repository;
+		
+		final ObjectId commit;
+		
+		Shard(Project project, Project forkRoot, Repository repository, ObjectId commit) {
+			this.project = project;
+			this.forkRoot = forkRoot;
+			this.repository = repository;
+			this.commit = commit;
 		}
+
 	}
 
 }
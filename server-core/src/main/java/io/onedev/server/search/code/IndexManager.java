@@ -1,7 +1,10 @@
 package io.onedev.server.search.code;
 
+import java.io.IOException;
+
 import javax.annotation.Nullable;
 
+import org.apache.lucene.search.IndexSearcher;
 import org.eclipse.jgit.lib.ObjectId;
 
 import io.onedev.commons.jsymbol.Symbol;
@@ -18,4 +21,21 @@ public interface IndexManager {
 	
 	String getIndexVersion(@Nullable SymbolExtractor<Symbol> extractor);
 	
+	/**
+	 * Call specified callback with a near real time searcher of index of specified project
+	 * 
+	 * @return
+	 * 			result of the callback, or <tt>null</tt> if specified project is not indexed yet
+	 * @throws InterruptedException
+	 * 			if current thread is interrupted while opening the index
+	 */
+	@Nullable
+	<T> T withSearcher(Project project, SearcherCallback<T> callback) throws InterruptedException;
+	
+	public static interface SearcherCallback<T> {
+		
+		T call(IndexSearcher searcher) throws IOException;
+		
+	}
+	
 }
@@ -1,6 +1,7 @@
 package io.onedev.server.search.code;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -27,6 +28,21 @@ public interface SearchManager {
 	List<QueryHit> search(Project project, ObjectId commit, BlobQuery query) 
 			throws InterruptedException, TooGeneralQueryException;
 	
+	/**
+	 * Search default branches of specified projects with specified query. Projects are searched 
+	 * concurrently, with number of projects being searched at the same time limited.
+	 * 
+	 * @return
+	 * 			map of project to hits of the project, ordered as specified projects. Projects 
+	 * 			without hits are not included, and total number of hits does not exceed count 
+	 * 			of the query
+	 * @throws 
+	 * 			TooGeneralQueryException if supplied query term is too general to possibly cause query slow
+	 * 			InterruptedException if the search process is interrupted
+	 */
+	Map<Project, List<QueryHit>> search(List<Project> projects, BlobQuery query) 
+			throws InterruptedException, TooGeneralQueryException;
+	
 	@Nullable
 	List<Symbol> getSymbols(Project project, ObjectId blobId, String blobPath);
 	
@@ -0,0 +1,462 @@
+package io.onedev.server.search.code;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.SerializationUtils;
+import org.objenesis.Objenesis;
+import org.objenesis.ObjenesisSerializer;
+
+/**
+ * Compact binary encoding of symbol lists stored in code index. Compared with java
+ * serialization, class and field descriptors are written only once per list, all strings
+ * are interned into a string table, and numbers are written as variable length integers.
+ * Objects are encoded field by field: a table of object classes is written before field
+ * values, so that references between objects (such as symbol parent) can be resolved by
+ * index when decoding. Values not fitting this model are written with java serialization.
+ * <p>
+ * Layout: version, string table, class table, class index of each object, root list, field
+ * values of each object.
+ */
+public class SymbolListCodec {
+	
+	private static final int VERSION = 1;
+	
+	private static final int NULL = 0;
+	
+	private static final int OBJECT = 1;
+	
+	private static final int STRING = 2;
+	
+	private static final int INT = 3;
+	
+	private static final int LONG = 4;
+	
+	private static final int TRUE = 5;
+	
+	private static final int FALSE = 6;
+	
+	private static final int ENUM = 7;
+	
+	private static final int LIST = 8;
+	
+	private static final int SERIALIZED = 9;
+	
+	private static final Objenesis objenesis = new ObjenesisSerializer();
+	
+	private static final Map<Class<?>, List<Field>> fieldsCache = new ConcurrentHashMap<>();
+	
+	public static byte[] encode(List<?> list) {
+		try {
+			return new Encoder().encode(list);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public static <T> List<T> decode(byte[] bytes) {
+		return decode(bytes, 0, bytes.length);
+	}
+	
+	/**
+	 * @throws IllegalStateException
+	 * 			if bytes are of an unsupported version or do not match current classes
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> List<T> decode(byte[] bytes, int offset, int length) {
+		try {
+			return (List<T>) new Decoder(bytes, offset, length).decode();
+		} catch (IOException | ReflectiveOperationException e) {
+			throw new IllegalStateException("Error decoding symbol list", e);
+		}
+	}
+	
+	/*
+	 * Objects are encoded field by field if they use default java serialization
+	 */
+	private static boolean isEncodedByFields(Class<?> clazz) {
+		if (!Serializable.class.isAssignableFrom(clazz) || Externalizable.class.isAssignableFrom(clazz)
+				|| clazz.isArray() || clazz.isEnum() || Collection.class.isAssignableFrom(clazz)
+				|| Map.class.isAssignableFrom(clazz) || clazz.getName().startsWith("java.")) {
+			return false;
+		}
+		for (Class<?> each = clazz; each != Object.class; each = each.getSuperclass()) {
+			for (Method method: each.getDeclaredMethods()) {
+				switch (method.getName()) {
+				case "writeObject":
+				case "readObject":
+				case "readObjectNoData":
+				case "writeReplace":
+				case "readResolve":
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/*
+	 * Fields written by java serialization, ordered from super class to sub class
+	 */
+	private static List<Field> getFields(Class<?> clazz) {
+		List<Field> fields = fieldsCache.get(clazz);
+		if (fields == null) {
+			List<Class<?>> classes = new ArrayList<>();
+			for (Class<?> each = clazz; Serializable.class.isAssignableFrom(each); each = each.getSuperclass())
+				classes.add(0, each);
+			fields = new ArrayList<>();
+			for (Class<?> each: classes) {
+				List<Field> declaredFields = new ArrayList<>(Arrays.asList(each.getDeclaredFields()));
+				declaredFields.sort(Comparator.comparing(Field::getName));
+				for (Field field: declaredFields) {
+					if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers())) {
+						field.setAccessible(true);
+						fields.add(field);
+					}
+				}
+			}
+			fieldsCache.put(clazz, fields);
+		}
+		return fields;
+	}
+	
+	private static void writeVarLong(DataOutputStream output, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			output.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		output.writeByte((int) value);
+	}
+	
+	private static long readVarLong(DataInputStream input) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = input.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed variable length integer");
+	}
+	
+	private static void writeVarInt(DataOutputStream output, int value) throws IOException {
+		writeVarLong(output, value & 0xFFFFFFFFL);
+	}
+	
+	private static int readVarInt(DataInputStream input) throws IOException {
+		return (int) readVarLong(input);
+	}
+	
+	private static class Encoder {
+		
+		private final Map<String, Integer> strings = new HashMap<>();
+		
+		private final Map<Class<?>, Integer> classes = new HashMap<>();
+		
+		private final Map<Object, Integer> objects = new IdentityHashMap<>();
+		
+		private final List<Integer> objectClasses = new ArrayList<>();
+		
+		private final Queue<Object> pendingObjects = new ArrayDeque<>();
+		
+		private final ByteArrayOutputStream valuesBuffer = new ByteArrayOutputStream();
+		
+		private final DataOutputStream values = new DataOutputStream(valuesBuffer);
+		
+		byte[] encode(List<?> list) throws IOException {
+			writeVarInt(values, list.size());
+			for (Object element: list)
+				writeValue(element);
+			
+			Object object;
+			while ((object = pendingObjects.poll()) != null) {
+				for (Field field: getFields(object.getClass())) {
+					try {
+						if (field.getType().isPrimitive())
+							writePrimitive(field, object);
+						else
+							writeValue(field.get(object));
+					} catch (IllegalAccessException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			}
+			
+			// Field descriptors may add strings, so encode class table before writing string table
+			ByteArrayOutputStream classesBuffer = new ByteArrayOutputStream();
+			DataOutputStream classesOutput = new DataOutputStream(classesBuffer);
+			Class<?>[] classArray = new Class<?>[classes.size()];
+			for (Map.Entry<Class<?>, Integer> entry: classes.entrySet())
+				classArray[entry.getValue()] = entry.getKey();
+			writeVarInt(classesOutput, classArray.length);
+			for (Class<?> clazz: classArray) {
+				writeVarInt(classesOutput, intern(clazz.getName()));
+				List<Field> fields = getFields(clazz);
+				writeVarInt(classesOutput, fields.size());
+				for (Field field: fields) {
+					writeVarInt(classesOutput, intern(field.getDeclaringClass().getName()));
+					writeVarInt(classesOutput, intern(field.getName()));
+				}
+			}
+			
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream(valuesBuffer.size() + classesBuffer.size() + 1024);
+			DataOutputStream output = new DataOutputStream(buffer);
+			writeVarInt(output, VERSION);
+			String[] stringArray = new String[strings.size()];
+			for (Map.Entry<String, Integer> entry: strings.entrySet())
+				stringArray[entry.getValue()] = entry.getKey();
+			writeVarInt(output, stringArray.length);
+			for (String string: stringArray) {
+				byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+				writeVarInt(output, bytes.length);
+				output.write(bytes);
+			}
+			classesBuffer.writeTo(output);
+			writeVarInt(output, objectClasses.size());
+			for (int classIndex: objectClasses)
+				writeVarInt(output, classIndex);
+			valuesBuffer.writeTo(output);
+			output.flush();
+			return buffer.toByteArray();
+		}
+		
+		private int intern(String string) {
+			Integer index = strings.get(string);
+			if (index == null) {
+				index = strings.size();
+				strings.put(string, index);
+			}
+			return index;
+		}
+		
+		/*
+		 * Type of primitive fields is known when decoding, so value is written without type 
+		 */
+		private void writePrimitive(Field field, Object object) throws IOException, IllegalAccessException {
+			Class<?> type = field.getType();
+			if (type == int.class || type == short.class || type == byte.class || type == char.class) {
+				int value = type == char.class? field.getChar(object): field.getInt(object);
+				writeVarInt(values, (value << 1) ^ (value >> 31));
+			} else if (type == long.class) {
+				long value = field.getLong(object);
+				writeVarLong(values, (value << 1) ^ (value >> 63));
+			} else if (type == boolean.class) {
+				values.writeBoolean(field.getBoolean(object));
+			} else if (type == float.class) {
+				values.writeFloat(field.getFloat(object));
+			} else {
+				values.writeDouble(field.getDouble(object));
+			}
+		}
+		
+		private void writeValue(Object value) throws IOException {
+			if (value == null) {
+				values.writeByte(NULL);
+			} else if (value instanceof String) {
+				values.writeByte(STRING);
+				writeVarInt(values, intern((String) value));
+			} else if (value instanceof Integer) {
+				int intValue = (Integer) value;
+				values.writeByte(INT);
+				writeVarInt(values, (intValue << 1) ^ (intValue >> 31));
+			} else if (value instanceof Long) {
+				long longValue = (Long) value;
+				values.writeByte(LONG);
+				writeVarLong(values, (longValue << 1) ^ (longValue >> 63));
+			} else if (value instanceof Boolean) {
+				values.writeByte((Boolean) value? TRUE: FALSE);
+			} else if (value instanceof Enum) {
+				Enum<?> enumValue = (Enum<?>) value;
+				values.writeByte(ENUM);
+				writeVarInt(values, intern(enumValue.getDeclaringClass().getName()));
+				writeVarInt(values, intern(enumValue.name()));
+			} else if (value.getClass() == ArrayList.class) {
+				List<?> list = (List<?>) value;
+				values.writeByte(LIST);
+				writeVarInt(values, list.size());
+				for (Object element: list)
+					writeValue(element);
+			} else if (isEncodedByFields(value.getClass())) {
+				Integer index = objects.get(value);
+				if (index == null) {
+					index = objects.size();
+					objects.put(value, index);
+					Integer classIndex = classes.get(value.getClass());
+					if (classIndex == null) {
+						classIndex = classes.size();
+						classes.put(value.getClass(), classIndex);
+					}
+					objectClasses.add(classIndex);
+					pendingObjects.add(value);
+				}
+				values.writeByte(OBJECT);
+				writeVarInt(values, index);
+			} else if (value instanceof Serializable) {
+				byte[] bytes = SerializationUtils.serialize((Serializable) value);
+				values.writeByte(SERIALIZED);
+				writeVarInt(values, bytes.length);
+				values.write(bytes);
+			} else {
+				throw new IllegalArgumentException("Unable to encode value of type: " + value.getClass().getName());
+			}
+		}
+	
+	}
+	
+	private static class Decoder {
+		
+		private final DataInputStream input;
+		
+		private String[] strings;
+		
+		private Object[] objects;
+		
+		Decoder(byte[] bytes, int offset, int length) {
+			input = new DataInputStream(new ByteArrayInputStream(bytes, offset, length));
+		}
+		
+		List<Object> decode() throws IOException, ReflectiveOperationException {
+			int version = readVarInt(input);
+			if (version != VERSION)
+				throw new IOException("Unsupported symbol list encoding version: " + version);
+			
+			strings = new String[readVarInt(input)];
+			for (int i=0; i<strings.length; i++) {
+				byte[] bytes = new byte[readVarInt(input)];
+				input.readFully(bytes);
+				strings[i] = new String(bytes, StandardCharsets.UTF_8);
+			}
+			
+			@SuppressWarnings("unchecked")
+			List<Field>[] classFields = new List[readVarInt(input)];
+			Class<?>[] classes = new Class<?>[classFields.length];
+			for (int i=0; i<classes.length; i++) {
+				classes[i] = loadClass(strings[readVarInt(input)]);
+				Map<String, Field> fieldMap = new HashMap<>();
+				for (Field field: getFields(classes[i]))
+					fieldMap.put(field.getDeclaringClass().getName() + "." + field.getName(), field);
+				List<Field> fields = new ArrayList<>();
+				int fieldCount = readVarInt(input);
+				for (int j=0; j<fieldCount; j++) {
+					String fieldKey = strings[readVarInt(input)] + "." + strings[readVarInt(input)];
+					Field field = fieldMap.get(fieldKey);
+					if (field == null)
+						throw new NoSuchFieldException(fieldKey);
+					fields.add(field);
+				}
+				classFields[i] = fields;
+			}
+			
+			int[] objectClasses = new int[readVarInt(input)];
+			objects = new Object[objectClasses.length];
+			for (int i=0; i<objects.length; i++) {
+				objectClasses[i] = readVarInt(input);
+				objects[i] = objenesis.newInstance(classes[objectClasses[i]]);
+			}
+			
+			int size = readVarInt(input);
+			List<Object> list = new ArrayList<>(size);
+			for (int i=0; i<size; i++)
+				list.add(readValue());
+			
+			for (int i=0; i<objects.length; i++) {
+				for (Field field: classFields[objectClasses[i]]) {
+					if (field.getType().isPrimitive())
+						readPrimitive(field, objects[i]);
+					else
+						field.set(objects[i], readValue());
+				}
+			}
+			return list;
+		}
+		
+		private Class<?> loadClass(String className) throws ClassNotFoundException {
+			return Class.forName(className, false, SymbolListCodec.class.getClassLoader());
+		}
+		
+		private void readPrimitive(Field field, Object object) throws IOException, IllegalAccessException {
+			Class<?> type = field.getType();
+			if (type == int.class || type == short.class || type == byte.class || type == char.class) {
+				int encoded = readVarInt(input);
+				int value = (encoded >>> 1) ^ -(encoded & 1);
+				if (type == int.class)
+					field.setInt(object, value);
+				else if (type == short.class)
+					field.setShort(object, (short) value);
+				else if (type == byte.class)
+					field.setByte(object, (byte) value);
+				else
+					field.setChar(object, (char) value);
+			} else if (type == long.class) {
+				long encoded = readVarLong(input);
+				field.setLong(object, (encoded >>> 1) ^ -(encoded & 1));
+			} else if (type == boolean.class) {
+				field.setBoolean(object, input.readBoolean());
+			} else if (type == float.class) {
+				field.setFloat(object, input.readFloat());
+			} else {
+				field.setDouble(object, input.readDouble());
+			}
+		}
+		
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private Object readValue() throws IOException, ReflectiveOperationException {
+			int type = input.readUnsignedByte();
+			switch (type) {
+			case NULL:
+				return null;
+			case OBJECT:
+				return objects[readVarInt(input)];
+			case STRING:
+				return strings[readVarInt(input)];
+			case INT:
+				int intValue = readVarInt(input);
+				return (intValue >>> 1) ^ -(intValue & 1);
+			case LONG:
+				long longValue = readVarLong(input);
+				return (longValue >>> 1) ^ -(longValue & 1);
+			case TRUE:
+				return true;
+			case FALSE:
+				return false;
+			case ENUM:
+				Class enumClass = loadClass(strings[readVarInt(input)]);
+				return Enum.valueOf(enumClass, strings[readVarInt(input)]);
+			case LIST:
+				int size = readVarInt(input);
+				List<Object> list = new ArrayList<>(size);
+				for (int i=0; i<size; i++)
+					list.add(readValue());
+				return list;
+			case SERIALIZED:
+				byte[] bytes = new byte[readVarInt(input)];
+				input.readFully(bytes);
+				return SerializationUtils.deserialize(bytes);
+			default:
+				throw new IOException("Unexpected value type: " + type);
+			}
+		}
+	
+	}
+
+}
@@ -45,7 +45,8 @@ public class TextQuery extends BlobQuery {
 	
 	private final String fileNames;
 	
-	private transient Pattern pattern;
+	// volatile as blobs are verified concurrently
+	private transient volatile Pattern pattern;
 	
 	private TextQuery(String term, boolean regex, boolean caseSensitive, boolean wholeWord, 
 			@Nullable String directory, @Nullable String fileNames, int count) {
@@ -42,6 +42,15 @@ public class RegexLiterals {
 		rows = orLiterals.flattern(true);
 	}
 
+	/**
+	 * @return
+	 * 			rows of literals. Text matching the regex should contain all literals of 
+	 * 			some row. <tt>null</tt> literal in a row indicates an opaque occurrence 
+	 */
+	public List<List<LeafLiterals>> getRows() {
+		return rows;
+	}
+
 	/**
 	 * @param fieldName
 	 * @param gramSize
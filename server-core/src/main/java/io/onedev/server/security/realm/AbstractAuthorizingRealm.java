@@ -1,10 +1,5 @@
 package io.onedev.server.security.realm;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
 import java.util.concurrent.Callable;
 
 import javax.annotation.Nullable;
@@ -14,8 +9,7 @@ import org.apache.shiro.authz.AuthorizationInfo;
 import org.apache.shiro.authz.Permission;
 import org.apache.shiro.realm.AuthorizingRealm;
 import org.apache.shiro.subject.PrincipalCollection;
-import org.apache.wicket.MetaDataKey;
-import org.apache.wicket.request.cycle.RequestCycle;
+import org.hibernate.Hibernate;
 
 import com.google.common.collect.Sets;
 
@@ -27,6 +21,7 @@ import io.onedev.server.entitymanager.UserManager;
 import io.onedev.server.model.Group;
 import io.onedev.server.model.GroupAuthorization;
 import io.onedev.server.model.Project;
+import io.onedev.server.model.Role;
 import io.onedev.server.model.User;
 import io.onedev.server.model.UserAuthorization;
 import io.onedev.server.model.support.issue.field.spec.FieldSpec;
@@ -34,7 +29,6 @@ import io.onedev.server.persistence.SessionManager;
 import io.onedev.server.security.permission.AccessBuildLog;
 import io.onedev.server.security.permission.EditIssueField;
 import io.onedev.server.security.permission.JobPermission;
-import io.onedev.server.security.permission.ProjectPermission;
 import io.onedev.server.security.permission.ReadCode;
 import io.onedev.server.security.permission.SystemAdministration;
 import io.onedev.server.security.permission.UserAdministration;
@@ -51,108 +45,81 @@ public abstract class AbstractAuthorizingRealm extends AuthorizingRealm {
     
     protected final SettingManager settingManager;
     
-    @SuppressWarnings("serial")
-	private static final MetaDataKey<Map<Long, AuthorizationInfo>> AUTHORIZATION_INFOS = 
-			new MetaDataKey<Map<Long, AuthorizationInfo>>() {};    
+    protected final AuthorizationCache authorizationCache;
     
 	@Inject
     public AbstractAuthorizingRealm(UserManager userManager, GroupManager groupManager, 
     		ProjectManager projectManager, SessionManager sessionManager, 
-    		SettingManager settingManager) {
+    		SettingManager settingManager, AuthorizationCache authorizationCache) {
     	this.userManager = userManager;
     	this.groupManager = groupManager;
     	this.projectManager = projectManager;
     	this.sessionManager = sessionManager;
     	this.settingManager = settingManager;
+    	this.authorizationCache = authorizationCache;
     }
 
-	private Collection<Permission> getGroupPermissions(Group group, @Nullable User user) {
-		Collection<Permission> permissions = new ArrayList<>();
+	private void addGroupPermissions(AuthorizationSnapshot snapshot, Group group, @Nullable User user) {
 		if (group.isAdministrator()) {
 			if (user != null) {
-				permissions.add(new SystemAdministration());
+				snapshot.addPermission(new SystemAdministration());
 			} else {
-				for (Project project: projectManager.query()) {
-					permissions.add(new ProjectPermission(project, new ReadCode()));
-					for (FieldSpec field: OneDev.getInstance(SettingManager.class).getIssueSetting().getFieldSpecs())
-						permissions.add(new ProjectPermission(project, new EditIssueField(Sets.newHashSet(field.getName()))));
-					permissions.add(new ProjectPermission(project, new JobPermission("*", new AccessBuildLog())));
-				}
+				snapshot.addPrivilege(new ReadCode());
+				for (FieldSpec field: OneDev.getInstance(SettingManager.class).getIssueSetting().getFieldSpecs())
+					snapshot.addPrivilege(new EditIssueField(Sets.newHashSet(field.getName())));
+				snapshot.addPrivilege(new JobPermission("*", new AccessBuildLog()));
 			}
 		}
 		for (GroupAuthorization authorization: group.getAuthorizations()) 
-			permissions.add(new ProjectPermission(authorization.getProject(), authorization.getRole()));
-		return permissions;
+			addPrivilege(snapshot, authorization.getProject(), authorization.getRole());
+	}
+	
+	private void addPrivilege(AuthorizationSnapshot snapshot, Project project, Role role) {
+		// Role is checked after session is closed, so make sure it is not a lazy proxy
+		snapshot.addPrivilege(project.getId(), (Role) Hibernate.unproxy(role));
 	}
 	
 	private AuthorizationInfo newAuthorizationInfo(Long userId) {
-		Collection<Permission> permissions = sessionManager.call(new Callable<Collection<Permission>>() {
+		return sessionManager.call(new Callable<AuthorizationInfo>() {
 
 			@Override
-			public Collection<Permission> call() throws Exception {
-				Collection<Permission> permissions = new ArrayList<>();
+			public AuthorizationInfo call() throws Exception {
+				AuthorizationSnapshot snapshot = new AuthorizationSnapshot();
 
 		        if (userId != 0L) { 
 		            User user = userManager.load(userId);
 		        	if (user.isRoot() || user.isSystem()) 
-		        		permissions.add(new SystemAdministration());
-		        	permissions.add(new UserAdministration(user));
+		        		snapshot.addPermission(new SystemAdministration());
+		        	snapshot.addPermission(new UserAdministration(user));
 		           	for (Group group: user.getGroups())
-		           		permissions.addAll(getGroupPermissions(group, user));
+		           		addGroupPermissions(snapshot, group, user);
 		        	for (UserAuthorization authorization: user.getAuthorizations()) 
-    					permissions.add(new ProjectPermission(authorization.getProject(), authorization.getRole()));
+    					addPrivilege(snapshot, authorization.getProject(), authorization.getRole());
 		        } 
 		        if (userId != 0L || settingManager.getSecuritySetting().isEnableAnonymousAccess()) {
 			        for (Project project: projectManager.query()) {
 			        	if (project.getDefaultRole() != null)
-			        		permissions.add(new ProjectPermission(project, project.getDefaultRole()));
+			        		addPrivilege(snapshot, project, project.getDefaultRole());
 			        }
 		        }
-				return permissions;
+				return snapshot;
 			}
 			
 		});
-		
-		return new AuthorizationInfo() {
-			
-			private static final long serialVersionUID = 1L;
-
-			@Override
-			public Collection<String> getStringPermissions() {
-				return new HashSet<>();
-			}
-			
-			@Override
-			public Collection<String> getRoles() {
-				return new HashSet<>();
-			}
-			
-			@Override
-			public Collection<Permission> getObjectPermissions() {
-				return permissions;
-			}
-		};		
 	}
 	
 	@Override
 	protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals) {
-		Long userId = (Long) principals.getPrimaryPrincipal();						
-		RequestCycle requestCycle = RequestCycle.get();
-		if (requestCycle != null) {
-			Map<Long, AuthorizationInfo> authorizationInfos = requestCycle.getMetaData(AUTHORIZATION_INFOS);
-			if (authorizationInfos == null) {
-				authorizationInfos = new HashMap<>();
-				requestCycle.setMetaData(AUTHORIZATION_INFOS, authorizationInfos);
-			}
-			AuthorizationInfo authorizationInfo = authorizationInfos.get(userId);
-			if (authorizationInfo == null) {
-				authorizationInfo = newAuthorizationInfo(userId);
-				authorizationInfos.put(userId, authorizationInfo);
-			}
-			return authorizationInfo;
-		} else {
-			return newAuthorizationInfo(userId);
-		}
+		Long userId = (Long) principals.getPrimaryPrincipal();
+		return authorizationCache.get(userId, this::newAuthorizationInfo);
+	}
+	
+	@Override
+	protected boolean isPermitted(Permission permission, AuthorizationInfo info) {
+		if (info instanceof AuthorizationSnapshot)
+			return ((AuthorizationSnapshot) info).implies(permission);
+		else
+			return super.isPermitted(permission, info);
 	}
 
 }
\ No newline at end of file
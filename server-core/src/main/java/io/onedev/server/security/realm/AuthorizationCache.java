@@ -0,0 +1,128 @@
+package io.onedev.server.security.realm;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.shiro.authz.AuthorizationInfo;
+
+import io.onedev.commons.launcher.loader.Listen;
+import io.onedev.server.event.entity.EntityEvent;
+import io.onedev.server.event.entity.EntityPersisted;
+import io.onedev.server.event.entity.EntityRemoved;
+import io.onedev.server.model.Group;
+import io.onedev.server.model.GroupAuthorization;
+import io.onedev.server.model.Membership;
+import io.onedev.server.model.Project;
+import io.onedev.server.model.Role;
+import io.onedev.server.model.Setting;
+import io.onedev.server.model.Setting.Key;
+import io.onedev.server.model.User;
+import io.onedev.server.model.UserAuthorization;
+import io.onedev.server.persistence.TransactionManager;
+import io.onedev.server.persistence.annotation.Transactional;
+
+/**
+ * Authorization infos of users shared by all realms across requests. Cached infos are
+ * invalidated when entities affecting authorization are changed. Invalidation happens
+ * both at time of change and after transaction commit, so that an info loaded while
+ * the change is not yet visible will not stay in cache.
+ */
+@Singleton
+public class AuthorizationCache {
+
+	private final TransactionManager transactionManager;
+
+	private final Map<Long, AuthorizationInfo> authorizationInfos = new ConcurrentHashMap<>();
+
+	private long version;
+
+	@Inject
+	public AuthorizationCache(TransactionManager transactionManager) {
+		this.transactionManager = transactionManager;
+	}
+
+	public AuthorizationInfo get(Long userId, Function<Long, AuthorizationInfo> loader) {
+		AuthorizationInfo authorizationInfo = authorizationInfos.get(userId);
+		if (authorizationInfo == null) {
+			long versionBeforeLoad;
+			synchronized (this) {
+				versionBeforeLoad = version;
+			}
+			authorizationInfo = loader.apply(userId);
+			synchronized (this) {
+				// Do not cache info loaded while cache is invalidated
+				if (version == versionBeforeLoad)
+					authorizationInfos.put(userId, authorizationInfo);
+			}
+		}
+		return authorizationInfo;
+	}
+
+	/**
+	 * Get version of cached authorizations. Version changes each time cache is invalidated, 
+	 * and can be used to validate data derived from authorizations
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	private synchronized void invalidate(Long userId) {
+		version++;
+		authorizationInfos.remove(userId);
+	}
+
+	private synchronized void invalidateAll() {
+		version++;
+		authorizationInfos.clear();
+	}
+
+	private void onChange(EntityEvent event) {
+		if (event.getEntity() instanceof User) {
+			Long userId = event.getEntity().getId();
+			invalidate(userId);
+			transactionManager.runAfterCommit(new Runnable() {
+
+				@Override
+				public void run() {
+					invalidate(userId);
+				}
+
+			});
+		} else if (event.getEntity() instanceof Group
+				|| event.getEntity() instanceof Membership
+				|| event.getEntity() instanceof UserAuthorization
+				|| event.getEntity() instanceof GroupAuthorization
+				|| event.getEntity() instanceof Role
+				|| event.getEntity() instanceof Project
+				|| event.getEntity() instanceof Setting
+						&& (((Setting) event.getEntity()).getKey() == Key.SECURITY
+								|| ((Setting) event.getEntity()).getKey() == Key.ISSUE)) {
+			invalidateAll();
+			transactionManager.runAfterCommit(new Runnable() {
+
+				@Override
+				public void run() {
+					invalidateAll();
+				}
+
+			});
+		}
+	}
+
+	@Transactional
+	@Listen
+	public void on(EntityPersisted event) {
+		onChange(event);
+	}
+
+	@Transactional
+	@Listen
+	public void on(EntityRemoved event) {
+		onChange(event);
+	}
+
+}
@@ -0,0 +1,93 @@
+package io.onedev.server.security.realm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.Permission;
+
+import io.onedev.server.security.permission.ProjectPermission;
+
+/**
+ * Authorization info of a user with project privileges indexed by project id, so that
+ * checking permission of a project does not need to go through permissions of all other
+ * projects. Project entities are not referenced, and the snapshot can be shared across
+ * requests and sessions until it is invalidated.
+ */
+class AuthorizationSnapshot implements AuthorizationInfo {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Collection<Permission> permissions = new ArrayList<>();
+
+	private final Collection<Permission> privilegesOfAllProjects = new ArrayList<>();
+
+	private final Map<Long, Collection<Permission>> privilegesOfProjects = new HashMap<>();
+
+	public void addPermission(Permission permission) {
+		permissions.add(permission);
+	}
+
+	public void addPrivilege(Permission privilege) {
+		privilegesOfAllProjects.add(privilege);
+	}
+
+	public void addPrivilege(Long projectId, Permission privilege) {
+		Collection<Permission> privileges = privilegesOfProjects.get(projectId);
+		if (privileges == null) {
+			privileges = new ArrayList<>();
+			privilegesOfProjects.put(projectId, privileges);
+		}
+		privileges.add(privilege);
+	}
+
+	public boolean implies(Permission permission) {
+		for (Permission each: permissions) {
+			if (each.implies(permission))
+				return true;
+		}
+		if (permission instanceof ProjectPermission) {
+			ProjectPermission projectPermission = (ProjectPermission) permission;
+			if (implies(privilegesOfAllProjects, projectPermission.getPrivilege()))
+				return true;
+			Long projectId = projectPermission.getProject().getId();
+			if (projectId != null) {
+				Collection<Permission> privileges = privilegesOfProjects.get(projectId);
+				if (privileges != null && implies(privileges, projectPermission.getPrivilege()))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean implies(Collection<Permission> privileges, Permission privilege) {
+		for (Permission each: privileges) {
+			if (each.implies(privilege))
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public Collection<String> getStringPermissions() {
+		return new HashSet<>();
+	}
+
+	@Override
+	public Collection<String> getRoles() {
+		return new HashSet<>();
+	}
+
+	/**
+	 * Project privileges are not included here as they are looked up by project id
+	 * in {@link #implies(Permission)}
+	 */
+	@Override
+	public Collection<Permission> getObjectPermissions() {
+		return permissions;
+	}
+
+}
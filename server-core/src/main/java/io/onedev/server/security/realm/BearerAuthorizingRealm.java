@@ -21,8 +21,10 @@ public class BearerAuthorizingRealm extends AbstractAuthorizingRealm {
 	@Inject
     public BearerAuthorizingRealm(UserManager userManager, GroupManager groupManager, 
     		ProjectManager projectManager, SessionManager sessionManager, 
-    		SettingManager settingManager) {
-		super(userManager, groupManager, projectManager, sessionManager, settingManager);
+    		SettingManager settingManager, 
+    		AuthorizationCache authorizationCache) {
+		super(userManager, groupManager, projectManager, sessionManager, settingManager, 
+				authorizationCache);
 		setCredentialsMatcher(new AllowAllCredentialsMatcher());
     }
 
@@ -0,0 +1,377 @@
+package io.onedev.server.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.io.IOUtils;
+
+import io.onedev.commons.utils.ExceptionUtils;
+import io.onedev.commons.utils.FileUtils;
+
+/**
+ * A size limited cache saving each entry as a file in specified directory. Entries are
+ * identified by keys which are relative paths of entry files, and least recently used
+ * entries are removed when total size exceeds the limit. Entries are generated into a
+ * temporary file first and then moved into place, so that a crash while generating never
+ * leaves a partially written entry. Concurrent requests of the same missing entry are
+ * collapsed into a single generation.
+ */
+public class DiskCache {
+	
+	private static final String TEMP_SUFFIX = ".tmp";
+	
+	private final File dir;
+	
+	private final long maxSize;
+	
+	// entry key to file size, ordered from least recently used to most recently used
+	private final Map<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+	
+	private final Map<String, Generation> generations = new HashMap<>();
+	
+	private long size;
+	
+	/**
+	 * @param dir
+	 * 			directory to save cache entries
+	 * @param maxSize
+	 * 			max total size of cache entries in bytes. The most recently used entry is
+	 * 			always kept even if its size exceeds this limit
+	 */
+	public DiskCache(File dir, long maxSize) {
+		this.dir = dir;
+		this.maxSize = maxSize;
+	}
+	
+	/**
+	 * Load entries left in cache directory since last run. Temporary files of interrupted
+	 * generations are deleted
+	 */
+	public synchronized void load() {
+		FileUtils.createDir(dir);
+		List<File> files = new ArrayList<>();
+		listFiles(dir, files);
+		files.sort(Comparator.comparingLong(File::lastModified));
+		for (File file: files) {
+			if (file.getName().endsWith(TEMP_SUFFIX)) {
+				FileUtils.deleteFile(file);
+			} else {
+				String key = dir.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+				if (!entries.containsKey(key)) {
+					entries.put(key, file.length());
+					size += file.length();
+				}
+			}
+		}
+		evict();
+	}
+	
+	private void listFiles(File dir, List<File> files) {
+		for (File file: dir.listFiles()) {
+			if (file.isDirectory())
+				listFiles(file, files);
+			else
+				files.add(file);
+		}
+	}
+	
+	private void evict() {
+		for (Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+				size > maxSize && entries.size() > 1 && it.hasNext();) {
+			Map.Entry<String, Long> entry = it.next();
+			it.remove();
+			size -= entry.getValue();
+			FileUtils.deleteFile(new File(dir, entry.getKey()));
+		}
+	}
+	
+	/**
+	 * Remove entries with keys starting with specified prefix. Entries being generated when
+	 * this method is called are discarded, and callers waiting for them will generate again
+	 */
+	public synchronized void invalidate(String keyPrefix) {
+		for (Map.Entry<String, Generation> entry: generations.entrySet()) {
+			if (entry.getKey().startsWith(keyPrefix))
+				entry.getValue().discarded = true;
+		}
+		for (Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, Long> entry = it.next();
+			if (entry.getKey().startsWith(keyPrefix)) {
+				it.remove();
+				size -= entry.getValue();
+				FileUtils.deleteFile(new File(dir, entry.getKey()));
+			}
+		}
+	}
+	
+	/**
+	 * Get file of specified entry, generating it if not cached yet
+	 *
+	 * @param key
+	 * 			key of the entry
+	 * @param generator
+	 * 			generator to generate the entry if not cached
+	 * @return
+	 * 			file of the entry. Note that the file may be removed any time after this
+	 * 			method returns if other entries are added to the cache, or if the cache is
+	 * 			invalidated
+	 */
+	public File get(String key, Generator generator) {
+		try {
+			return get(key, generator, null);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Open file of specified entry for reading, generating the entry if not cached yet. The 
+	 * file is opened before it can be removed from the cache, and the returned channel stays 
+	 * readable even if the entry is removed afterwards
+	 *
+	 * @param key
+	 * 			key of the entry
+	 * @param generator
+	 * 			generator to generate the entry if not cached
+	 * @return
+	 * 			channel of the entry file. Caller is responsible for closing the channel
+	 */
+	public FileChannel open(String key, Generator generator) {
+		while (true) {
+			File file = get(key, generator);
+			synchronized (this) {
+				if (entries.containsKey(key)) {
+					try {
+						return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+					} catch (NoSuchFileException e) {
+						// Removed by other processes, try again
+						size -= entries.remove(key);
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Write content of specified entry to specified output, generating the entry if not
+	 * cached yet. Content is written to the output while being generated, so that the
+	 * caller does not need to wait for the generation to finish. Generation continues
+	 * even if the output fails, so that other callers waiting for the same entry are not
+	 * affected
+	 *
+	 * @param key
+	 * 			key of the entry
+	 * @param generator
+	 * 			generator to generate the entry if not cached
+	 * @param output
+	 * 			output to write content of the entry to
+	 * @throws IOException
+	 * 			if error occurs writing to the output
+	 */
+	public void write(String key, Generator generator, OutputStream output) throws IOException {
+		while (true) {
+			File file = get(key, generator, output);
+			if (file == null)
+				return;
+			try (InputStream is = new FileInputStream(file)) {
+				IOUtils.copy(is, output);
+				return;
+			} catch (FileNotFoundException e) {
+				// Removed by other entries since we got it, try again
+			}
+		}
+	}
+	
+	@Nullable
+	private File get(String key, Generator generator, @Nullable OutputStream output) throws IOException {
+		while (true) {
+			Generation generation;
+			boolean generate = false;
+			synchronized (this) {
+				File file = new File(dir, key);
+				if (entries.get(key) != null) {
+					if (file.exists()) {
+						// Record access time so that LRU order survives server restart
+						file.setLastModified(System.currentTimeMillis());
+						return file;
+					} else {
+						size -= entries.remove(key);
+					}
+				}
+				generation = generations.get(key);
+				if (generation == null) {
+					generation = new Generation();
+					generations.put(key, generation);
+					generate = true;
+				}
+			}
+			
+			File file;
+			if (generate) {
+				TeeOutputStream tee = output != null? new TeeOutputStream(output): null;
+				try {
+					file = generate(key, generator, tee, generation);
+					generation.future.complete(file);
+				} catch (Exception e) {
+					generation.future.completeExceptionally(e);
+					throw ExceptionUtils.unchecked(e);
+				} finally {
+					synchronized (this) {
+						generations.remove(key);
+					}
+				}
+				if (tee != null) {
+					if (tee.error != null)
+						throw tee.error;
+					return null;
+				}
+			} else {
+				try {
+					file = generation.future.get();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				} catch (ExecutionException e) {
+					throw ExceptionUtils.unchecked(e.getCause());
+				}
+			}
+			
+			// Generation is discarded if cache is invalidated while generating, try again 
+			if (file != null)
+				return file;
+		}
+	}
+	
+	@Nullable
+	private File generate(String key, Generator generator, @Nullable TeeOutputStream tee, 
+			Generation generation) throws Exception {
+		File file = new File(dir, key);
+		FileUtils.createDir(file.getParentFile());
+		File tempFile = new File(file.getParentFile(), UUID.randomUUID().toString() + TEMP_SUFFIX);
+		try {
+			try (OutputStream os = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+				if (tee != null) {
+					tee.cacheOutput = os;
+					generator.generate(tee);
+				} else {
+					generator.generate(os);
+				}
+			}
+			synchronized (this) {
+				if (!generation.discarded) {
+					Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+							StandardCopyOption.REPLACE_EXISTING);
+					Long oldSize = entries.put(key, file.length());
+					if (oldSize != null)
+						size -= oldSize;
+					size += file.length();
+					evict();
+					return file;
+				} else {
+					FileUtils.deleteFile(tempFile);
+					return null;
+				}
+			}
+		} catch (Exception e) {
+			FileUtils.deleteFile(tempFile);
+			throw e;
+		}
+	}
+	
+	public synchronized long getSize() {
+		return size;
+	}
+	
+	private static class Generation {
+		
+		final CompletableFuture<File> future = new CompletableFuture<>();
+		
+		boolean discarded;
+	
+	}
+	
+	public static interface Generator {
+		
+		void generate(OutputStream os) throws Exception;
+	
+	}
+	
+	/*
+	 * Writes to cache file and caller output. Errors of caller output are recorded instead
+	 * of thrown so that generation of the cache file continues
+	 */
+	private static class TeeOutputStream extends OutputStream {
+		
+		private final OutputStream callerOutput;
+		
+		private OutputStream cacheOutput;
+		
+		private IOException error;
+		
+		TeeOutputStream(OutputStream callerOutput) {
+			this.callerOutput = callerOutput;
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			cacheOutput.write(b);
+			if (error == null) {
+				try {
+					callerOutput.write(b);
+				} catch (IOException e) {
+					error = e;
+				}
+			}
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			cacheOutput.write(b, off, len);
+			if (error == null) {
+				try {
+					callerOutput.write(b, off, len);
+				} catch (IOException e) {
+					error = e;
+				}
+			}
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			cacheOutput.flush();
+			if (error == null) {
+				try {
+					callerOutput.flush();
+				} catch (IOException e) {
+					error = e;
+				}
+			}
+		}
+	
+	}
+
+}
@@ -0,0 +1,158 @@
+package io.onedev.server.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.utils.FileUtils;
+
+/**
+ * A durable queue saving each element as a file in specified directory, so that queued
+ * elements survive server restart. Elements are identified by increasing ids assigned
+ * when they are added, and are loaded back in order of their ids. Element files are
+ * written to a temporary file first, forced to disk, and then moved into place, so that 
+ * an element is persisted once {@link #add(Serializable)} or {@link #update(long, Serializable)} 
+ * returns, and a crash while writing never leaves a partially written element. The move 
+ * itself is synced by syncing the directory where supported by the platform. Removal is 
+ * not synced, so an element removed right before a crash may be loaded again after restart.
+ * <p>
+ * Writing and removing elements of different ids do not block each other. Caller should 
+ * not write and remove the same element concurrently.
+ */
+public class FileQueue<T extends Serializable> {
+	
+	private static final Logger logger = LoggerFactory.getLogger(FileQueue.class);
+	
+	private static final String ELEMENT_SUFFIX = ".element";
+	
+	private static final String TEMP_SUFFIX = ".tmp";
+	
+	private final File dir;
+	
+	private final AtomicLong nextId = new AtomicLong(0);
+	
+	// Writes share the lock, while load holds it exclusively to not remove temporary files being written
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	public FileQueue(File dir) {
+		this.dir = dir;
+		FileUtils.createDir(dir);
+		for (File file: dir.listFiles()) {
+			Long id = getId(file);
+			if (id != null)
+				nextId.set(Math.max(nextId.get(), id+1));
+		}
+	}
+	
+	private File getFile(long id) {
+		return new File(dir, id + ELEMENT_SUFFIX);
+	}
+	
+	private Long getId(File file) {
+		String fileName = file.getName();
+		if (fileName.endsWith(ELEMENT_SUFFIX)) {
+			try {
+				return Long.valueOf(fileName.substring(0, fileName.length()-ELEMENT_SUFFIX.length()));
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		} else {
+			return null;
+		}
+	}
+	
+	private void write(long id, T element) {
+		File file = getFile(id);
+		File tempFile = new File(dir, file.getName() + TEMP_SUFFIX);
+		lock.readLock().lock();
+		try {
+			try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE, 
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer buffer = ByteBuffer.wrap(SerializationUtils.serialize(element));
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+				channel.force(true);
+			}
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			syncDir();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	private void syncDir() {
+		try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// Directories can not be opened or synced on some platforms such as Windows
+		}
+	}
+	
+	/**
+	 * Add specified element to the queue
+	 *
+	 * @return
+	 * 			id of added element
+	 */
+	public long add(T element) {
+		long id = nextId.getAndIncrement();
+		write(id, element);
+		return id;
+	}
+	
+	public void update(long id, T element) {
+		write(id, element);
+	}
+	
+	public void remove(long id) {
+		FileUtils.deleteFile(getFile(id));
+	}
+	
+	/**
+	 * Load all elements in the queue. Elements which can not be read are logged and
+	 * removed
+	 *
+	 * @return
+	 * 			map of element id to element, ordered by element id
+	 */
+	public Map<Long, T> load() {
+		lock.writeLock().lock();
+		try {
+			Map<Long, T> elements = new TreeMap<>();
+			for (File file: dir.listFiles()) {
+				Long id = getId(file);
+				if (id != null) {
+					try {
+						elements.put(id, SerializationUtils.deserialize(Files.readAllBytes(file.toPath())));
+					} catch (Exception e) {
+						logger.error("Error loading queued element, removing: " + file.getAbsolutePath(), e);
+						FileUtils.deleteFile(file);
+					}
+				} else if (file.getName().endsWith(TEMP_SUFFIX)) {
+					FileUtils.deleteFile(file);
+				}
+			}
+			return elements;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+package io.onedev.server.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+
+/**
+ * Projects permitted with certain permission, together with other projects existing at
+ * calculation time. Project ids are kept in bit sets to be compact, and predicate is
+ * generated from either permitted or denied ids, whichever is smaller.
+ */
+public class PermittedProjects {
+
+	private final BitSet permitted;
+
+	private final BitSet denied;
+
+	public PermittedProjects(BitSet permitted, BitSet denied) {
+		this.permitted = permitted;
+		this.denied = denied;
+	}
+
+	public boolean isPermitted(Long projectId) {
+		return permitted.get(Math.toIntExact(projectId));
+	}
+
+	public Collection<Long> getPermittedIds() {
+		return toIds(permitted);
+	}
+
+	public Collection<Long> getDeniedIds() {
+		return toIds(denied);
+	}
+
+	private Collection<Long> toIds(BitSet bits) {
+		Collection<Long> ids = new ArrayList<>(bits.cardinality());
+		for (int i = bits.nextSetBit(0); i != -1; i = bits.nextSetBit(i+1))
+			ids.add((long) i);
+		return ids;
+	}
+
+	public Predicate getPredicate(CriteriaBuilder builder, Path<Long> projectIdPath) {
+		if (permitted.cardinality() <= denied.cardinality()) {
+			if (!permitted.isEmpty())
+				return projectIdPath.in(getPermittedIds());
+			else
+				return builder.disjunction();
+		} else if (!denied.isEmpty()) {
+			return builder.not(projectIdPath.in(getDeniedIds()));
+		} else {
+			return builder.conjunction();
+		}
+	}
+
+}
@@ -3,6 +3,8 @@ package io.onedev.server.util;
 import java.io.File;
 import javax.annotation.Nullable;
 
+import io.onedev.server.util.work.WorkCategory;
+
 public interface ServerConfig {
 	
 	/**
@@ -45,4 +47,57 @@ public interface ServerConfig {
      */
     int getSshPort();
 	
+    /**
+     * Get max number of concurrently running batch works of specified category.
+     * <p>
+     * @return
+     * 			max number of concurrent works of specified category
+     */
+    int getWorkConcurrency(WorkCategory category);
+    
+    /**
+     * Get max size of cached repository archives in megabytes.
+     * <p>
+     * @return
+     * 			max size of cached repository archives in megabytes
+     */
+    int getArchiveCacheSize();
+    
+    /**
+     * Get max number of concurrently running git fetches (clone, fetch and pull) over http 
+     * and ssh. Fetches exceeding this limit are queued.
+     * <p>
+     * @return
+     * 			max number of concurrent git fetches
+     */
+    int getGitFetchConcurrency();
+    
+    /**
+     * Get max number of concurrently running git pushes over http and ssh. Pushes exceeding 
+     * this limit are queued.
+     * <p>
+     * @return
+     * 			max number of concurrent git pushes
+     */
+    int getGitPushConcurrency();
+    
+    /**
+     * Get max time in seconds a git fetch or push can wait in queue before being rejected 
+     * as server busy.
+     * <p>
+     * @return
+     * 			max queue time of git fetch or push in seconds
+     */
+    int getGitQueueTimeout();
+    
+    /**
+     * Get max size of cached git upload-pack responses in megabytes. Responses of identical 
+     * clone and fetch requests are served from this cache without running upload-pack again.
+     * <p>
+     * @return
+     * 			max size of cached upload-pack responses in megabytes, or <tt>0</tt> to disable 
+     * 			the cache
+     */
+    int getGitPackCacheSize();
+	
 }
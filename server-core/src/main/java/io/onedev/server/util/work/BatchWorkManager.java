@@ -6,4 +6,25 @@ public interface BatchWorkManager {
 
 	void submit(BatchWorker worker, Prioritized work);
 
+	/**
+	 * Get number of queued works of specified worker
+	 * 
+	 * @param workerId
+	 * 			id of the worker
+	 * @return
+	 * 			number of queued works, excluding those being worked on
+	 */
+	int getQueueLength(String workerId);
+	
+	/**
+	 * Get wait time of specified worker
+	 * 
+	 * @param workerId
+	 * 			id of the worker
+	 * @return
+	 * 			milliseconds the longest queued work of specified worker has been waiting, 
+	 * 			or <tt>0</tt> if there are no queued works
+	 */
+	long getWaitTime(String workerId);
+	
 }
@@ -13,14 +13,25 @@ public abstract class BatchWorker {
 	
 	private final String id;
 	
+	private final WorkCategory category;
+	
 	private final int maxBatchSize;
 	
-	public BatchWorker(String id, int maxBatchSize) {
+	public BatchWorker(String id, WorkCategory category, int maxBatchSize) {
 		this.id = id;
+		this.category = category;
 		Preconditions.checkArgument(maxBatchSize>=1);
 		this.maxBatchSize = maxBatchSize;
 	}
 	
+	public BatchWorker(String id, WorkCategory category) {
+		this(id, category, Integer.MAX_VALUE);
+	}
+	
+	public BatchWorker(String id, int maxBatchSize) {
+		this(id, WorkCategory.OTHERS, maxBatchSize);
+	}
+	
 	public BatchWorker(String id) {
 		this(id, Integer.MAX_VALUE);
 	}
@@ -29,6 +40,10 @@ public abstract class BatchWorker {
 		return id;
 	}
 	
+	public WorkCategory getCategory() {
+		return category;
+	}
+	
 	public int getMaxBatchSize() {
 		return maxBatchSize;
 	}
@@ -2,12 +2,14 @@ package io.onedev.server.util.work;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.PriorityBlockingQueue;
-import java.util.stream.Collectors;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -21,106 +23,205 @@ import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.server.event.system.SystemStarted;
 import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.security.SecurityUtils;
+import io.onedev.server.util.ServerConfig;
 import io.onedev.server.util.concurrent.Prioritized;
-import io.onedev.server.util.concurrent.PrioritizedRunnable;
 
+/**
+ * Works are scheduled per category with concurrency limit of each category. Inside a
+ * category, workers with queued works are picked by priority of their most important
+ * work, and workers with same priority are picked in the order they become ready. As
+ * a worker re-enters the ready set after finishing a batch, workers of different
+ * projects take turns instead of a busy project monopolizing the category.
+ */
 @Singleton
-public class DefaultBatchWorkManager implements BatchWorkManager, Runnable {
+public class DefaultBatchWorkManager implements BatchWorkManager {
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultBatchWorkManager.class);
 	
-	private final WorkExecutor workExecutor;
+	private final ExecutorService executorService;
 	
-	private final Map<BatchWorker, Works> works = new HashMap<>();
+	private final ServerConfig serverConfig;
 	
-	private Thread thread;
+	private final Map<String, Works> works = new HashMap<>();
+	
+	private final Map<WorkCategory, Category> categories = new EnumMap<>(WorkCategory.class);
+	
+	private long nextReadySequence;
+	
+	private boolean started;
 	
 	@Inject
-	public DefaultBatchWorkManager(WorkExecutor workExecutor) {
-		this.workExecutor = workExecutor;
+	public DefaultBatchWorkManager(ExecutorService executorService, ServerConfig serverConfig) {
+		this.executorService = executorService;
+		this.serverConfig = serverConfig;
 	}
 	
-	private Works getWorks(BatchWorker worker) {
-		Works worksOfWorker = works.get(worker);
-		if (worksOfWorker == null) {
-			worksOfWorker = new Works();
-			works.put(worker, worksOfWorker);
+	private Category getCategory(WorkCategory workCategory) {
+		Category category = categories.get(workCategory);
+		if (category == null) {
+			category = new Category(serverConfig.getWorkConcurrency(workCategory));
+			categories.put(workCategory, category);
 		}
-		return worksOfWorker;
+		return category;
 	}
 
 	@Listen
-	public void on(SystemStarted event) {
-		thread = new Thread(this);
-		thread.start();
+	public synchronized void on(SystemStarted event) {
+		started = true;
+		for (Category category: categories.values())
+			dispatch(category);
 	}
 
 	@Listen
 	public synchronized void on(SystemStopping event) {
-		thread = null;
-		notify();
+		started = false;
 	}
 
-	@Override
-	public synchronized void run() {
-		while (thread != null) {
-			for (Iterator<Map.Entry<BatchWorker, Works>> it = works.entrySet().iterator(); it.hasNext();) {
-				Map.Entry<BatchWorker, Works> entry = it.next();
-				BatchWorker worker = entry.getKey();
-				Works works = entry.getValue();
-				if (works.working.isEmpty()) {
-					works.queued.drainTo(works.working, worker.getMaxBatchSize());
-					if (!works.working.isEmpty()) {
-						double priority = works.working.stream().collect(Collectors.averagingInt(Prioritized::getPriority));
-						workExecutor.execute(new PrioritizedRunnable((int)priority) {
+	private void dispatch(Category category) {
+		while (started && category.running < category.concurrency && !category.ready.isEmpty()) {
+			Works worksOfWorker = category.ready.pollFirst();
+			List<Prioritized> batch = new ArrayList<>();
+			while (batch.size() < worksOfWorker.worker.getMaxBatchSize() && !worksOfWorker.queued.isEmpty())
+				batch.add(worksOfWorker.queued.poll().work);
+			worksOfWorker.running = true;
+			category.running++;
 							
-							@Override
-							public void run() {
-								try {
-									worker.doWorks(works.working);
-								} catch (Exception e) {
-									logger.error("Error doing works", e);
-								} finally {
-									synchronized(DefaultBatchWorkManager.this) {
-										works.working.clear();
-										DefaultBatchWorkManager.this.notify();
-									}
-								}
+			executorService.execute(new Runnable() {
+				
+				@Override
+				public void run() {
+					try {
+						worksOfWorker.worker.doWorks(batch);
+					} catch (Exception e) {
+						logger.error("Error doing works", e);
+					} finally {
+						synchronized(DefaultBatchWorkManager.this) {
+							worksOfWorker.running = false;
+							category.running--;
+							if (!worksOfWorker.queued.isEmpty()) {
+								worksOfWorker.readySequence = nextReadySequence++;
+								category.ready.add(worksOfWorker);
+							} else {
+								works.remove(worksOfWorker.worker.getId());
 							}
-							
-						});
-					} else {
-						it.remove();
+							dispatch(category);
+						}
 					}
 				}
-			}
-			try {
-				wait();
-			} catch (InterruptedException e) {
-			}
+			
+			});
 		}
 	}
 
 	@Override
 	public synchronized void submit(BatchWorker worker, Prioritized work) {
-		Subject subject = SecurityUtils.getSubject();
-		getWorks(new BatchWorker(worker.getId(), worker.getMaxBatchSize()) {
+		Works worksOfWorker = works.get(worker.getId());
+		if (worksOfWorker == null) {
+			Subject subject = SecurityUtils.getSubject();
+			worksOfWorker = new Works(new BatchWorker(worker.getId(), worker.getCategory(), worker.getMaxBatchSize()) {
 
-			@Override
-			public void doWorks(Collection<Prioritized> works) {
-				ThreadContext.bind(subject);
-				worker.doWorks(works);
-			}
+				@Override
+				public void doWorks(Collection<Prioritized> works) {
+					ThreadContext.bind(subject);
+					worker.doWorks(works);
+				}
 			
-		}).queued.offer(work);
+			});
+			works.put(worker.getId(), worksOfWorker);
+		}
+		
+		Category category = getCategory(worker.getCategory());
+		
+		/*
+		 * A worker is in the ready set if it is not running and has queued works. The set is 
+		 * ordered by most important queued work, so remove the worker before changing its queue  
+		 */
+		boolean ready = !worksOfWorker.running && !worksOfWorker.queued.isEmpty();
+		if (ready)
+			category.ready.remove(worksOfWorker);
+		worksOfWorker.queued.offer(new QueuedWork(work));
+		if (!worksOfWorker.running) {
+			if (!ready)
+				worksOfWorker.readySequence = nextReadySequence++;
+			category.ready.add(worksOfWorker);
+			dispatch(category);
+		}
+	}
+	
+	@Override
+	public synchronized int getQueueLength(String workerId) {
+		Works worksOfWorker = works.get(workerId);
+		return worksOfWorker != null? worksOfWorker.queued.size(): 0;
+	}
+	
+	@Override
+	public synchronized long getWaitTime(String workerId) {
+		Works worksOfWorker = works.get(workerId);
+		if (worksOfWorker != null && !worksOfWorker.queued.isEmpty()) {
+			long oldestQueueTime = Long.MAX_VALUE;
+			for (QueuedWork queuedWork: worksOfWorker.queued)
+				oldestQueueTime = Math.min(oldestQueueTime, queuedWork.queueTime);
+			return System.currentTimeMillis() - oldestQueueTime;
+		} else {
+			return 0;
+		}
+	}
+	
+	private static class QueuedWork implements Comparable<QueuedWork> {
+		
+		final Prioritized work;
 		
-		notify();
+		final long queueTime = System.currentTimeMillis();
+		
+		QueuedWork(Prioritized work) {
+			this.work = work;
+		}
+		
+		@Override
+		public int compareTo(QueuedWork o) {
+			return work.compareTo(o.work);
+		}
+	
 	}
 
 	private static class Works {
-		BlockingQueue<Prioritized> queued = new PriorityBlockingQueue<>();
 		
-		Collection<Prioritized> working = new ArrayList<>();
+		final BatchWorker worker;
+		
+		final PriorityQueue<QueuedWork> queued = new PriorityQueue<>();
+		
+		boolean running;
+		
+		long readySequence;
+		
+		Works(BatchWorker worker) {
+			this.worker = worker;
+		}
+	
+	}
+	
+	private static class Category {
+		
+		final int concurrency;
+		
+		final TreeSet<Works> ready = new TreeSet<>(new Comparator<Works>() {
+			
+			@Override
+			public int compare(Works o1, Works o2) {
+				int result = o1.queued.peek().compareTo(o2.queued.peek());
+				if (result == 0)
+					result = Long.compare(o1.readySequence, o2.readySequence);
+				return result;
+			}
+		
+		});
+		
+		int running;
+		
+		Category(int concurrency) {
+			this.concurrency = concurrency;
+		}
+	
 	}
 
 }
@@ -0,0 +1,32 @@
+package io.onedev.server.util.work;
+
+/**
+ * Category of batch works. Works of different categories are scheduled independently 
+ * with their own concurrency limits, so that flood of works in one category (for 
+ * instance indexing of many projects imported at once) does not starve others
+ * 
+ * @see io.onedev.server.util.ServerConfig#getWorkConcurrency(WorkCategory)
+ */
+public enum WorkCategory {
+	
+	INDEXING(Math.max(1, Runtime.getRuntime().availableProcessors()/2)),
+	
+	COMMIT_INFO(Math.max(1, Runtime.getRuntime().availableProcessors()/2)),
+	
+	PULL_REQUEST_INFO(Math.max(1, Runtime.getRuntime().availableProcessors()/4)),
+	
+	MERGE_PREVIEW(Math.max(1, Runtime.getRuntime().availableProcessors()/2)),
+	
+	OTHERS(Runtime.getRuntime().availableProcessors());
+	
+	private final int defaultConcurrency;
+	
+	WorkCategory(int defaultConcurrency) {
+		this.defaultConcurrency = defaultConcurrency;
+	}
+	
+	public int getDefaultConcurrency() {
+		return defaultConcurrency;
+	}
+	
+}
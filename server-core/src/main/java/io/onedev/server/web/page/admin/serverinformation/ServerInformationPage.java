@@ -9,8 +9,12 @@ import org.apache.wicket.markup.html.link.Link;
 import org.apache.wicket.model.LoadableDetachableModel;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 
+import io.onedev.server.OneDev;
+import io.onedev.server.buildspec.job.JobManager;
+import io.onedev.server.buildspec.job.JobSchedulerStatus;
 import io.onedev.server.util.DateUtils;
 import io.onedev.server.web.page.admin.AdministrationPage;
+import io.onedev.server.web.websocket.WebSocketManager;
 
 @SuppressWarnings("serial")
 public class ServerInformationPage extends AdministrationPage {
@@ -67,6 +71,33 @@ public class ServerInformationPage extends AdministrationPage {
 		
 		add(new Label("osUserName", System.getProperty("user.name")));
 		
+		add(new Label("webSocketNotifications", new LoadableDetachableModel<String>() {
+
+			@Override
+			protected String load() {
+				WebSocketManager webSocketManager = OneDev.getInstance(WebSocketManager.class);
+				return String.format("%d requested, %d coalesced, %d messages sent", 
+						webSocketManager.getRequestedNotifications(), 
+						webSocketManager.getCoalescedNotifications(), 
+						webSocketManager.getSentMessages());
+			}
+			
+		}));
+		
+		add(new Label("jobScheduler", new LoadableDetachableModel<String>() {
+
+			@Override
+			protected String load() {
+				JobSchedulerStatus status = OneDev.getInstance(JobManager.class).getSchedulerStatus();
+				return String.format("%d queued, %d waiting for dependencies, %d running, "
+						+ "%d dispatched (average latency %d ms, max latency %d ms)", 
+						status.getQueueLength(), status.getWaitingBuilds(), status.getRunningExecutions(), 
+						status.getDispatches(), status.getAverageDispatchLatency(), 
+						status.getMaxDispatchLatency());
+			}
+			
+		}));
+		
 		add(new Link<Void>("gc") {
 
 			@Override
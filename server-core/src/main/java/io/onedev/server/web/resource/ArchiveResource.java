@@ -3,6 +3,7 @@ package io.onedev.server.web.resource;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 
 import javax.persistence.EntityNotFoundException;
@@ -10,16 +11,20 @@ import javax.persistence.EntityNotFoundException;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.shiro.authz.UnauthorizedException;
 import org.apache.tika.mime.MimeTypes;
+import org.apache.wicket.request.cycle.AbstractRequestCycleListener;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.http.WebResponse;
+import org.apache.wicket.request.http.WebResponse.CacheScope;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.apache.wicket.request.resource.AbstractResource;
-import org.eclipse.jgit.api.ArchiveCommand;
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.archive.TgzFormat;
-import org.eclipse.jgit.archive.ZipFormat;
+import org.apache.wicket.util.time.Duration;
+import org.apache.wicket.util.time.Time;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
 
 import io.onedev.server.OneDev;
 import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.git.ArchiveManager;
 import io.onedev.server.model.Project;
 import io.onedev.server.security.SecurityUtils;
 
@@ -33,9 +38,9 @@ public class ArchiveResource extends AbstractResource {
 	
 	private static final String PARAM_FORMAT = "format";
 	
-	public static final String FORMAT_ZIP = "zip";
+	public static final String FORMAT_ZIP = ArchiveManager.FORMAT_ZIP;
 	
-	public static final String FORMAT_TGZ = "tgz";
+	public static final String FORMAT_TGZ = ArchiveManager.FORMAT_TGZ;
 	
 	@Override
 	protected ResourceResponse newResourceResponse(Attributes attributes) {
@@ -62,10 +67,52 @@ public class ArchiveResource extends AbstractResource {
 		if (!SecurityUtils.canReadCode(project)) 
 			throw new UnauthorizedException();
 
+		RevCommit commit = project.getRevCommit(revision, true);
+		String eTag = "\"" + commit.name() + "-" + format + "\"";
+		
 		ResourceResponse response = new ResourceResponse();
-		response.setContentType(MimeTypes.OCTET_STREAM);
 		
-		response.disableCaching();
+		/*
+		 * Archive of a commit never changes, so let browser cache it if it is requested by commit id. 
+		 * Archive requested by branch or tag may change even if the new commit is older, and can 
+		 * only be revalidated with ETag of the resolved commit
+		 */
+		if (ObjectId.isId(revision)) {
+			response.setLastModified(Time.millis(commit.getCommitterIdent().getWhen().getTime()));
+			response.setCacheDuration(WebResponse.MAX_CACHE_DURATION);
+			response.setCacheScope(CacheScope.PRIVATE);
+		} else {
+			response.setCacheDuration(Duration.NONE);
+		}
+		
+		if (ResourceUtils.checkNotModified(attributes, response, eTag))
+			return response;
+		
+		/*
+		 * Open archive right away so that it can still be read if removed from cache before 
+		 * response is written. The channel is closed when request cycle is detached, no matter 
+		 * whether response is written or not
+		 */
+		FileChannel archiveChannel = OneDev.getInstance(ArchiveManager.class).openArchive(project, commit.copy(), format);
+		RequestCycle.get().getListeners().add(new AbstractRequestCycleListener() {
+
+			@Override
+			public void onDetach(RequestCycle cycle) {
+				try {
+					archiveChannel.close();
+				} catch (IOException e) {
+				}
+			}
+			
+		});
+		
+		response.setContentType(MimeTypes.OCTET_STREAM);
+		try {
+			response.setContentLength(archiveChannel.size());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		response.setAcceptRange(ContentRangeType.BYTES);
 		
 		try {
 			String fileName;
@@ -81,21 +128,7 @@ public class ArchiveResource extends AbstractResource {
 
 			@Override
 			public void writeData(Attributes attributes) throws IOException {
-				if (format.equals("zip"))
-					ArchiveCommand.registerFormat(format, new ZipFormat());
-				else
-					ArchiveCommand.registerFormat(format, new TgzFormat());
-				try {
-					ArchiveCommand archive = Git.wrap(project.getRepository()).archive();
-					archive.setFormat(format);
-					archive.setTree(project.getRevCommit(revision, true).getId());
-					archive.setOutputStream(attributes.getResponse().getOutputStream());
-					archive.call();
-				} catch (GitAPIException e) {
-					throw new RuntimeException(e);
-				} finally {
-					ArchiveCommand.unregisterFormat(format);
-				}
+				ResourceUtils.writeChannel(archiveChannel, attributes);
 			}				
 		});
 
@@ -14,11 +14,12 @@ import java.util.concurrent.Callable;
 
 import javax.persistence.EntityNotFoundException;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.shiro.authz.UnauthorizedException;
-import org.apache.tika.io.IOUtils;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.apache.wicket.request.resource.AbstractResource;
+import org.apache.wicket.util.time.Time;
 
 import com.google.common.base.Joiner;
 
@@ -95,14 +96,24 @@ public class ArtifactResource extends AbstractResource {
 		}
 			
 		ResourceResponse response = new ResourceResponse();
+		
+		/*
+		 * Artifacts may still be changing while build is running, so do not let browser cache 
+		 * them. Clients can still revalidate with ETag or last modified time
+		 */
+		response.disableCaching();
+		response.setLastModified(Time.millis(artifactFile.lastModified()));
+		String eTag = "\"" + DigestUtils.md5Hex(build.getId() + ":" + artifactPath + ":" 
+				+ artifactFile.length() + ":" + artifactFile.lastModified()) + "\"";
+		if (ResourceUtils.checkNotModified(attributes, response, eTag))
+			return response;
+		
 		try (InputStream is = new BufferedInputStream(new FileInputStream(artifactFile))) {
 			response.setContentType(ContentDetector.detectMediaType(is, artifactPath).toString());
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 		
-		response.disableCaching();
-		
 		try {
 			response.setFileName(URLEncoder.encode(artifactFile.getName(), StandardCharsets.UTF_8.name()));
 		} catch (UnsupportedEncodingException e) {
@@ -110,6 +121,7 @@ public class ArtifactResource extends AbstractResource {
 		}
 		
 		response.setContentLength(artifactFile.length());
+		response.setAcceptRange(ContentRangeType.BYTES);
 		
 		response.setWriteCallback(new WriteCallback() {
 
@@ -119,9 +131,7 @@ public class ArtifactResource extends AbstractResource {
 
 					@Override
 					public Void call() throws Exception {
-						try (InputStream is = new FileInputStream(artifactFile)) {
-							IOUtils.copy(is, attributes.getResponse().getOutputStream());
-						}
+						ResourceUtils.writeFile(artifactFile, attributes);
 						return null;
 					}
 					
@@ -1,21 +1,20 @@
 package io.onedev.server.web.resource;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 
 import javax.persistence.EntityNotFoundException;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.shiro.authz.UnauthorizedException;
-import org.apache.tika.io.IOUtils;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.apache.wicket.request.resource.AbstractResource;
+import org.apache.wicket.util.time.Time;
 
 import io.onedev.server.OneDev;
 import io.onedev.server.entitymanager.ProjectManager;
@@ -74,7 +73,14 @@ public class AttachmentResource extends AbstractResource {
 			throw new RuntimeException("Attachment not found: " + attachment);
 		
 		ResourceResponse response = new ResourceResponse();
+		response.setLastModified(Time.millis(attachmentFile.lastModified()));
+		String eTag = "\"" + DigestUtils.md5Hex(project.getId() + ":" + group + ":" + attachment + ":" 
+				+ attachmentFile.length() + ":" + attachmentFile.lastModified()) + "\"";
+		if (ResourceUtils.checkNotModified(attributes, response, eTag))
+			return response;
+		
 		response.setContentLength(attachmentFile.length());
+		response.setAcceptRange(ContentRangeType.BYTES);
 		try {
 			response.setContentType(Files.probeContentType(attachmentFile.toPath()));
 		} catch (IOException e) {
@@ -87,9 +93,7 @@ public class AttachmentResource extends AbstractResource {
 
 			@Override
 			public void writeData(Attributes attributes) throws IOException {
-				try (InputStream is = new FileInputStream(attachmentFile);) {
-					IOUtils.copy(is, attributes.getResponse().getOutputStream());
-				}
+				ResourceUtils.writeFile(attachmentFile, attributes);
 			}
 			
 		});
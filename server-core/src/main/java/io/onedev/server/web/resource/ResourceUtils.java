@@ -0,0 +1,147 @@
+package io.onedev.server.web.resource;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.wicket.request.Response;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.resource.AbstractResource;
+import org.apache.wicket.request.resource.AbstractResource.ResourceResponse;
+import org.apache.wicket.request.resource.IResource.Attributes;
+import org.eclipse.jetty.io.EofException;
+import org.eclipse.jetty.server.HttpOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Splitter;
+
+import io.onedev.commons.utils.ExceptionUtils;
+
+public class ResourceUtils {
+	
+	private static final Logger logger = LoggerFactory.getLogger(ResourceUtils.class);
+	
+	private static final String HEADER_ETAG = "ETag";
+	
+	private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+	
+	private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+	
+	private static final long MAX_MAPPED_SIZE = 64L*1024*1024;
+	
+	/**
+	 * Set ETag of the response, and check whether the client already has the content. 
+	 * <tt>If-None-Match</tt> is checked against the ETag. If it is absent, 
+	 * <tt>If-Modified-Since</tt> is checked against last modified time of the response.
+	 * 
+	 * @param eTag
+	 * 			strong ETag of the content, including quotes
+	 * @return
+	 * 			<tt>true</tt> if the content is not modified, in which case status of the 
+	 * 			response is set to 304 and the caller should not write content
+	 */
+	public static boolean checkNotModified(Attributes attributes, ResourceResponse response, String eTag) {
+		response.getHeaders().addHeader(HEADER_ETAG, eTag);
+		
+		HttpServletRequest request = (HttpServletRequest) attributes.getRequest().getContainerRequest();
+		String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+		boolean notModified;
+		if (ifNoneMatch != null) {
+			notModified = matches(ifNoneMatch, eTag);
+		} else if (response.getLastModified() != null) {
+			long ifModifiedSince = request.getDateHeader(HEADER_IF_MODIFIED_SINCE);
+			// Http dates are accurate to seconds
+			notModified = ifModifiedSince != -1 
+					&& response.getLastModified().getMilliseconds() / 1000 <= ifModifiedSince / 1000;
+		} else {
+			notModified = false;
+		}
+		if (notModified)
+			response.setStatusCode(HttpServletResponse.SC_NOT_MODIFIED);
+		return notModified;
+	}
+	
+	private static boolean matches(String ifNoneMatch, String eTag) {
+		for (String each: Splitter.on(',').trimResults().omitEmptyStrings().split(ifNoneMatch)) {
+			if (each.equals("*") || each.equals(eTag) || each.equals("W/" + eTag))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Write content of specified file to response. Only requested range is written if 
+	 * response accepts byte ranges. Content is not copied through the heap: Jetty writes 
+	 * mapped buffers to the socket directly, and other containers fall back to channel 
+	 * transfer
+	 */
+	public static void writeFile(File file, Attributes attributes) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			writeChannel(channel, attributes);
+		}
+	}
+	
+	/**
+	 * Same as {@link #writeFile(File, Attributes)}, except that content is read from specified 
+	 * channel. The channel is not closed by this method
+	 */
+	public static void writeChannel(FileChannel channel, Attributes attributes) throws IOException {
+		Long startByte = RequestCycle.get().getMetaData(AbstractResource.CONTENT_RANGE_STARTBYTE);
+		Long endByte = RequestCycle.get().getMetaData(AbstractResource.CONTENT_RANGE_ENDBYTE);
+		if (startByte == null)
+			startByte = 0L;
+		if (endByte == null || endByte == -1)
+			endByte = channel.size() - 1;
+		try {
+			transfer(channel, startByte, endByte - startByte + 1, attributes.getResponse());
+		} catch (Exception e) {
+			EofException eofException = ExceptionUtils.find(e, EofException.class);
+			if (eofException != null) 
+				logger.trace("EOF while writing data", eofException);
+			else 
+				throw e;
+		}
+	}
+	
+	private static void transfer(FileChannel channel, long position, long count, Response response) throws IOException {
+		OutputStream os = getOutputStream(response);
+		if (os instanceof HttpOutput) {
+			HttpOutput httpOutput = (HttpOutput) os;
+			while (count > 0) {
+				long size = Math.min(count, MAX_MAPPED_SIZE);
+				httpOutput.write(channel.map(MapMode.READ_ONLY, position, size));
+				position += size;
+				count -= size;
+			}
+		} else {
+			WritableByteChannel target = Channels.newChannel(os);
+			while (count > 0) {
+				long transferred = channel.transferTo(position, count, target);
+				if (transferred <= 0)
+					throw new EOFException("Unexpected end of file");
+				position += transferred;
+				count -= transferred;
+			}
+		}
+		os.flush();
+	}
+	
+	private static OutputStream getOutputStream(Response response) throws IOException {
+		Object containerResponse = response.getContainerResponse();
+		if (containerResponse instanceof HttpServletResponse)
+			return ((HttpServletResponse) containerResponse).getOutputStream();
+		else
+			return response.getOutputStream();
+	}
+
+}
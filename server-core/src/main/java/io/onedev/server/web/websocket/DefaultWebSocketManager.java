@@ -2,12 +2,14 @@ package io.onedev.server.web.websocket;
 
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -26,8 +28,6 @@ import org.quartz.SimpleScheduleBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Sets;
-
 import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.commons.utils.StringUtils;
 import io.onedev.server.event.system.SystemStarted;
@@ -39,10 +39,12 @@ import io.onedev.server.util.schedule.TaskScheduler;
 import io.onedev.server.web.page.base.BasePage;
 
 @Singleton
-public class DefaultWebSocketManager implements WebSocketManager {
+public class DefaultWebSocketManager implements WebSocketManager, Runnable {
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultWebSocketManager.class);
 	
+	private static final int NOTIFY_INTERVAL = 250;
+	
 	private final Application application;
 	
 	private final TransactionManager transactionManager;
@@ -59,6 +61,19 @@ public class DefaultWebSocketManager implements WebSocketManager {
 	
 	private final Map<String, Date> notifiedObservables = new ConcurrentHashMap<>();
 	
+	// inverted index of registeredObservables to find observing pages of an observable quickly
+	private final Map<String, Set<PageKey>> observingPages = new ConcurrentHashMap<>();
+	
+	private final Set<String> changedObservables = ConcurrentHashMap.newKeySet();
+	
+	private final AtomicLong requestedNotifications = new AtomicLong(0);
+	
+	private final AtomicLong coalescedNotifications = new AtomicLong(0);
+	
+	private final AtomicLong sentMessages = new AtomicLong(0);
+	
+	private volatile Thread thread;
+	
 	private String keepAliveTaskId;
 
 	private String notifiedObservableCleanupTaskId;
@@ -85,6 +100,17 @@ public class DefaultWebSocketManager implements WebSocketManager {
 			IKey pageKey = new PageIdKey(page.getPageId());
 			Collection<String> observables = page.findWebSocketObservables();
 			Collection<String> prevObservables = sessionPages.put(pageKey, observables);
+			
+			PageKey observingPage = new PageKey(sessionId, pageKey);
+			if (prevObservables != null) {
+				for (String observable: prevObservables) {
+					if (!observables.contains(observable))
+						removeObservingPage(observable, observingPage);
+				}
+			}
+			for (String observable: observables) 
+				addObservingPage(observable, observingPage);
+			
 			if (prevObservables != null && !prevObservables.containsAll(observables)) {
 				IWebSocketConnection connection = connectionRegistry.getConnection(application, sessionId, pageKey);
 				if (connection != null)
@@ -95,7 +121,30 @@ public class DefaultWebSocketManager implements WebSocketManager {
 	
 	@Override
 	public void onDestroySession(String sessionId) {
-		registeredObservables.remove(sessionId);
+		Map<IKey, Collection<String>> sessionPages = registeredObservables.remove(sessionId);
+		if (sessionPages != null) {
+			for (Map.Entry<IKey, Collection<String>> entry: sessionPages.entrySet()) {
+				PageKey observingPage = new PageKey(sessionId, entry.getKey());
+				for (String observable: entry.getValue())
+					removeObservingPage(observable, observingPage);
+			}
+		}
+	}
+	
+	private void addObservingPage(String observable, PageKey page) {
+		observingPages.compute(observable, (key, value) -> {
+			if (value == null)
+				value = ConcurrentHashMap.newKeySet();
+			value.add(page);
+			return value;
+		});
+	}
+	
+	private void removeObservingPage(String observable, PageKey page) {
+		observingPages.computeIfPresent(observable, (key, value) -> {
+			value.remove(page);
+			return value.isEmpty()? null: value;
+		});
 	}
 	
 	@Nullable
@@ -116,6 +165,7 @@ public class DefaultWebSocketManager implements WebSocketManager {
 		String message = OBSERVABLE_CHANGED + ":" + StringUtils.join(observables, "\n"); 
 		try {
 			connection.sendMessage(message);
+			sentMessages.incrementAndGet();
 		} catch (Exception e) {
 			logger.error("Error sending websocket message: " + message, e);
 		}
@@ -128,26 +178,92 @@ public class DefaultWebSocketManager implements WebSocketManager {
 
 			@Override
 			public void run() {
-				executorService.execute(new Runnable() {
-
-					@Override
-					public void run() {
-						notifiedObservables.put(observable, new Date());
-						for (IWebSocketConnection connection: connectionRegistry.getConnections(application)) {
-							Collection<String> registeredObservables = getRegisteredObservables(connection); 
-							if (registeredObservables != null && registeredObservables.contains(observable))
-								notifyObservables(connection, Sets.newHashSet(observable));
-						}
+				requestedNotifications.incrementAndGet();
+				if (changedObservables.add(observable)) {
+					synchronized (DefaultWebSocketManager.this) {
+						DefaultWebSocketManager.this.notify();
 					}
-					
-				});
+				} else {
+					coalescedNotifications.incrementAndGet();
+				}
 			}
 			
 		});
 	}
 	
+	/**
+	 * Changes of observables are collected and dispatched every {@link #NOTIFY_INTERVAL} 
+	 * milliseconds, so that bursts of changes of an observable (for instance build log 
+	 * lines) result in at most one message per connection per interval 
+	 */
+	@Override
+	public void run() {
+		while (thread != null) {
+			synchronized (this) {
+				while (thread != null && changedObservables.isEmpty()) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+					}
+				}
+			}
+			try {
+				Thread.sleep(NOTIFY_INTERVAL);
+			} catch (InterruptedException e) {
+			}
+			
+			Date now = new Date();
+			Map<PageKey, Collection<String>> pageObservables = new HashMap<>();
+			for (Iterator<String> it = changedObservables.iterator(); it.hasNext();) {
+				String observable = it.next();
+				it.remove();
+				notifiedObservables.put(observable, now);
+				Set<PageKey> pages = observingPages.get(observable);
+				if (pages != null) {
+					for (PageKey page: pages) 
+						pageObservables.computeIfAbsent(page, key -> new HashSet<>()).add(observable);
+				}
+			}
+			
+			for (Map.Entry<PageKey, Collection<String>> entry: pageObservables.entrySet()) {
+				PageKey page = entry.getKey();
+				IWebSocketConnection connection = connectionRegistry.getConnection(
+						application, page.getSessionId(), page.getPageId());
+				if (connection != null && connection.isOpen()) {
+					executorService.execute(new Runnable() {
+
+						@Override
+						public void run() {
+							notifyObservables(connection, entry.getValue());
+						}
+						
+					});
+				}
+			}
+		}
+	}
+	
+	@Override
+	public long getRequestedNotifications() {
+		return requestedNotifications.get();
+	}
+
+	@Override
+	public long getCoalescedNotifications() {
+		return coalescedNotifications.get();
+	}
+
+	@Override
+	public long getSentMessages() {
+		return sentMessages.get();
+	}
+	
 	@Listen
 	public void on(SystemStarted event) {
+		thread = new Thread(this, "WebSocket Notification Dispatcher");
+		thread.setDaemon(true);
+		thread.start();
+		
 		keepAliveTaskId = taskScheduler.schedule(new SchedulableTask() {
 			
 			@Override
@@ -194,6 +310,10 @@ public class DefaultWebSocketManager implements WebSocketManager {
 	public void on(SystemStopping event) {
 		taskScheduler.unschedule(keepAliveTaskId);
 		taskScheduler.unschedule(notifiedObservableCleanupTaskId);
+		synchronized (this) {
+			thread = null;
+			notify();
+		}
 	}
 	
 	/**
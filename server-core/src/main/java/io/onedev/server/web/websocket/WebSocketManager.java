@@ -19,4 +19,24 @@ public interface WebSocketManager {
 	void notifyObservableChange(String observable);
 	
 	void onConnect(IWebSocketConnection connection);
+	
+	/**
+	 * @return
+	 * 			number of observable change notifications requested since startup
+	 */
+	long getRequestedNotifications();
+	
+	/**
+	 * @return
+	 * 			number of requested notifications merged into a pending notification of 
+	 * 			the same observable
+	 */
+	long getCoalescedNotifications();
+	
+	/**
+	 * @return
+	 * 			number of observable changed messages sent to web socket connections
+	 */
+	long getSentMessages();
+	
 }
@@ -0,0 +1,127 @@
+package io.onedev.server.buildspec.job.log;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.onedev.commons.utils.FileUtils;
+
+public class JobLogFileTest {
+
+	private File buildDir;
+
+	@Before
+	public void before() {
+		buildDir = FileUtils.createTempDir();
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteDir(buildDir);
+	}
+
+	@Test
+	public void testReadAndAppend() {
+		JobLogFile logFile = new JobLogFile(buildDir);
+		assertEquals(0, logFile.size());
+		assertTrue(logFile.read(0, 0).isEmpty());
+
+		List<JobLogEntryEx> entries = new ArrayList<>();
+		for (int i=0; i<100; i++)
+			entries.add(new JobLogEntryEx(new JobLogEntry(new Date(i), "line " + i)));
+		logFile.append(entries);
+
+		entries.clear();
+		entries.add(JobLogEntryEx.parse("\u001b[31mred\u001b[0m plain", new StyleBuilder()));
+		logFile.append(entries);
+
+		assertEquals(101, logFile.size());
+		assertEquals("line 50", logFile.read(50, 1).get(0).getMessageText());
+		assertEquals(51, logFile.read(50, 0).size());
+		assertEquals(2, logFile.read(100, 1).get(0).getMessages().size());
+		assertEquals("red plain", logFile.read(100, 1).get(0).getMessageText());
+
+		LogSnippet snippet = logFile.readReversely(3);
+		assertEquals(98, snippet.offset);
+		assertEquals(3, snippet.entries.size());
+		assertEquals("line 98", snippet.entries.get(0).getMessageText());
+	}
+
+	@Test
+	public void testPack() {
+		JobLogFile logFile = new JobLogFile(buildDir);
+		List<JobLogEntryEx> entries = new ArrayList<>();
+		for (int i=0; i<5500; i++)
+			entries.add(new JobLogEntryEx(new JobLogEntry(new Date(i), "line " + i)));
+		logFile.append(entries);
+		logFile.pack();
+
+		assertTrue(logFile.isPacked());
+		assertFalse(new File(buildDir, JobLogFile.DATA_FILE).exists());
+		assertEquals(5500, logFile.size());
+		assertEquals("line 2999", logFile.read(2999, 2).get(0).getMessageText());
+		assertEquals("line 3000", logFile.read(2999, 2).get(1).getMessageText());
+		assertEquals(5500, logFile.read(0, 0).size());
+		assertEquals("line 5499", logFile.readReversely(1).entries.get(0).getMessageText());
+
+		entries.clear();
+		entries.add(new JobLogEntryEx(new JobLogEntry(new Date(), "appended")));
+		logFile.append(entries);
+		assertFalse(logFile.isPacked());
+		assertEquals(5501, logFile.size());
+		assertEquals("appended", logFile.read(5500, 1).get(0).getMessageText());
+	}
+
+	@Test
+	public void testTrigramIndex() {
+		JobLogFile logFile = new JobLogFile(buildDir);
+		List<JobLogEntryEx> entries = new ArrayList<>();
+		for (int i=0; i<1000; i++)
+			entries.add(new JobLogEntryEx(new JobLogEntry(new Date(i), "Compiling module " + i)));
+		logFile.append(entries);
+		assertNull(logFile.readTrigramIndex());
+		logFile.pack();
+
+		LogTrigramIndex trigramIndex = logFile.readTrigramIndex();
+		assertTrue(trigramIndex.mayMatch(Pattern.compile("compiling")));
+		assertTrue(trigramIndex.mayMatch(Pattern.compile("module\\s+999")));
+		assertTrue(trigramIndex.mayMatch(Pattern.compile("BUILD FAILED|module")));
+		assertFalse(trigramIndex.mayMatch(Pattern.compile("BUILD FAILED")));
+		assertFalse(trigramIndex.mayMatch(Pattern.compile("module.*error")));
+		assertFalse(trigramIndex.mayMatch(Pattern.compile("(?i)build failed")));
+		assertTrue(trigramIndex.mayMatch(Pattern.compile("(?x) module \\s+ 999  # module number")));
+		assertTrue(trigramIndex.mayMatch(Pattern.compile("(?ix: Compiling \\s+ module)")));
+		assertTrue(trigramIndex.mayMatch(Pattern.compile("Compiling  # module", Pattern.COMMENTS)));
+	}
+
+	@Test
+	public void testMigrate() throws IOException {
+		File legacyFile = new File(buildDir, JobLogFile.LEGACY_FILE);
+		try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(legacyFile))) {
+			for (int i=0; i<20000; i++)
+				oos.writeObject(new JobLogEntry(new Date(i), "line " + i));
+			oos.writeObject(JobLogEntryEx.parse("\u001b[1mbold", new StyleBuilder()));
+		}
+
+		JobLogFile logFile = new JobLogFile(buildDir);
+		logFile.migrate(legacyFile);
+
+		assertFalse(legacyFile.exists());
+		assertEquals(20001, logFile.size());
+		assertEquals(new Date(12345), logFile.read(12345, 1).get(0).getDate());
+		assertEquals("line 12345", logFile.read(12345, 1).get(0).getMessageText());
+		assertTrue(logFile.read(20000, 1).get(0).getMessages().get(0).getStyle().isBold());
+	}
+
+}
@@ -0,0 +1,87 @@
+package io.onedev.server.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.model.Project;
+
+public class DefaultArchiveManagerTest extends AbstractGitTest {
+
+	private File cacheDir;
+	
+	private Project project;
+	
+	@Override
+	protected void setup() {
+		super.setup();
+		cacheDir = FileUtils.createTempDir();
+		project = Mockito.mock(Project.class);
+		Mockito.when(project.getName()).thenReturn("test");
+		Mockito.when(project.getRepository()).thenReturn(git.getRepository());
+	}
+
+	@Override
+	protected void teardown() {
+		FileUtils.deleteDir(cacheDir);
+		super.teardown();
+	}
+	
+	private byte[] read(FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+		while (buffer.hasRemaining() && channel.read(buffer) != -1);
+		return buffer.array();
+	}
+	
+	@Test
+	public void shouldServeCachedArchive() throws Exception {
+		ObjectId commitId = ObjectId.fromString(addFileAndCommit("file", "content", "initial"));
+		DefaultArchiveManager archiveManager = new DefaultArchiveManager(cacheDir, 1024*1024);
+		
+		File archiveFile = new File(cacheDir, commitId.name() + ".zip");
+		try (FileChannel channel = archiveManager.openArchive(project, commitId, ArchiveManager.FORMAT_ZIP)) {
+			assertTrue(channel.size() > 0);
+			assertTrue(archiveFile.exists());
+		}
+		
+		// Archive is served from cache without being generated again
+		Files.write(archiveFile.toPath(), "cached".getBytes(StandardCharsets.UTF_8));
+		try (FileChannel channel = archiveManager.openArchive(project, commitId, ArchiveManager.FORMAT_ZIP)) {
+			assertEquals("cached", new String(read(channel), StandardCharsets.UTF_8));
+		}
+		
+		try (FileChannel channel = archiveManager.openArchive(project, commitId, ArchiveManager.FORMAT_TGZ)) {
+			assertTrue(channel.size() > 0);
+			assertTrue(new File(cacheDir, commitId.name() + ".tar.gz").exists());
+		}
+	}
+	
+	@Test
+	public void shouldReadOpenedArchiveAfterEviction() throws Exception {
+		ObjectId commitId = ObjectId.fromString(addFileAndCommit("file", "content", "initial"));
+		DefaultArchiveManager archiveManager = new DefaultArchiveManager(cacheDir, 1);
+		
+		try (FileChannel channel = archiveManager.openArchive(project, commitId, ArchiveManager.FORMAT_ZIP)) {
+			long size = channel.size();
+			archiveManager.openArchive(project, commitId, ArchiveManager.FORMAT_TGZ).close();
+			assertFalse(new File(cacheDir, commitId.name() + ".zip").exists());
+			
+			byte[] content = read(channel);
+			assertEquals(size, content.length);
+			assertEquals("PK", new String(content, 0, 2, StandardCharsets.UTF_8));
+		}
+	}
+	
+}
@@ -0,0 +1,147 @@
+package io.onedev.server.git;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import io.onedev.server.git.GitTransportManager.Lane;
+import io.onedev.server.git.exception.GitTransportBusyException;
+import io.onedev.server.util.ServerConfig;
+
+public class DefaultGitTransportManagerTest {
+	
+	private ExecutorService executor;
+	
+	private DefaultGitTransportManager manager;
+	
+	@Before
+	public void before() {
+		executor = Executors.newCachedThreadPool();
+		ServerConfig serverConfig = Mockito.mock(ServerConfig.class);
+		Mockito.when(serverConfig.getGitFetchConcurrency()).thenReturn(1);
+		Mockito.when(serverConfig.getGitPushConcurrency()).thenReturn(1);
+		Mockito.when(serverConfig.getGitQueueTimeout()).thenReturn(1);
+		manager = new DefaultGitTransportManager(serverConfig);
+	}
+	
+	@After
+	public void after() {
+		executor.shutdownNow();
+	}
+	
+	private Future<?> submit(Long projectId, Lane lane, CountDownLatch started, CountDownLatch finish, 
+			List<Long> order) {
+		return executor.submit(new Callable<Void>() {
+			
+			@Override
+			public Void call() throws Exception {
+				return manager.run(projectId, lane, new Callable<Void>() {
+					
+					@Override
+					public Void call() throws Exception {
+						synchronized (order) {
+							order.add(projectId);
+						}
+						started.countDown();
+						finish.await();
+						return null;
+					}
+				
+				});
+			}
+		
+		});
+	}
+	
+	private void waitForQueued(int queuedFetches) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 5000;
+		while (manager.getStatus().getQueuedFetches() != queuedFetches 
+				&& System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		assertEquals(queuedFetches, manager.getStatus().getQueuedFetches());
+	}
+	
+	@Test
+	public void shouldNotQueuePushesBehindFetches() throws Exception {
+		List<Long> order = new ArrayList<>();
+		CountDownLatch fetchStarted = new CountDownLatch(1);
+		CountDownLatch finishFetch = new CountDownLatch(1);
+		Future<?> fetch = submit(1L, Lane.FETCH, fetchStarted, finishFetch, order);
+		assertTrue(fetchStarted.await(5, TimeUnit.SECONDS));
+		
+		CountDownLatch pushStarted = new CountDownLatch(1);
+		Future<?> push = submit(1L, Lane.PUSH, pushStarted, new CountDownLatch(0), order);
+		assertTrue(pushStarted.await(5, TimeUnit.SECONDS));
+		push.get();
+		
+		finishFetch.countDown();
+		fetch.get();
+		assertEquals(0, manager.getStatus().getActiveFetches());
+		assertEquals(0, manager.getStatus().getActivePushes());
+	}
+	
+	@Test
+	public void shouldTakeTurnsAcrossProjects() throws Exception {
+		List<Long> order = new ArrayList<>();
+		CountDownLatch finish = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		futures.add(submit(1L, Lane.FETCH, new CountDownLatch(1), finish, order));
+		waitForQueued(0);
+		
+		// Project 1 floods the queue before project 2 comes
+		for (int i=0; i<3; i++) {
+			futures.add(submit(1L, Lane.FETCH, new CountDownLatch(1), new CountDownLatch(0), order));
+			waitForQueued(i+1);
+		}
+		futures.add(submit(2L, Lane.FETCH, new CountDownLatch(1), new CountDownLatch(0), order));
+		waitForQueued(4);
+		
+		finish.countDown();
+		for (Future<?> future: futures)
+			future.get();
+		
+		assertEquals(5, order.size());
+		assertEquals(Long.valueOf(2L), order.get(2));
+	}
+	
+	@Test
+	public void shouldRejectWhenQueueTimesOut() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch finish = new CountDownLatch(1);
+		Future<?> fetch = submit(1L, Lane.FETCH, started, finish, new ArrayList<>());
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		
+		try {
+			manager.run(2L, Lane.FETCH, new Callable<Void>() {
+				
+				@Override
+				public Void call() throws Exception {
+					return null;
+				}
+			
+			});
+			fail("Expected to be rejected");
+		} catch (GitTransportBusyException e) {
+			assertTrue(e.getRetryAfter() > 0);
+		}
+		assertEquals(1, manager.getStatus().getRejected());
+		assertEquals(0, manager.getStatus().getQueuedFetches());
+		
+		finish.countDown();
+		fetch.get();
+	}
+
+}
@@ -0,0 +1,56 @@
+package io.onedev.server.infomanager;
+
+import static org.junit.Assert.*;
+
+import java.util.Set;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class CommitGraphTest {
+
+	private ObjectId commit(int value) {
+		byte[] bytes = new byte[20];
+		bytes[19] = (byte) value;
+		return ObjectId.fromRaw(bytes);
+	}
+	
+	@Test
+	public void testGetDescendants() {
+		/*
+		 * 1 - 2 - 3 - 5
+		 *      \     /
+		 *       4 --
+		 * 6 - 7
+		 */
+		CommitGraph graph = new CommitGraph();
+		graph.addChild(commit(1), commit(2));
+		graph.addChild(commit(2), commit(3));
+		graph.addChild(commit(2), commit(4));
+		graph.addChild(commit(3), commit(5));
+		graph.addChild(commit(4), commit(5));
+		graph.addChild(commit(4), commit(5));
+		graph.addChild(commit(6), commit(7));
+		assertEquals(7, graph.getCommitCount());
+		
+		Set<ObjectId> descendants = graph.getDescendants(Sets.newHashSet(commit(2)));
+		assertEquals(Sets.newHashSet(commit(2), commit(3), commit(4), commit(5)), descendants);
+		assertFalse(descendants.contains(commit(1)));
+		assertFalse(descendants.contains(commit(7)));
+		
+		assertTrue(descendants.add(commit(1)));
+		assertFalse(descendants.add(commit(3)));
+		assertEquals(5, descendants.size());
+		assertTrue(descendants.contains(commit(1)));
+		
+		descendants = graph.getDescendants(Sets.newHashSet(commit(4), commit(6), commit(100)));
+		assertEquals(Sets.newHashSet(commit(4), commit(5), commit(6), commit(7), commit(100)), descendants);
+		
+		graph.addChild(commit(5), commit(8));
+		assertFalse(descendants.contains(commit(8)));
+		assertTrue(graph.getDescendants(Sets.newHashSet(commit(1))).contains(commit(8)));
+	}
+	
+}
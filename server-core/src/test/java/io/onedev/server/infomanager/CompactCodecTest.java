@@ -0,0 +1,41 @@
+package io.onedev.server.infomanager;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import io.onedev.server.util.NameAndEmail;
+
+public class CompactCodecTest {
+
+	@Test
+	public void testUser() {
+		NameAndEmail user = new NameAndEmail("J\u00fcrgen M\u00fcller", "juergen@example.com");
+		assertEquals(user, CompactCodec.decodeUser(CompactCodec.encodeUser(user)));
+		
+		user = new NameAndEmail(null, "");
+		assertEquals(user, CompactCodec.decodeUser(CompactCodec.encodeUser(user)));
+	}
+	
+	@Test
+	public void testLong() {
+		for (long value: new long[] {0, 1, -1, 63, -64, 64, 1580000000000L, Long.MAX_VALUE, Long.MIN_VALUE}) 
+			assertEquals(value, CompactCodec.decodeLong(CompactCodec.encodeLong(value)));
+		assertEquals(1, CompactCodec.encodeLong(-64).length);
+		assertEquals(6, CompactCodec.encodeLong(1580000000000L).length);
+	}
+	
+	@Test
+	public void testLineStats() {
+		Map<String, Integer> lineStats = new HashMap<>();
+		lineStats.put("Java", 1200);
+		lineStats.put("JavaScript", -35);
+		lineStats.put("C++", 0);
+		assertEquals(lineStats, CompactCodec.decodeLineStats(CompactCodec.encodeLineStats(lineStats)));
+		assertTrue(CompactCodec.decodeLineStats(CompactCodec.encodeLineStats(new HashMap<>())).isEmpty());
+	}
+	
+}
@@ -0,0 +1,187 @@
+package io.onedev.server.notification;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.model.support.administration.MailSetting;
+
+public class MailQueueTest {
+	
+	private File queueDir;
+	
+	private ExecutorService executor;
+	
+	private ServerSocket serverSocket;
+	
+	private final AtomicInteger connections = new AtomicInteger();
+	
+	private final List<String> subjects = new CopyOnWriteArrayList<>();
+	
+	private Supplier<MailSetting> mailSettingSupplier;
+	
+	@Before
+	public void before() throws IOException {
+		queueDir = FileUtils.createTempDir();
+		executor = Executors.newCachedThreadPool();
+		
+		serverSocket = new ServerSocket(0);
+		Thread serverThread = new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+				while (!serverSocket.isClosed()) {
+					try {
+						Socket socket = serverSocket.accept();
+						connections.incrementAndGet();
+						executor.execute(new Runnable() {
+							
+							@Override
+							public void run() {
+								serve(socket);
+							}
+						
+						});
+					} catch (IOException e) {
+					}
+				}
+			}
+		
+		});
+		serverThread.setDaemon(true);
+		serverThread.start();
+		
+		MailSetting mailSetting = new MailSetting();
+		mailSetting.setSmtpHost("localhost");
+		mailSetting.setSmtpPort(serverSocket.getLocalPort());
+		mailSetting.setEmailAddress("onedev@localhost");
+		mailSetting.setEnableStartTLS(false);
+		mailSetting.setTimeout(10);
+		mailSettingSupplier = new Supplier<MailSetting>() {
+			
+			@Override
+			public MailSetting get() {
+				return mailSetting;
+			}
+		
+		};
+	}
+	
+	/*
+	 * A minimal SMTP server accepting all mails
+	 */
+	private void serve(Socket socket) {
+		try (	BufferedReader reader = new BufferedReader(new InputStreamReader(
+						socket.getInputStream(), StandardCharsets.US_ASCII));
+				PrintWriter writer = new PrintWriter(socket.getOutputStream(), true)) {
+			writer.print("220 localhost\r\n");
+			writer.flush();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String command = line.toUpperCase();
+				if (command.startsWith("EHLO")) {
+					writer.print("250-localhost\r\n250 8BITMIME\r\n");
+				} else if (command.startsWith("DATA")) {
+					writer.print("354 End data with <CR><LF>.<CR><LF>\r\n");
+					writer.flush();
+					while ((line = reader.readLine()) != null && !line.equals(".")) {
+						if (line.startsWith("Subject: "))
+							subjects.add(line.substring("Subject: ".length()));
+					}
+					writer.print("250 OK\r\n");
+				} else if (command.startsWith("QUIT")) {
+					writer.print("221 Bye\r\n");
+					writer.flush();
+					break;
+				} else {
+					writer.print("250 OK\r\n");
+				}
+				writer.flush();
+			}
+		} catch (IOException e) {
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+	
+	@After
+	public void after() throws IOException {
+		serverSocket.close();
+		executor.shutdownNow();
+		FileUtils.deleteDir(queueDir);
+	}
+	
+	private OutboundMail newMail(String subject) {
+		return new OutboundMail(Lists.newArrayList("user@localhost"), Lists.newArrayList(),
+				Lists.newArrayList(), subject, "<p>" + subject + "</p>", subject, null, null);
+	}
+	
+	private void waitFor(MailQueue mailQueue, int sentCount) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 10000;
+		while ((subjects.size() < sentCount || mailQueue.getStatus().getQueueDepth() != 0)
+				&& System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		assertEquals(sentCount, subjects.size());
+		assertEquals(0, mailQueue.getStatus().getQueueDepth());
+	}
+	
+	@Test
+	public void shouldSendManyMailsPerConnection() throws InterruptedException {
+		MailQueue mailQueue = new MailQueue(queueDir, executor, mailSettingSupplier, 10);
+		mailQueue.start();
+		try {
+			for (int i=0; i<300; i++)
+				mailQueue.add(newMail("mail" + i));
+			waitFor(mailQueue, 300);
+			assertTrue(subjects.contains("mail0"));
+			assertTrue(subjects.contains("mail299"));
+			assertEquals(300, mailQueue.getStatus().getSent());
+			assertTrue(connections.get() < 300);
+		} finally {
+			mailQueue.stop();
+		}
+	}
+	
+	@Test
+	public void shouldSurviveRestart() throws InterruptedException {
+		MailQueue mailQueue = new MailQueue(queueDir, executor, mailSettingSupplier, 10);
+		mailQueue.add(newMail("mail1"));
+		mailQueue.add(newMail("mail2"));
+		mailQueue.stop();
+		assertTrue(subjects.isEmpty());
+		
+		mailQueue = new MailQueue(queueDir, executor, mailSettingSupplier, 10);
+		mailQueue.start();
+		try {
+			waitFor(mailQueue, 2);
+		} finally {
+			mailQueue.stop();
+		}
+		assertEquals(0, queueDir.listFiles().length);
+	}
+
+}
@@ -0,0 +1,184 @@
+package io.onedev.server.notification;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.model.support.WebHook;
+
+public class WebHookDispatcherTest {
+	
+	private static final Long PROJECT_ID = 1L;
+	
+	private File queueDir;
+	
+	private ExecutorService executor;
+	
+	private HttpServer server;
+	
+	private final List<String> received = new CopyOnWriteArrayList<>();
+	
+	private final AtomicInteger failuresToSimulate = new AtomicInteger();
+	
+	private WebHook webHook;
+	
+	private volatile boolean webHookRemoved;
+	
+	private final WebHookDispatcher.WebHookLocator locator = new WebHookDispatcher.WebHookLocator() {
+		
+		@Override
+		public WebHook locate(Long projectId, String postUrl) {
+			if (!webHookRemoved && projectId.equals(PROJECT_ID) && postUrl.equals(webHook.getPostUrl()))
+				return webHook;
+			else
+				return null;
+		}
+		
+	};
+	
+	@Before
+	public void before() throws IOException {
+		queueDir = FileUtils.createTempDir();
+		executor = Executors.newCachedThreadPool();
+		
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/hook", new HttpHandler() {
+			
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String payload;
+				try (InputStream is = exchange.getRequestBody()) {
+					payload = IOUtils.toString(is, StandardCharsets.UTF_8);
+				}
+				int statusCode;
+				if (failuresToSimulate.getAndDecrement() > 0) {
+					statusCode = 503;
+				} else {
+					statusCode = 200;
+					received.add(exchange.getRequestHeaders().getFirst(WebHookDispatcher.SIGNATURE_HEAD)
+							+ ":" + payload);
+				}
+				exchange.sendResponseHeaders(statusCode, 0);
+				try (OutputStream os = exchange.getResponseBody()) {
+					os.write("ok".getBytes(StandardCharsets.UTF_8));
+				}
+			}
+		
+		});
+		server.start();
+		
+		webHook = new WebHook();
+		webHook.setPostUrl("http://localhost:" + server.getAddress().getPort() + "/hook");
+		webHook.setSecret("secret");
+	}
+	
+	@After
+	public void after() {
+		server.stop(0);
+		executor.shutdownNow();
+		FileUtils.deleteDir(queueDir);
+	}
+	
+	private void waitFor(WebHookDispatcher dispatcher, int receivedCount) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 10000;
+		while ((received.size() < receivedCount || dispatcher.getStatus(webHook.getPostUrl()).getBacklog() != 0) 
+				&& System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+			dispatcher.retry();
+		}
+		assertEquals(receivedCount, received.size());
+		assertEquals(0, dispatcher.getStatus(webHook.getPostUrl()).getBacklog());
+	}
+	
+	@Test
+	public void testDeliver() throws InterruptedException {
+		WebHookDispatcher dispatcher = new WebHookDispatcher(queueDir, locator, executor, 10);
+		dispatcher.start();
+		try {
+			for (int i=0; i<20; i++)
+				dispatcher.submit(PROJECT_ID, webHook, "event" + i);
+			waitFor(dispatcher, 20);
+			assertTrue(received.contains("secret:event0"));
+			assertTrue(received.contains("secret:event19"));
+			assertEquals(20, dispatcher.getStatus(webHook.getPostUrl()).getDelivered());
+		} finally {
+			dispatcher.stop();
+		}
+	}
+	
+	@Test
+	public void testRetry() throws InterruptedException {
+		failuresToSimulate.set(2);
+		WebHookDispatcher dispatcher = new WebHookDispatcher(queueDir, locator, executor, 10);
+		dispatcher.start();
+		try {
+			dispatcher.submit(PROJECT_ID, webHook, "event");
+			waitFor(dispatcher, 1);
+			assertEquals(2, dispatcher.getStatus(webHook.getPostUrl()).getFailures());
+		} finally {
+			dispatcher.stop();
+		}
+	}
+	
+	@Test
+	public void testDropRemovedWebHook() throws InterruptedException {
+		WebHookDispatcher dispatcher = new WebHookDispatcher(queueDir, locator, executor, 10);
+		dispatcher.submit(PROJECT_ID, webHook, "event");
+		webHookRemoved = true;
+		dispatcher.start();
+		try {
+			waitFor(dispatcher, 0);
+			assertTrue(received.isEmpty());
+			assertEquals(0, queueDir.listFiles().length);
+		} finally {
+			dispatcher.stop();
+		}
+	}
+	
+	@Test
+	public void testSurviveRestart() throws InterruptedException {
+		WebHookDispatcher dispatcher = new WebHookDispatcher(queueDir, locator, executor, 10);
+		dispatcher.submit(PROJECT_ID, webHook, "event1");
+		dispatcher.submit(PROJECT_ID, webHook, "event2");
+		dispatcher.stop();
+		assertTrue(received.isEmpty());
+		
+		dispatcher = new WebHookDispatcher(queueDir, locator, executor, 10);
+		dispatcher.start();
+		try {
+			waitFor(dispatcher, 2);
+		} finally {
+			dispatcher.stop();
+		}
+		
+		dispatcher = new WebHookDispatcher(queueDir, locator, executor, 10);
+		dispatcher.start();
+		try {
+			Thread.sleep(100);
+			assertEquals(2, received.size());
+		} finally {
+			dispatcher.stop();
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+package io.onedev.server.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.shiro.authz.Permission;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import io.onedev.commons.utils.PlanarRange;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.model.Project;
+import io.onedev.server.rest.CodeSearchResource.TextHitResponse;
+import io.onedev.server.rest.jersey.InvalidParamException;
+import io.onedev.server.rest.support.RestConstants;
+import io.onedev.server.search.code.SearchManager;
+import io.onedev.server.search.code.hit.QueryHit;
+import io.onedev.server.search.code.hit.TextHit;
+import io.onedev.server.search.code.query.BlobQuery;
+
+public class CodeSearchResourceTest {
+
+	private ProjectManager projectManager;
+	
+	private SearchManager searchManager;
+	
+	private CodeSearchResource resource;
+	
+	@Before
+	public void before() {
+		projectManager = Mockito.mock(ProjectManager.class);
+		searchManager = Mockito.mock(SearchManager.class);
+		resource = new CodeSearchResource(projectManager, searchManager);
+	}
+	
+	@Test
+	public void shouldReturnHitsOfPermittedProjects() throws Exception {
+		Project project = Mockito.mock(Project.class);
+		Mockito.when(project.getId()).thenReturn(1L);
+		Mockito.when(project.getName()).thenReturn("test");
+		Mockito.when(projectManager.getPermittedProjects(Mockito.any(Permission.class)))
+				.thenReturn(Lists.newArrayList(project));
+		
+		Map<Project, List<QueryHit>> hits = ImmutableMap.of(project, 
+				Lists.newArrayList(new TextHit("src/Example.java", "String getName();", new PlanarRange(9, 7, 9, 14))));
+		Mockito.when(searchManager.search(Mockito.anyList(), Mockito.any(BlobQuery.class))).thenReturn(hits);
+		
+		List<TextHitResponse> responses = resource.searchText("getName", false, false, false, null, 10);
+		assertEquals(1, responses.size());
+		TextHitResponse response = responses.get(0);
+		assertEquals(Long.valueOf(1), response.projectId);
+		assertEquals("test", response.projectName);
+		assertEquals("src/Example.java", response.blobPath);
+		assertEquals(10, response.line);
+		assertEquals(7, response.fromColumn);
+		assertEquals(14, response.toColumn);
+	}
+	
+	@Test
+	public void shouldRejectInvalidCount() {
+		try {
+			resource.searchText("getName", false, false, false, null, 0);
+			fail();
+		} catch (InvalidParamException e) {
+		}
+		try {
+			resource.searchText("getName", false, false, false, null, RestConstants.MAX_PAGE_SIZE + 1);
+			fail();
+		} catch (InvalidParamException e) {
+		}
+	}
+	
+}
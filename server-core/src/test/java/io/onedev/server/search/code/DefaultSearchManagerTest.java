@@ -0,0 +1,73 @@
+package io.onedev.server.search.code;
+
+import static io.onedev.server.search.code.FieldConstants.BLOB_HASH;
+import static io.onedev.server.search.code.FieldConstants.BLOB_INDEX_VERSION;
+import static io.onedev.server.search.code.FieldConstants.BLOB_PATH;
+import static io.onedev.server.search.code.FieldConstants.BLOB_SYMBOL_LIST;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class DefaultSearchManagerTest {
+
+	private static final String INDEX_VERSION = "1";
+	
+	private static final String BLOB_PATH_VALUE = "readme.txt";
+	
+	private IndexSearcher newSearcher(Directory directory, ObjectId... blobIds) throws IOException {
+		try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+			for (ObjectId blobId: blobIds) {
+				Document document = new Document();
+				document.add(new StoredField(BLOB_INDEX_VERSION.name(), INDEX_VERSION));
+				document.add(new StringField(BLOB_HASH.name(), blobId.name(), Store.NO));
+				document.add(new StringField(BLOB_PATH.name(), BLOB_PATH_VALUE, Store.NO));
+				document.add(new StoredField(BLOB_SYMBOL_LIST.name(), SymbolListCodec.encode(new ArrayList<>())));
+				writer.addDocument(document);
+			}
+			writer.commit();
+		}
+		return new IndexSearcher(DirectoryReader.open(directory));
+	}
+	
+	@Test
+	public void shouldNotReturnCachedSymbolsOfBlobNotInIndex() throws IOException {
+		IndexManager indexManager = Mockito.mock(IndexManager.class);
+		Mockito.when(indexManager.getIndexVersion(Mockito.any())).thenReturn(INDEX_VERSION);
+		DefaultSearchManager searchManager = new DefaultSearchManager(indexManager, Mockito.mock(ExecutorService.class));
+		
+		ObjectId blobId = ObjectId.fromString("0123456789abcdef0123456789abcdef01234567");
+		try (	Directory indexedDirectory = new RAMDirectory(); 
+				Directory emptyDirectory = new RAMDirectory()) {
+			IndexSearcher indexedSearcher = newSearcher(indexedDirectory, blobId);
+			IndexSearcher emptySearcher = newSearcher(emptyDirectory);
+			
+			assertNotNull(searchManager.getSymbols(indexedSearcher, blobId, BLOB_PATH_VALUE));
+			// Served from cache
+			assertNotNull(searchManager.getSymbols(indexedSearcher, blobId, BLOB_PATH_VALUE));
+			
+			assertNull(searchManager.getSymbols(emptySearcher, blobId, BLOB_PATH_VALUE));
+			assertNull(searchManager.getSymbols(null, blobId, BLOB_PATH_VALUE));
+			
+			indexedSearcher.getIndexReader().close();
+			emptySearcher.getIndexReader().close();
+		}
+	}
+	
+}
@@ -0,0 +1,117 @@
+package io.onedev.server.search.code;
+
+import static org.junit.Assert.*;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang.SerializationUtils;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class SymbolListCodecTest {
+	
+	@Test
+	public void shouldDecodeEncodedSymbols() {
+		TestSymbol type = new TestSymbol(null, "Example", Kind.TYPE, new TestRange(0, 0, 10, 1), -1L);
+		TestSymbol method = new TestSymbol(type, "getName", Kind.METHOD, new TestRange(2, 4, 4, 5), Long.MAX_VALUE);
+		method.modifiers.add("public");
+		method.modifiers.add(null);
+		method.created = new Date(1000);
+		TestSymbol field = new TestSymbol(type, "name", Kind.FIELD, null, Long.MIN_VALUE);
+		field.cache = "not stored";
+		
+		List<TestSymbol> decoded = SymbolListCodec.decode(SymbolListCodec.encode(Lists.newArrayList(type, method, field)));
+		
+		assertEquals(3, decoded.size());
+		assertNull(decoded.get(0).parent);
+		assertEquals("Example", decoded.get(0).name);
+		assertEquals(Kind.TYPE, decoded.get(0).kind);
+		assertEquals(10, decoded.get(0).range.toRow);
+		assertEquals(-1L, decoded.get(0).id);
+		
+		assertSame(decoded.get(0), decoded.get(1).parent);
+		assertSame(decoded.get(0), decoded.get(2).parent);
+		assertEquals(Lists.newArrayList("public", null), decoded.get(1).modifiers);
+		assertEquals(new Date(1000), decoded.get(1).created);
+		assertEquals(Long.MAX_VALUE, decoded.get(1).id);
+		assertEquals(4, decoded.get(1).range.fromColumn);
+		
+		assertNull(decoded.get(2).range);
+		assertNull(decoded.get(2).cache);
+		assertEquals(Long.MIN_VALUE, decoded.get(2).id);
+	}
+	
+	@Test
+	public void shouldBeSmallerThanJavaSerialization() {
+		ArrayList<TestSymbol> symbols = new ArrayList<>();
+		TestSymbol type = new TestSymbol(null, "Example", Kind.TYPE, new TestRange(0, 0, 1000, 1), 0);
+		symbols.add(type);
+		for (int i=0; i<1000; i++)
+			symbols.add(new TestSymbol(type, "method" + i, Kind.METHOD, new TestRange(i, 4, i, 20), i));
+		
+		assertTrue(SymbolListCodec.encode(symbols).length < SerializationUtils.serialize(symbols).length / 2);
+	}
+	
+	@Test
+	public void shouldRejectUnknownVersion() {
+		byte[] bytes = SymbolListCodec.encode(new ArrayList<>());
+		bytes[0] = 100;
+		try {
+			SymbolListCodec.decode(bytes);
+			fail();
+		} catch (IllegalStateException e) {
+		}
+	}
+	
+	private static enum Kind {TYPE, METHOD, FIELD}
+	
+	private static class TestRange implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		final int fromRow, fromColumn, toRow, toColumn;
+		
+		TestRange(int fromRow, int fromColumn, int toRow, int toColumn) {
+			this.fromRow = fromRow;
+			this.fromColumn = fromColumn;
+			this.toRow = toRow;
+			this.toColumn = toColumn;
+		}
+	
+	}
+	
+	private static class TestSymbol implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		final TestSymbol parent;
+		
+		final String name;
+		
+		final Kind kind;
+		
+		final TestRange range;
+		
+		final long id;
+		
+		final List<String> modifiers = new ArrayList<>();
+		
+		Date created;
+		
+		transient String cache;
+		
+		TestSymbol(TestSymbol parent, String name, Kind kind, TestRange range, long id) {
+			this.parent = parent;
+			this.name = name;
+			this.kind = kind;
+			this.range = range;
+			this.id = id;
+		}
+	
+	}
+
+}
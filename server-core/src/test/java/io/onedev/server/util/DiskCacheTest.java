@@ -0,0 +1,194 @@
+package io.onedev.server.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.onedev.commons.utils.FileUtils;
+
+public class DiskCacheTest {
+	
+	private File cacheDir;
+	
+	private ExecutorService executor;
+	
+	@Before
+	public void before() {
+		cacheDir = FileUtils.createTempDir();
+		executor = Executors.newCachedThreadPool();
+	}
+	
+	@After
+	public void after() {
+		executor.shutdownNow();
+		FileUtils.deleteDir(cacheDir);
+	}
+	
+	private DiskCache.Generator newGenerator(String content, AtomicInteger generations) {
+		return new DiskCache.Generator() {
+			
+			@Override
+			public void generate(OutputStream os) throws Exception {
+				generations.incrementAndGet();
+				os.write(content.getBytes(StandardCharsets.UTF_8));
+			}
+		
+		};
+	}
+	
+	private String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+	
+	@Test
+	public void shouldCollapseConcurrentGenerations() throws Exception {
+		DiskCache cache = new DiskCache(cacheDir, 1024);
+		cache.load();
+		
+		AtomicInteger generations = new AtomicInteger();
+		CountDownLatch latch = new CountDownLatch(1);
+		DiskCache.Generator generator = new DiskCache.Generator() {
+			
+			@Override
+			public void generate(OutputStream os) throws Exception {
+				generations.incrementAndGet();
+				latch.await();
+				os.write("content".getBytes(StandardCharsets.UTF_8));
+			}
+		
+		};
+		
+		List<Future<String>> futures = new ArrayList<>();
+		for (int i=0; i<10; i++) {
+			futures.add(executor.submit(new Callable<String>() {
+				
+				@Override
+				public String call() throws Exception {
+					ByteArrayOutputStream baos = new ByteArrayOutputStream();
+					cache.write("1/key", generator, baos);
+					return new String(baos.toByteArray(), StandardCharsets.UTF_8);
+				}
+			
+			}));
+		}
+		Thread.sleep(100);
+		latch.countDown();
+		for (Future<String> future: futures)
+			assertEquals("content", future.get());
+		assertEquals(1, generations.get());
+		assertEquals("content", read(cache.get("1/key", newGenerator("other", generations))));
+		assertEquals(1, generations.get());
+	}
+	
+	@Test
+	public void shouldEvictLeastRecentlyUsed() throws Exception {
+		DiskCache cache = new DiskCache(cacheDir, 10);
+		cache.load();
+		
+		AtomicInteger generations = new AtomicInteger();
+		cache.get("a", newGenerator("aaaa", generations));
+		cache.get("b", newGenerator("bbbb", generations));
+		cache.get("a", newGenerator("aaaa", generations));
+		cache.get("c", newGenerator("cccc", generations));
+		assertEquals(3, generations.get());
+		assertEquals(8, cache.getSize());
+		assertFalse(new File(cacheDir, "b").exists());
+		
+		cache.get("a", newGenerator("aaaa", generations));
+		assertEquals(3, generations.get());
+		
+		DiskCache reloaded = new DiskCache(cacheDir, 10);
+		reloaded.load();
+		assertEquals(8, reloaded.getSize());
+		reloaded.get("c", newGenerator("cccc", generations));
+		assertEquals(3, generations.get());
+	}
+	
+	@Test
+	public void shouldKeepOpenedEntryReadableAfterEviction() throws Exception {
+		DiskCache cache = new DiskCache(cacheDir, 10);
+		cache.load();
+		
+		AtomicInteger generations = new AtomicInteger();
+		try (FileChannel channel = cache.open("a", newGenerator("aaaa", generations))) {
+			try (FileChannel hitChannel = cache.open("a", newGenerator("aaaa", generations))) {
+				assertEquals(1, generations.get());
+				assertEquals(4, hitChannel.size());
+			}
+			
+			cache.get("b", newGenerator("bbbb", generations));
+			cache.get("c", newGenerator("cccc", generations));
+			assertFalse(new File(cacheDir, "a").exists());
+			
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining() && channel.read(buffer) != -1);
+			assertEquals("aaaa", new String(buffer.array(), StandardCharsets.UTF_8));
+		}
+		
+		try (FileChannel channel = cache.open("a", newGenerator("aaaa", generations))) {
+			assertEquals(4, generations.get());
+		}
+	}
+	
+	@Test
+	public void shouldInvalidateByPrefix() throws Exception {
+		DiskCache cache = new DiskCache(cacheDir, 1024);
+		cache.load();
+		
+		AtomicInteger generations = new AtomicInteger();
+		cache.get("1/key", newGenerator("one", generations));
+		cache.get("2/key", newGenerator("two", generations));
+		cache.invalidate("1/");
+		
+		assertEquals("two", read(cache.get("2/key", newGenerator("two", generations))));
+		assertEquals(2, generations.get());
+		assertEquals("new", read(cache.get("1/key", newGenerator("new", generations))));
+		assertEquals(3, generations.get());
+	}
+	
+	@Test
+	public void shouldNotCacheFailedGeneration() throws Exception {
+		DiskCache cache = new DiskCache(cacheDir, 1024);
+		cache.load();
+		
+		try {
+			cache.get("key", new DiskCache.Generator() {
+				
+				@Override
+				public void generate(OutputStream os) throws Exception {
+					os.write("partial".getBytes(StandardCharsets.UTF_8));
+					throw new IllegalStateException("failed");
+				}
+			
+			});
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(0, cache.getSize());
+		assertEquals(0, cacheDir.listFiles().length);
+		
+		AtomicInteger generations = new AtomicInteger();
+		assertEquals("content", read(cache.get("key", newGenerator("content", generations))));
+		assertEquals(1, generations.get());
+	}
+
+}
@@ -0,0 +1,78 @@
+package io.onedev.server.web.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.wicket.request.Request;
+import org.apache.wicket.request.Response;
+import org.apache.wicket.request.resource.AbstractResource.ResourceResponse;
+import org.apache.wicket.request.resource.IResource.Attributes;
+import org.apache.wicket.util.time.Time;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class ResourceUtilsTest {
+
+	private static final String ETAG = "\"0123456789abcdef0123456789abcdef01234567-zip\"";
+	
+	private HttpServletRequest servletRequest;
+	
+	private Attributes attributes;
+	
+	@Before
+	public void before() {
+		servletRequest = Mockito.mock(HttpServletRequest.class);
+		Mockito.when(servletRequest.getDateHeader(Mockito.anyString())).thenReturn(-1L);
+		Request request = Mockito.mock(Request.class);
+		Mockito.when(request.getContainerRequest()).thenReturn(servletRequest);
+		attributes = new Attributes(request, Mockito.mock(Response.class));
+	}
+	
+	@Test
+	public void shouldNotModifyIfETagMatches() {
+		Mockito.when(servletRequest.getHeader("If-None-Match")).thenReturn("\"other\", " + ETAG);
+		ResourceResponse response = new ResourceResponse();
+		assertTrue(ResourceUtils.checkNotModified(attributes, response, ETAG));
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatusCode().intValue());
+		assertEquals(ETAG, response.getHeaders().getHeader("ETag"));
+	}
+	
+	@Test
+	public void shouldModifyIfETagDiffers() {
+		Mockito.when(servletRequest.getHeader("If-None-Match")).thenReturn("\"other\"");
+		Mockito.when(servletRequest.getDateHeader("If-Modified-Since")).thenReturn(System.currentTimeMillis());
+		ResourceResponse response = new ResourceResponse();
+		response.setLastModified(Time.millis(0));
+		assertFalse(ResourceUtils.checkNotModified(attributes, response, ETAG));
+		assertNull(response.getStatusCode());
+	}
+	
+	@Test
+	public void shouldCheckModifiedSinceWithoutETag() {
+		long lastModified = 1600000000000L;
+		ResourceResponse response = new ResourceResponse();
+		response.setLastModified(Time.millis(lastModified));
+		
+		Mockito.when(servletRequest.getDateHeader("If-Modified-Since")).thenReturn(lastModified);
+		assertTrue(ResourceUtils.checkNotModified(attributes, response, ETAG));
+		
+		response = new ResourceResponse();
+		response.setLastModified(Time.millis(lastModified));
+		Mockito.when(servletRequest.getDateHeader("If-Modified-Since")).thenReturn(lastModified - 1000);
+		assertFalse(ResourceUtils.checkNotModified(attributes, response, ETAG));
+	}
+	
+	@Test
+	public void shouldIgnoreModifiedSinceWithoutLastModified() {
+		// Response of archive requested by branch or tag does not have last modified time 
+		Mockito.when(servletRequest.getDateHeader("If-Modified-Since")).thenReturn(System.currentTimeMillis());
+		assertFalse(ResourceUtils.checkNotModified(attributes, new ResourceResponse(), ETAG));
+	}
+	
+}
@@ -3,6 +3,8 @@ package io.onedev.server.product;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -15,6 +17,7 @@ import io.onedev.commons.launcher.bootstrap.Bootstrap;
 import io.onedev.commons.utils.FileUtils;
 import io.onedev.commons.utils.ExplicitException;
 import io.onedev.server.util.ServerConfig;
+import io.onedev.server.util.work.WorkCategory;
 
 @Singleton
 public class DefaultServerConfig implements ServerConfig {
@@ -35,6 +38,22 @@ public class DefaultServerConfig implements ServerConfig {
 	
 	private static final String PROP_SESSION_TIMEOUT = "session_timeout";
 	
+	private static final String PROP_WORK_CONCURRENCY_SUFFIX = "_concurrency";
+	
+	private static final String PROP_ARCHIVE_CACHE_SIZE = "archive_cache_size";
+	
+	private static final int DEFAULT_ARCHIVE_CACHE_SIZE = 1024;
+	
+	private static final String PROP_GIT_FETCH_CONCURRENCY = "git_fetch_concurrency";
+	
+	private static final String PROP_GIT_PUSH_CONCURRENCY = "git_push_concurrency";
+	
+	private static final String PROP_GIT_QUEUE_TIMEOUT = "git_queue_timeout";
+	
+	private static final int DEFAULT_GIT_QUEUE_TIMEOUT = 60;
+	
+	private static final String PROP_GIT_PACK_CACHE_SIZE = "git_pack_cache_size";
+	
 	private int httpPort;
 	
 	private int sessionTimeout;
@@ -49,6 +68,18 @@ public class DefaultServerConfig implements ServerConfig {
 	
 	private String keystorePassword;
 	
+	private final Map<WorkCategory, Integer> workConcurrencies = new EnumMap<>(WorkCategory.class);
+	
+	private int archiveCacheSize;
+	
+	private int gitFetchConcurrency;
+	
+	private int gitPushConcurrency;
+	
+	private int gitQueueTimeout;
+	
+	private int gitPackCacheSize;
+	
 	@Inject
 	public DefaultServerConfig(ServerProperties props) {
 		String httpPortStr = System.getenv(PROP_HTTPPORT);
@@ -127,6 +158,57 @@ public class DefaultServerConfig implements ServerConfig {
 			sessionTimeout = Integer.parseInt(sessionTimeoutStr.trim());
 		else
 			throw new ExplicitException(PROP_SESSION_TIMEOUT + " should be specified");
+		
+		for (WorkCategory category: WorkCategory.values()) {
+			String propName = category.name().toLowerCase() + PROP_WORK_CONCURRENCY_SUFFIX;
+			String concurrencyStr = System.getenv(propName);
+			if (StringUtils.isBlank(concurrencyStr))
+				concurrencyStr = props.getProperty(propName);
+			if (StringUtils.isNotBlank(concurrencyStr)) {
+				int concurrency = Integer.parseInt(concurrencyStr.trim());
+				if (concurrency < 1)
+					throw new ExplicitException(propName + " should be at least 1");
+				workConcurrencies.put(category, concurrency);
+			} else {
+				workConcurrencies.put(category, category.getDefaultConcurrency());
+			}
+		}
+		
+		String archiveCacheSizeStr = System.getenv(PROP_ARCHIVE_CACHE_SIZE);
+		if (StringUtils.isBlank(archiveCacheSizeStr))
+			archiveCacheSizeStr = props.getProperty(PROP_ARCHIVE_CACHE_SIZE);
+		if (StringUtils.isNotBlank(archiveCacheSizeStr))
+			archiveCacheSize = Integer.parseInt(archiveCacheSizeStr.trim());
+		else
+			archiveCacheSize = DEFAULT_ARCHIVE_CACHE_SIZE;
+		
+		int cpus = Runtime.getRuntime().availableProcessors();
+		gitFetchConcurrency = getPositiveInt(props, PROP_GIT_FETCH_CONCURRENCY, cpus);
+		gitPushConcurrency = getPositiveInt(props, PROP_GIT_PUSH_CONCURRENCY, Math.max(cpus/2, 2));
+		gitQueueTimeout = getPositiveInt(props, PROP_GIT_QUEUE_TIMEOUT, DEFAULT_GIT_QUEUE_TIMEOUT);
+		
+		String gitPackCacheSizeStr = System.getenv(PROP_GIT_PACK_CACHE_SIZE);
+		if (StringUtils.isBlank(gitPackCacheSizeStr))
+			gitPackCacheSizeStr = props.getProperty(PROP_GIT_PACK_CACHE_SIZE);
+		if (StringUtils.isNotBlank(gitPackCacheSizeStr)) {
+			gitPackCacheSize = Integer.parseInt(gitPackCacheSizeStr.trim());
+			if (gitPackCacheSize < 0)
+				throw new ExplicitException(PROP_GIT_PACK_CACHE_SIZE + " should not be negative");
+		}
+	}
+	
+	private int getPositiveInt(ServerProperties props, String propName, int defaultValue) {
+		String valueStr = System.getenv(propName);
+		if (StringUtils.isBlank(valueStr))
+			valueStr = props.getProperty(propName);
+		if (StringUtils.isNotBlank(valueStr)) {
+			int value = Integer.parseInt(valueStr.trim());
+			if (value < 1)
+				throw new ExplicitException(propName + " should be at least 1");
+			return value;
+		} else {
+			return defaultValue;
+		}
 	}
 	
 	@Override
@@ -164,4 +246,34 @@ public class DefaultServerConfig implements ServerConfig {
         return sshPort;
     }
 	
+	@Override
+	public int getWorkConcurrency(WorkCategory category) {
+		return workConcurrencies.get(category);
+	}
+
+	@Override
+	public int getArchiveCacheSize() {
+		return archiveCacheSize;
+	}
+
+	@Override
+	public int getGitFetchConcurrency() {
+		return gitFetchConcurrency;
+	}
+
+	@Override
+	public int getGitPushConcurrency() {
+		return gitPushConcurrency;
+	}
+
+	@Override
+	public int getGitQueueTimeout() {
+		return gitQueueTimeout;
+	}
+
+	@Override
+	public int getGitPackCacheSize() {
+		return gitPackCacheSize;
+	}
+	
 }